@@ -0,0 +1,30 @@
+package com.stickfight.backend;
+
+/**
+ * What a fighter is doing. The ordinal is the action code of the binary protocol,
+ * so only append new values.
+ */
+enum Action {
+    IDLE("idle"),
+    RUN("run"),
+    JUMP("jump"),
+    LIGHT("light"),
+    HEAVY("heavy"),
+    BLOCK("block");
+
+    private static final Action[] VALUES = values();
+
+    /** Name used in JSON messages. */
+    final String wire;
+
+    Action(String wire) { this.wire = wire; }
+
+    boolean isAttack() { return this == LIGHT || this == HEAVY; }
+
+    /** Attacks and block lock out walking and jumping. */
+    boolean isLocked() { return this == LIGHT || this == HEAVY || this == BLOCK; }
+
+    int code() { return ordinal(); }
+
+    static Action ofCode(int code) { return VALUES[code]; }
+}
@@ -0,0 +1,72 @@
+package com.stickfight.backend;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary form of the {@code state} message, for clients that join with {@code "proto":"bin"}.
+ * All multi-byte fields are big-endian (DataView default on the client).
+ * <pre>
+ * offset size
+ *  0     u8   message kind (1 = state)
+ *  1     u16  server tick (wraps)
+ *  3     u8   flags: bit0 = ko, bits1-2 = koReason (0 none, 1 hp, 2 timeout)
+ *  4     u8   round timer, whole seconds remaining
+ *  5     u32  server time: low 32 bits of epoch ms at capture (wraps)
+ *  9     9    player 1
+ * 18     9    player 2
+ *  ...        and so on: a free-for-all room sends all its slots, so the count is (length - 9) / 9
+ *
+ * player:
+ *  0     i16  x, fixed point (1/8 px)
+ *  2     i16  y, fixed point (1/8 px)
+ *  4     u8   hp
+ *  5     u8   action: {@link Action#code()} (idle 0, run 1, jump 2, light 3, heavy 4, block 5)
+ *  6     u8   facing: 1 = right, 0xFF = left
+ *  7     u16  ack: low 16 bits of the last input seq applied (0xFFFF = none yet)
+ * </pre>
+ * Names are not part of the frame; they arrive in {@code joined}/{@code peer_joined}.
+ */
+final class BinaryStateCodec {
+    static final byte KIND_STATE = 1;
+    static final int FIXED_POINT_SCALE = 8;
+    static final int PLAYER_SIZE = 9;
+    static final int HEADER_SIZE = 9;
+
+    private BinaryStateCodec() {}
+
+    static int stateSize(int players) {
+        return HEADER_SIZE + players * PLAYER_SIZE;
+    }
+
+    static void writeHeader(ByteBuffer buf, int tick, long serverTime, boolean ko, String koReason, int timerSeconds) {
+        buf.put(KIND_STATE);
+        buf.putShort((short) tick);
+        int flags = ko ? 1 : 0;
+        flags |= koReasonCode(koReason) << 1;
+        buf.put((byte) flags);
+        buf.put((byte) Math.min(255, Math.max(0, timerSeconds)));
+        buf.putInt((int) serverTime);
+    }
+
+    static void writePlayer(ByteBuffer buf, double x, double y, int hp, int facing, Action action, int ack) {
+        buf.putShort(fixed(x));
+        buf.putShort(fixed(y));
+        buf.put((byte) Math.min(255, Math.max(0, hp)));
+        buf.put((byte) action.code());
+        buf.put((byte) facing);
+        buf.putShort((short) ack);
+    }
+
+    static short fixed(double v) {
+        long q = Math.round(v * FIXED_POINT_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, q));
+    }
+
+    static int koReasonCode(String reason) {
+        return switch (reason) {
+            case "hp" -> 1;
+            case "timeout" -> 2;
+            default -> 0;
+        };
+    }
+}
@@ -0,0 +1,146 @@
+package com.stickfight.backend;
+
+/**
+ * A server-side opponent filling a room slot for practice. Each tick, before the match steps,
+ * it picks the buttons its fighter holds from the fighters' state alone: close in on the
+ * nearest opponent, strike from fist range, back off when too close, block attacks it sees
+ * coming. The {@link Difficulty} sets how fast it reacts and how often it blocks and attacks.
+ * <p>
+ * Meant to run by the thousand inside the tick: a decision is a scan of the room's fighters
+ * and a few compares, between decisions it only re-presses what it held (letting go of a walk
+ * key once it gets where it was going), and it allocates nothing. Randomness is a per-bot
+ * xorshift, so a bot with a given seed plays the same way against the same inputs (and replays
+ * stay exact: they record the buttons, not the bot).
+ * Used only from the room's tick, under its monitor.
+ */
+final class BotController {
+    enum Difficulty {
+        //     reaction  block  attack heavy
+        EASY(     450,   0.10,  0.25,  0.50),
+        NORMAL(   250,   0.40,  0.55,  0.30),
+        HARD(     120,   0.80,  0.90,  0.20);
+
+        final int reactionMs;       // time between decisions
+        final double blockChance;   // per decision, when an attack is coming
+        final double attackChance;  // per decision, when in range and free to attack
+        final double heavyChance;   // of those attacks
+        final String displayName;   // the bot fighter's name
+
+        Difficulty(int reactionMs, double blockChance, double attackChance, double heavyChance) {
+            this.reactionMs = reactionMs;
+            this.blockChance = blockChance;
+            this.attackChance = attackChance;
+            this.heavyChance = heavyChance;
+            this.displayName = "Bot (" + wire() + ")";
+        }
+
+        String wire() { return name().toLowerCase(); }
+
+        /** "easy" / "normal" / "hard", or null. */
+        static Difficulty parse(String s) {
+            return switch (s) {
+                case "easy" -> EASY;
+                case "normal" -> NORMAL;
+                case "hard" -> HARD;
+                default -> null;
+            };
+        }
+    }
+
+    // distances to the target it attacks from: about where the fist meets the torso
+    static final double STRIKE_MIN = 20;
+    static final double STRIKE_MAX = 40;
+    // roughly how far a fighter slides after letting go of a walk key
+    static final double COAST = 11;
+    private static final int WALK = Pressed.LEFT | Pressed.RIGHT;
+    private static final double JUMP_CHANCE = 0.03;
+
+    final int slot;
+    final Difficulty difficulty;
+    private final int reactionTicks;
+    private long rng;
+    private int wait;   // ticks until the next decision
+    private int bits;   // what it decided to hold
+    private int target = -1; // fighter index it is after, -1 if none
+
+    BotController(int slot, Difficulty difficulty, int tickHz, long seed) {
+        this.slot = slot;
+        this.difficulty = difficulty;
+        this.reactionTicks = Match.ticks(difficulty.reactionMs, tickHz);
+        this.rng = seed != 0 ? seed : 0x9E3779B97F4A7C15L; // xorshift must not start at 0
+    }
+
+    /** Press this tick's buttons for the bot's fighter. Allocation-free. */
+    void drive(Match m) {
+        if (--wait <= 0) {
+            // a little jitter so bots in the same room don't act in lockstep
+            wait = reactionTicks + (int) (next() >>> 33) % (reactionTicks / 2 + 1);
+            bits = decide(m);
+        }
+        if ((bits & WALK) != 0 && target >= 0) bits = steer(m);
+        m.keys[slot - 1].apply(Pressed.full(bits));
+    }
+
+    // walking in: stop at striking distance, facing the target (coasting takes it the rest of
+    // the way); backing off: stop far enough out that turning round doesn't bring it too close
+    private int steer(Match m) {
+        PlayerState me = m.fighters[slot - 1], foe = m.fighters[target];
+        double dx = foe.x - me.x, dist = Math.abs(dx);
+        boolean closing = (bits & (dx >= 0 ? Pressed.RIGHT : Pressed.LEFT)) != 0;
+        boolean there = closing ? facing(me, dx) && dist <= STRIKE_MAX : dist >= STRIKE_MIN + COAST;
+        return there ? bits & ~WALK : bits;
+    }
+
+    private int decide(Match m) {
+        PlayerState me = m.fighters[slot - 1];
+        target = m.ko || me.hp <= 0 ? -1 : nearestOpponent(m);
+        if (target < 0) return 0;
+        PlayerState foe = m.fighters[target];
+
+        double dx = foe.x - me.x, dist = Math.abs(dx);
+        int toward = dx >= 0 ? Pressed.RIGHT : Pressed.LEFT;
+        int away = dx >= 0 ? Pressed.LEFT : Pressed.RIGHT;
+        boolean facingFoe = facing(me, dx);
+
+        // blocking only helps facing the attacker, so turn in the same tick
+        if (foe.action.isAttack() && dist <= Match.HIT_RANGE && chance(difficulty.blockChance)) {
+            return Pressed.BLOCK | (facingFoe ? 0 : toward);
+        }
+        if (dist > STRIKE_MAX) return toward | (chance(JUMP_CHANCE) ? Pressed.UP : 0);
+        if (dist < STRIKE_MIN) return away;
+        if (!facingFoe) return toward;
+        if (me.action.isAttack() || !chance(difficulty.attackChance)) return 0;
+        return chance(difficulty.heavyChance) ? Pressed.HEAVY : Pressed.LIGHT;
+    }
+
+    // index of the closest fighter still standing, -1 if none
+    private int nearestOpponent(Match m) {
+        PlayerState me = m.fighters[slot - 1];
+        int best = -1;
+        double bestDist = Double.MAX_VALUE;
+        for (int i = 0; i < m.fighters.length; i++) {
+            PlayerState p = m.fighters[i];
+            if (i == slot - 1 || !m.present[i] || p.hp <= 0) continue;
+            double d = Math.abs(p.x - me.x);
+            if (d < bestDist) { best = i; bestDist = d; }
+        }
+        return best;
+    }
+
+    private static boolean facing(PlayerState me, double dx) {
+        return dx >= 0 ? me.facing == 1 : me.facing == -1;
+    }
+
+    private boolean chance(double p) {
+        return (next() >>> 11) * 0x1.0p-53 < p;
+    }
+
+    // xorshift64
+    private long next() {
+        long x = rng;
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        return rng = x;
+    }
+}
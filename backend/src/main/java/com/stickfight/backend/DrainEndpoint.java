@@ -0,0 +1,42 @@
+package com.stickfight.backend;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code drain}: invoke before a deploy to stop new joins and queueing (the matches in progress go
+ * on, and move to the next instance at shutdown, see {@link RoomHandoff}); read to watch the rooms
+ * run down. Exposed over local JMX only, never over the web: it would let anyone who can reach
+ * the game port empty the server. Shutting down (SIGTERM) drains by itself.
+ */
+@Component
+@Endpoint(id = "drain")
+class DrainEndpoint {
+    private final GameHandler game;
+
+    DrainEndpoint(GameHandler game) {
+        this.game = game;
+    }
+
+    @ReadOperation
+    Map<String, Object> status() {
+        List<Room> all = List.copyOf(game.rooms());
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("draining", game.draining());
+        out.put("rooms", all.size());
+        out.put("sessions", all.stream().mapToInt(Room::sessionCount).sum());
+        return out;
+    }
+
+    @WriteOperation
+    Map<String, Object> drain() {
+        game.drain();
+        return status();
+    }
+}
@@ -0,0 +1,51 @@
+package com.stickfight.backend;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bytes per second the server as a whole means to write to its WebSockets. Every outbox counts
+ * what it writes here; while the current or the last one-second window is over, each client's
+ * {@link SendRate} sheds its rate unless that client is on a good link. Approximate (windows roll
+ * without a lock), which is all a budget needs. Thread-safe.
+ */
+final class EgressBudget {
+    /** No cap. */
+    static final EgressBudget NONE = new EgressBudget(0);
+
+    private static final long WINDOW_NANOS = 1_000_000_000L;
+
+    private final long bytesPerSecond;
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private final AtomicLong current = new AtomicLong();
+    private volatile long last;
+
+    /** {@code bytesPerSecond} 0 or less: no cap. */
+    EgressBudget(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Bytes just written to some socket. */
+    void spent(int bytes, long now) {
+        if (bytesPerSecond <= 0) return;
+        roll(now);
+        current.addAndGet(bytes);
+    }
+
+    boolean exceeded(long now) {
+        if (bytesPerSecond <= 0) return false;
+        roll(now);
+        return last > bytesPerSecond || current.get() > bytesPerSecond;
+    }
+
+    /** Bytes written in the last full window. */
+    long lastSecond() { return last; }
+
+    private void roll(long now) {
+        long start = windowStart.get();
+        if (now - start >= WINDOW_NANOS && windowStart.compareAndSet(start, now)) {
+            // more than one window since: nothing was written in the one just past
+            last = now - start >= 2 * WINDOW_NANOS ? 0 : current.get();
+            current.set(0);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.stickfight.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Directory whose node list is a shared text file, one {@code <id> <ws url>} per line. Each node
+ * adds itself at startup and removes itself on {@link #close()}, under a file lock; lookups
+ * re-read the file when its modification time changes, checked at most every
+ * {@link #RELOAD_CHECK_MS}. Nodes that die without closing stay listed until the file is edited.
+ * <p>
+ * Claims live next to it, in {@code <file>.rooms/}: one file per claimed room, named after the
+ * room id and holding the id of the node running it (and of the process, so an instance that
+ * hands its rooms to a successor with the same node id doesn't release the successor's claims). They are written under the same lock and
+ * replaced by an atomic rename, so lookups read them without it. A claim by a node that is no
+ * longer listed has lapsed, and the next node to claim the room takes it over.
+ */
+final class FileRoomDirectory implements RoomDirectory {
+    private static final Logger log = LoggerFactory.getLogger(FileRoomDirectory.class);
+    static final long RELOAD_CHECK_MS = 1000;
+    // longer encoded room ids are claimed under a hash of the id instead, to stay within file name limits
+    private static final int MAX_CLAIM_NAME = 200;
+
+    private final Path file;
+    private final Path claims;
+    private final Node self;
+    // what our claims hold, and the rooms they are for (released on close)
+    private final String mine;
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+    private volatile HashRing ring;
+    private volatile FileTime loadedAt;
+    private volatile long nextCheckMillis;
+
+    FileRoomDirectory(Path file, Node self) throws IOException {
+        this.file = file;
+        this.claims = file.resolveSibling(file.getFileName() + ".rooms");
+        this.self = self;
+        this.mine = self.id() + " " + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        Files.createDirectories(claims);
+        update(true);
+        reload();
+    }
+
+    @Override
+    public Node self() { return self; }
+
+    @Override
+    public Node ownerOf(String roomId) {
+        HashRing r = ring();
+        try {
+            Node host = hostOf(r, readClaim(roomId));
+            if (host != null) return host;
+        } catch (IOException e) {
+            log.warn("claim of room {} unreadable", roomId, e);
+        }
+        return r.nodeFor(roomId);
+    }
+
+    @Override
+    public Node claim(String roomId) {
+        HashRing r = ring(); // not under the lock: a reload takes its own
+        try {
+            return locked(ch -> {
+                String current = readClaim(roomId);
+                Node host = hostOf(r, current);
+                if (host != null && !host.id().equals(self.id())) return host;
+                if (!mine.equals(current)) {
+                    // written aside and renamed over any lapsed claim, so a lookup never sees half of it
+                    Path claim = claimFile(roomId);
+                    Path tmp = claims.resolve(claim.getFileName() + "." + self.id() + ".tmp");
+                    Files.writeString(tmp, mine);
+                    Files.move(tmp, claim, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                }
+                claimed.add(roomId);
+                return self;
+            });
+        } catch (IOException e) {
+            // unrecorded: place it as if nobody ran it
+            log.warn("could not claim room {} in {}", roomId, claims, e);
+            return r.nodeFor(roomId);
+        }
+    }
+
+    @Override
+    public void release(String roomId) {
+        if (!claimed.remove(roomId)) return;
+        try {
+            locked(ch -> {
+                unclaim(roomId);
+                return null;
+            });
+        } catch (IOException e) {
+            log.warn("could not release room {} in {}", roomId, claims, e);
+        }
+    }
+
+    private HashRing ring() {
+        long now = System.currentTimeMillis();
+        if (now >= nextCheckMillis) {
+            nextCheckMillis = now + RELOAD_CHECK_MS;
+            try {
+                if (!Files.getLastModifiedTime(file).equals(loadedAt)) reload();
+            } catch (IOException | UncheckedIOException e) {
+                // keep placing rooms with the last list we read
+                log.warn("room directory {} unreadable", file, e);
+            }
+        }
+        return ring;
+    }
+
+    @Override
+    public void close() {
+        try {
+            locked(ch -> {
+                for (String roomId : claimed) unclaim(roomId);
+                return null;
+            });
+            claimed.clear();
+        } catch (IOException e) {
+            log.warn("could not release the rooms of {} in {}", self.id(), claims, e);
+        }
+        try {
+            update(false);
+        } catch (IOException e) {
+            log.warn("could not remove {} from {}", self.id(), file, e);
+        }
+    }
+
+    // "<node id> <process>", or null if nobody has claimed the room
+    private String readClaim(String roomId) throws IOException {
+        try {
+            return Files.readString(claimFile(roomId)).strip();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    // the listed node whose claim stands, or null if nobody's does
+    private static Node hostOf(HashRing r, String claim) {
+        if (claim == null) return null;
+        int space = claim.indexOf(' ');
+        String id = space < 0 ? claim : claim.substring(0, space);
+        for (Node n : r.nodes()) if (n.id().equals(id)) return n;
+        return null; // claimed by a node that has left
+    }
+
+    // under the lock; only ever removes our own claim
+    private void unclaim(String roomId) throws IOException {
+        if (mine.equals(readClaim(roomId))) Files.deleteIfExists(claimFile(roomId));
+    }
+
+    // room ids made file names: [A-Za-z0-9_-] as is, anything else as '.' and four hex digits
+    private Path claimFile(String roomId) {
+        StringBuilder name = new StringBuilder(roomId.length());
+        for (int i = 0; i < roomId.length(); i++) {
+            char c = roomId.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_' || c == '-') name.append(c);
+            else name.append('.').append(String.format("%04x", (int) c));
+        }
+        if (name.length() > MAX_CLAIM_NAME) return claims.resolve("~" + Long.toHexString(HashRing.hash(roomId)));
+        return claims.resolve(name.toString());
+    }
+
+    private interface Locked<T> {
+        T run(FileChannel ch) throws IOException;
+    }
+
+    // exclusive lock on the node list: nodes starting together, or claiming the same room, don't clobber each other
+    private synchronized <T> T locked(Locked<T> body) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileLock ignored = ch.lock()) {
+            return body.run(ch);
+        }
+    }
+
+    // shared lock: never read a list another node is halfway through rewriting
+    private synchronized void reload() throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+             FileLock ignored = ch.lock(0, Long.MAX_VALUE, true)) {
+            FileTime at = Files.getLastModifiedTime(file);
+            List<Node> nodes = read(ch);
+            // we are always a member as far as we are concerned, even if someone edited us out
+            if (nodes.stream().noneMatch(n -> n.id().equals(self.id()))) nodes.add(self);
+            ring = new HashRing(nodes);
+            loadedAt = at;
+        }
+    }
+
+    // add (join) or remove (leave) our line
+    private void update(boolean join) throws IOException {
+        locked(ch -> {
+            List<Node> nodes = read(ch);
+            nodes.removeIf(n -> n.id().equals(self.id()));
+            if (join) nodes.add(self);
+            StringBuilder out = new StringBuilder();
+            for (Node n : nodes) out.append(n.id()).append(' ').append(n.url()).append('\n');
+            ch.truncate(0);
+            ch.write(ByteBuffer.wrap(out.toString().getBytes(StandardCharsets.UTF_8)), 0);
+            return null;
+        });
+    }
+
+    private static List<Node> read(FileChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) ch.size());
+        while (buf.hasRemaining() && ch.read(buf, buf.position()) >= 0) {}
+        return parse(new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8).lines().toList());
+    }
+
+    static List<Node> parse(List<String> lines) {
+        List<Node> nodes = new ArrayList<>();
+        for (String line : lines) {
+            String l = line.strip();
+            if (l.isEmpty() || l.startsWith("#")) continue;
+            String[] parts = l.split("\\s+", 2);
+            nodes.add(new Node(parts[0], parts.length > 1 ? parts[1] : ""));
+        }
+        return nodes;
+    }
+}
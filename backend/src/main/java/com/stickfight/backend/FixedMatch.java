@@ -0,0 +1,219 @@
+package com.stickfight.backend;
+
+/**
+ * Deterministic fixed-point version of {@link Match}, for rollback rooms.
+ * <p>
+ * The whole match is one {@code int[]} of {@link #SIZE} words (positions and velocities in
+ * 16.16 fixed point), and {@link #step} is a pure function of that state and the two players'
+ * {@link Pressed} bits. No floating point and no trig at run time (fist offsets are precomputed
+ * constants), so every client and the server produce the same bits from the same input frames,
+ * and snapshot/restore is a single {@code System.arraycopy}.
+ * <p>
+ * Rules and timings follow {@link Match} (one frame = one 20 Hz tick); values differ from the
+ * double-precision match only by fixed-point rounding.
+ */
+final class FixedMatch {
+    static final int ONE = 1 << 16;
+
+    // ---- per player words (P1 at 0, P2 at PLAYER_WORDS) ----
+    static final int X = 0, Y = 1, VX = 2, VY = 3, HP = 4, FACING = 5, ACTION = 6, TIMER = 7, FLAGS = 8;
+    static final int PLAYER_WORDS = 9;
+    static final int P1 = 0, P2 = PLAYER_WORDS;
+    static final int ON_GROUND = 1, DID_HIT = 2;
+
+    // ---- match words ----
+    static final int FRAME = 2 * PLAYER_WORDS;
+    static final int ROUND_TIMER = FRAME + 1;
+    static final int KO = FRAME + 2;
+    static final int KO_TICKS = FRAME + 3;
+    static final int KO_REASON = FRAME + 4;   // 0 none, 1 hp, 2 timeout (as the binary protocol)
+    static final int SIZE = FRAME + 5;
+
+    // ---- constants in 16.16 (values in comments) ----
+    static final int GRAVITY = 52429;          // 0.8
+    static final int JUMP_POWER = 1114112;     // 17
+    static final int WALK_SPEED = 327680;      // 5
+    static final int FRICTION = 52429;         // 0.8
+    static final int RELEASE_DRAG = 52429;     // 0.8, walk keys released
+    static final int LOCKED_DRAG = 58982;      // 0.9, while attacking/blocking
+    static final int LEFT_BOUND = Match.LEFT_BOUND * ONE;
+    static final int RIGHT_BOUND = Match.RIGHT_BOUND * ONE;
+    static final int BODY_LEN = 40 * ONE;
+    static final int SHOULDER_DROP = 10 * ONE;
+    static final long REACH_SQ = (long) (20 * ONE) * (20 * ONE);
+    static final int KNOCKBACK = 2 * ONE;
+    static final int KNOCKUP = 3 * ONE;
+    // fist offset from the shoulder while attacking: 30 * (cos, sin) of -0.2 (facing right) / -2.94 (left)
+    static final int FIST_DX_RIGHT = 1926889, FIST_DY_RIGHT = -390600;
+    static final int FIST_DX_LEFT = -1926265, FIST_DY_LEFT = -393668;
+
+    private static final int IDLE = Action.IDLE.code(), RUN = Action.RUN.code(), JUMP = Action.JUMP.code();
+    private static final int LIGHT = Action.LIGHT.code(), HEAVY = Action.HEAVY.code(), BLOCK = Action.BLOCK.code();
+
+    private FixedMatch() {}
+
+    static int[] newState() {
+        int[] s = new int[SIZE];
+        resetRound(s);
+        return s;
+    }
+
+    /** Advance one frame. Pure: the result depends only on {@code s}, {@code keys1} and {@code keys2}. */
+    static void step(int[] s, int keys1, int keys2) {
+        s[FRAME]++;
+
+        // ===== ROUND TIMER =====
+        if (s[ROUND_TIMER] > 0) {
+            s[ROUND_TIMER]--;
+        } else if (s[KO] == 0) {
+            s[KO] = 1;
+            s[KO_TICKS] = 0;
+            s[KO_REASON] = 2;
+        }
+
+        // ===== KO HANDLING =====
+        if (s[KO] != 0) {
+            if (++s[KO_TICKS] >= Match.KO_RESET_TICKS) resetRound(s);
+            return;
+        }
+
+        applyInput(s, P1, keys1);
+        applyInput(s, P2, keys2);
+        applyPhysics(s, P1, keys1);
+        applyPhysics(s, P2, keys2);
+        applyHit(s, P1, P2);
+        applyHit(s, P2, P1);
+        tickActionTimer(s, P1, keys1);
+        tickActionTimer(s, P2, keys2);
+
+        if (s[P1 + HP] <= 0 || s[P2 + HP] <= 0) {
+            s[KO] = 1;
+            s[KO_TICKS] = 0;
+            s[KO_REASON] = 1;
+        }
+    }
+
+    /** 64-bit FNV-1a over the state words, for desync checks. */
+    static long hash(int[] s) {
+        long h = 0xcbf29ce484222325L;
+        for (int v : s) {
+            h ^= v;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    static double toPixels(int fixed) {
+        return fixed / (double) ONE;
+    }
+
+    // 16.16 multiply
+    private static int mul(int a, int b) {
+        return (int) (((long) a * b) >> 16);
+    }
+
+    private static boolean locked(int action) {
+        return action == LIGHT || action == HEAVY || action == BLOCK;
+    }
+
+    private static boolean flag(int[] s, int p, int f) {
+        return (s[p + FLAGS] & f) != 0;
+    }
+
+    private static void setFlag(int[] s, int p, int f, boolean on) {
+        if (on) s[p + FLAGS] |= f; else s[p + FLAGS] &= ~f;
+    }
+
+    private static void applyInput(int[] s, int p, int k) {
+        boolean left = (k & Pressed.LEFT) != 0, right = (k & Pressed.RIGHT) != 0;
+        boolean onGround = flag(s, p, ON_GROUND);
+        boolean isLocked = locked(s[p + ACTION]);
+        if (!isLocked) {
+            if (left)  { s[p + VX] = -WALK_SPEED; s[p + FACING] = -1; if (onGround && s[p + ACTION] != JUMP) s[p + ACTION] = RUN; }
+            else if (right) { s[p + VX] = WALK_SPEED; s[p + FACING] = 1; if (onGround && s[p + ACTION] != JUMP) s[p + ACTION] = RUN; }
+            else { s[p + VX] = mul(s[p + VX], RELEASE_DRAG); if (onGround && s[p + ACTION] == RUN) s[p + ACTION] = IDLE; }
+        } else {
+            s[p + VX] = mul(s[p + VX], LOCKED_DRAG);
+        }
+        if ((k & Pressed.UP) != 0 && onGround && !isLocked) {
+            s[p + VY] = -JUMP_POWER; setFlag(s, p, ON_GROUND, false); onGround = false; s[p + ACTION] = JUMP;
+        }
+        if ((k & Pressed.LIGHT) != 0 && onGround && s[p + TIMER] == 0) { s[p + ACTION] = LIGHT; s[p + TIMER] = Match.LIGHT_TICKS; setFlag(s, p, DID_HIT, false); }
+        if ((k & Pressed.HEAVY) != 0 && onGround && s[p + TIMER] == 0) { s[p + ACTION] = HEAVY; s[p + TIMER] = Match.HEAVY_TICKS; setFlag(s, p, DID_HIT, false); }
+        boolean block = (k & Pressed.BLOCK) != 0;
+        if (block && onGround && s[p + ACTION] != BLOCK) { s[p + ACTION] = BLOCK; s[p + TIMER] = Match.BLOCK_TICKS; }
+        if (!block && s[p + ACTION] == BLOCK) { s[p + TIMER] = 0; s[p + ACTION] = (onGround && (left || right)) ? RUN : IDLE; }
+    }
+
+    private static void applyPhysics(int[] s, int p, int k) {
+        s[p + VY] += GRAVITY;
+        s[p + X] += s[p + VX];
+        s[p + Y] += s[p + VY];
+
+        if (s[p + Y] > 0) {
+            s[p + Y] = 0; s[p + VY] = 0; setFlag(s, p, ON_GROUND, true);
+            if (!locked(s[p + ACTION]) && (k & (Pressed.LEFT | Pressed.RIGHT)) == 0) s[p + ACTION] = IDLE;
+        } else {
+            setFlag(s, p, ON_GROUND, false);
+        }
+
+        if (s[p + X] < LEFT_BOUND) s[p + X] = LEFT_BOUND;
+        if (s[p + X] > RIGHT_BOUND) s[p + X] = RIGHT_BOUND;
+
+        if (flag(s, p, ON_GROUND)) s[p + VX] = mul(s[p + VX], FRICTION);
+    }
+
+    private static void applyHit(int[] s, int a, int d) {
+        int act = s[a + ACTION];
+        if (act != LIGHT && act != HEAVY) return;
+        if (flag(s, a, DID_HIT)) return;
+
+        boolean right = s[a + FACING] == 1;
+        long fx = (long) s[a + X] + (right ? FIST_DX_RIGHT : FIST_DX_LEFT);
+        long fy = (long) s[a + Y] - BODY_LEN + SHOULDER_DROP + (right ? FIST_DY_RIGHT : FIST_DY_LEFT);
+        long dx = fx - s[d + X];
+        long dy = fy - (s[d + Y] - BODY_LEN / 2);
+        if (dx * dx + dy * dy > REACH_SQ) return;
+
+        boolean attackerOnRight = s[a + X] > s[d + X];
+        boolean defenderFacingAttacker = attackerOnRight ? s[d + FACING] == 1 : s[d + FACING] == -1;
+        boolean blocked = s[d + ACTION] == BLOCK && defenderFacingAttacker;
+        // round(dmg * 0.4) when blocked, as in Match
+        int dmg = act == LIGHT ? (blocked ? 3 : 8) : (blocked ? 7 : 18);
+        s[d + HP] = Math.max(0, s[d + HP] - dmg);
+
+        s[d + VX] += attackerOnRight ? KNOCKBACK : -KNOCKBACK;
+        if (flag(s, d, ON_GROUND)) s[d + VY] = -KNOCKUP;
+
+        setFlag(s, a, DID_HIT, true);
+    }
+
+    private static void tickActionTimer(int[] s, int p, int k) {
+        if (s[p + TIMER] > 0) {
+            if (--s[p + TIMER] == 0 && s[p + ACTION] != JUMP) {
+                s[p + ACTION] = (flag(s, p, ON_GROUND) && (k & (Pressed.LEFT | Pressed.RIGHT)) != 0) ? RUN : IDLE;
+            }
+        }
+    }
+
+    private static void resetRound(int[] s) {
+        resetPlayer(s, P1, -120, 1);
+        resetPlayer(s, P2, +120, -1);
+        s[ROUND_TIMER] = Match.ROUND_TICKS;
+        s[KO] = 0;
+        s[KO_TICKS] = 0;
+        s[KO_REASON] = 0;
+    }
+
+    private static void resetPlayer(int[] s, int p, int x, int facing) {
+        s[p + X] = x * ONE;
+        s[p + Y] = 0;
+        s[p + VX] = 0;
+        s[p + VY] = 0;
+        s[p + HP] = 100;
+        s[p + FACING] = facing;
+        s[p + ACTION] = IDLE;
+        s[p + TIMER] = 0;
+        s[p + FLAGS] = ON_GROUND;
+    }
+}
@@ -1,154 +1,642 @@
 package com.stickfight.backend;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.*;
 
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Instant;
-import java.util.Map;
-import java.util.Set;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 @Component
 public class GameHandler extends TextWebSocketHandler {
-    // ---- Physics/Arena constants ----
-    private static final int TICK_MS = 50;         // 20 Hz
-    private static final double GRAVITY = 0.8;
-    private static final double JUMP_POWER = 17.0;
-    private static final double FRICTION = 0.80;
-    private static final double WALK_SPEED = 5.0;
-    // Arena in server coordinates: center = 0; we clamp X within these bounds
-    private static final int ARENA_HALF_WIDTH = 600;  // ~ screen width/2 on client
-    private static final int LEFT_BOUND = -ARENA_HALF_WIDTH + 50;
-    private static final int RIGHT_BOUND = +ARENA_HALF_WIDTH - 50;
-
-
-
-
     // ----- JSON -----
-    private final ObjectMapper om = new ObjectMapper();
+    // trailing content fails the tree parse as it does the streaming one (InboundMessage)
+    private final ObjectMapper om = new ObjectMapper().enable(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+    private final JsonFactory jsonFactory = om.getFactory();
 
     // ----- Rooms and Sessions -----
     // roomId -> Room
     private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
     // sessionId -> roomId
     private final ConcurrentMap<String, String> sessionToRoom = new ConcurrentHashMap<>();
+    // sessionId -> outbound queue; all writes to a session go through its outbox
+    private final ConcurrentMap<String, SessionOutbox> outboxes = new ConcurrentHashMap<>();
+    // emptied rooms and sleeping rooms' snapshot rings, reused instead of reallocated
+    private final RoomPool roomPool;
+
+    // ----- Network fan-out -----
+    // Socket writes happen here (one virtual thread per draining outbox), never on tick threads.
+    private final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+    // Spectator fan-out (handing each room's shared frame to its viewers' outboxes) gets a small,
+    // low-priority pool of its own, so viewers never compete with the fighters for it. It only
+    // enqueues: viewers' socket writes go through the writers above, so one stalled viewer
+    // blocks nobody else's stream.
+    private final ExecutorService spectatorPool;
+    private final int spectatorMaxHz;
+    private final int spectatorsPerRoom;
+    private final Supplier<SpectatorFeed> spectatorFeeds;
+    // what all outboxes together mean to write per second; clients on poor links are slowed to stay under it
+    private final EgressBudget egress;
 
     // ----- Server Tick -----
-    // One scheduler for all rooms. Each tick we update & broadcast every room.
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    // Rooms are spread over N shard threads (one per core by default); each shard
+    // ticks its own rooms at their own rate, so one slow room only delays its shard.
+    private final ShardedTickEngine<Room> tickEngine;
+    // tick rate of rooms that don't ask for one, and the rates a room may ask for
+    private final int defaultTickHz;
+    private final int[] tickRates;
+
+    // ----- Placement -----
+    // which node hosts which room id; joins for rooms placed elsewhere get a redirect
+    private final RoomDirectory directory;
+
+    // ----- Matchmaking -----
+    // "queue" instead of "join": paired by rating and ping in batches, then joined to a fresh room
+    private final Matchmaker matchmaker = new Matchmaker(this::startMatch);
+    private final ScheduledExecutorService matchmakerThread =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("matchmaker").daemon().factory());
+    private final AtomicLong matchCounter = new AtomicLong();
+
+    // ----- Deploys -----
+    // draining: no new joins or queueing; players already here keep playing
+    private volatile boolean draining = false;
+    // live rooms go here on shutdown and are adopted from here on startup (see RoomHandoff); null = off
+    private final Path handoffFile;
+    // how long adopted rooms hold their players' slots
+    private final long resumeWindowMs;
+
+    // ----- Replays -----
+    // null when app.replays.dir is empty (recording off)
+    private final ReplayWriter replays;
+
+    // ----- Metrics -----
+    private final GameMetrics metrics;
+
+    public GameHandler(@Value("${app.tick.shards:0}") int tickShards,
+                       @Value("${app.tick.hz:20}") int defaultTickHz,
+                       @Value("${app.tick.rates:10,20,30,60}") int[] tickRates,
+                       @Value("${app.spectators.threads:2}") int spectatorThreads,
+                       @Value("${app.spectators.max-hz:0}") int spectatorMaxHz,
+                       @Value("${app.spectators.max-per-room:1000}") int spectatorsPerRoom,
+                       @Value("${app.replays.dir:}") String replayDir,
+                       @Value("${app.cluster.node-id:local}") String nodeId,
+                       @Value("${app.cluster.node-url:}") String nodeUrl,
+                       @Value("${app.cluster.nodes-file:}") String nodesFile,
+                       @Value("${app.matchmaking.batch-ms:500}") long matchmakingBatchMs,
+                       @Value("${app.rooms.pooled:10000}") int pooledRooms,
+                       @Value("${app.rooms.pooled-rings:1000}") int pooledRings,
+                       @Value("${app.handoff.file:}") String handoffFile,
+                       @Value("${app.handoff.resume-window-ms:30000}") long resumeWindowMs,
+                       @Value("${app.egress.max-bytes-per-sec:100000000}") long egressBytesPerSec,
+                       GameMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        // redirects to this node carry its url: without one, other nodes would send players nowhere
+        if (!nodesFile.isBlank() && nodeUrl.isBlank()) {
+            throw new IllegalStateException("app.cluster.node-url is required with app.cluster.nodes-file");
+        }
+        RoomDirectory.Node self = new RoomDirectory.Node(nodeId, nodeUrl);
+        this.directory = nodesFile.isBlank() ? new InMemoryRoomDirectory(self) : new FileRoomDirectory(Path.of(nodesFile), self);
+        this.replays = replayDir.isBlank() ? null : new ReplayWriter(Path.of(replayDir), metrics);
+        this.spectatorPool = Executors.newFixedThreadPool(spectatorThreads,
+                Thread.ofPlatform().name("spectators-", 0).daemon().priority(Thread.MIN_PRIORITY).factory());
+        this.spectatorMaxHz = spectatorMaxHz;
+        this.spectatorsPerRoom = spectatorsPerRoom;
+        this.spectatorFeeds = () -> new SpectatorFeed(spectatorPool, spectatorMaxHz, spectatorsPerRoom);
+        this.roomPool = new RoomPool(pooledRooms, pooledRings);
+        this.egress = new EgressBudget(egressBytesPerSec);
+        this.defaultTickHz = defaultTickHz;
+        this.tickRates = tickRates.clone();
+        tickEngine = new ShardedTickEngine<>(tickShards, this::tickRoom, "room-tick", metrics);
+        metrics.bindEngine(tickEngine, Room::sessionCount);
+        metrics.bindOutboxes(outboxes.values());
+        metrics.bindEgress(egress);
+        metrics.bindRooms(rooms.values());
+        metrics.bindRoomPool(roomPool);
+        metrics.bindMatchmaker(matchmaker);
+        matchmakerThread.scheduleWithFixedDelay(this::runMatchmaking, matchmakingBatchMs, matchmakingBatchMs, TimeUnit.MILLISECONDS);
+        this.handoffFile = handoffFile.isBlank() ? null : Path.of(handoffFile);
+        this.resumeWindowMs = resumeWindowMs;
+        if (this.handoffFile != null) {
+            // the instance we replace may stop after we start: keep looking (housekeeping shares the matchmaker thread)
+            matchmakerThread.scheduleWithFixedDelay(this::adoptHandoff, 0, HANDOFF_POLL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static final long HANDOFF_POLL_MS = 250;
+    // socket writes still queued at shutdown (the restart notices) get this long to go out
+    private static final long SHUTDOWN_WRITES_MS = 2_000;
+
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        directory.close();
+        matchmakerThread.shutdownNow();
+        tickEngine.shutdown();
+        if (replays != null) {
+            for (Room room : rooms.values()) room.stopRecording();
+            replays.close();
+        }
+        spectatorPool.shutdownNow();
+        writers.shutdown();
+        if (!writers.awaitTermination(SHUTDOWN_WRITES_MS, TimeUnit.MILLISECONDS)) writers.shutdownNow();
+    }
+
+    /** Stop taking joins and queueing, ahead of a deploy; the matches already running go on. */
+    void drain() {
+        draining = true;
+    }
 
-    public GameHandler() {
-        // 20 Hz tick (~50ms)
-        scheduler.scheduleAtFixedRate(this::tickAllRooms, 50, 50, TimeUnit.MILLISECONDS);
+    boolean draining() {
+        return draining;
+    }
+
+    /**
+     * Shutdown has begun: stop the tick, write every room to the handoff file and send each player
+     * their resume token before closing them with 1012 (service restart), so they reconnect to
+     * whichever instance serves the url next and carry on. Runs on the context closed event,
+     * because Spring closes the WebSockets (and so empties the rooms) before destroying beans.
+     */
+    @EventListener(ContextClosedEvent.class)
+    void handOff() {
+        drain();
+        if (handoffFile == null) return;
+        matchmakerThread.shutdownNow();
+        tickEngine.shutdown(); // rooms are frozen from here
+        List<Room> handedOff;
+        try {
+            // a room that can't be written is lost on its own; its players just start over
+            handedOff = RoomHandoff.write(handoffFile, rooms.values(), (room, e) -> metrics.error("handoff", e));
+        } catch (IOException | RuntimeException e) {
+            metrics.error("handoff", e);
+            return; // nothing to resume: let the players go as before
+        }
+        for (Room room : handedOff) {
+            for (int slot = 1; slot <= room.capacity(); slot++) {
+                SessionOutbox p = room.player(slot);
+                long token = room.resumeToken(slot);
+                if (p == null || token == 0) continue;
+                p.send(new TextMessage(json(j -> {
+                    j.put("type", "restarting");
+                    j.put("room", room.id);
+                    j.put("resume", Long.toHexString(token));
+                })));
+                p.closeAfterFlush(CloseStatus.SERVICE_RESTARTED);
+            }
+        }
+    }
+
+    // rooms a stopped instance handed over: COLD until their players resume, dropped if none do in time
+    private synchronized void adoptHandoff() {
+        if (draining || !Files.exists(handoffFile)) return;
+        List<Room> adopted;
+        try {
+            adopted = RoomHandoff.read(handoffFile, (id, tickHz, fighters) -> roomPool.acquire(id, tickHz, false, fighters, spectatorFeeds),
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resumeWindowMs));
+            Files.delete(handoffFile);
+        } catch (IOException | RuntimeException e) {
+            metrics.error("handoff", e);
+            return;
+        }
+        for (Room room : adopted) {
+            // a room of that id started here meanwhile: it wins
+            if (rooms.putIfAbsent(room.id, room) != null) continue;
+            directory.claim(room.id);
+            if (replays != null) room.startRecording(replays);
+        }
+        matchmakerThread.schedule(() -> {
+            for (Room room : adopted) if (room.isEmpty()) dropRoom(room.id, room);
+        }, resumeWindowMs, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        SessionOutbox out = new SessionOutbox(session, writers, metrics, egress);
+        outboxes.put(session.getId(), out);
+
         // Say hello
         ObjectNode hello = om.createObjectNode();
         hello.put("type", "hello");
         hello.put("ts", Instant.now().toString());
-        session.sendMessage(new TextMessage(hello.toString()));
+        out.send(new TextMessage(hello.toString()));
     }
 
     @Override
     protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        JsonNode msg = om.readTree(message.getPayload());
+        SessionOutbox out = outboxes.get(session.getId());
+        if (out == null) return; // already closed
+        JsonNode msg;
+        try {
+            // input/ack/ping/leave are streamed straight into fields; only the rare rest builds a tree
+            if (out.inbound.parse(jsonFactory, message.getPayload())) {
+                dispatch(session, out, out.inbound);
+                return;
+            }
+            msg = om.readTree(message.getPayload());
+        } catch (IOException e) {
+            // not JSON: counted, then the container closes the session as it always has
+            metrics.error("message", e);
+            throw e;
+        }
         String type = msg.path("type").asText("");
 
         switch (type) {
-            case "join" -> handleJoin(session, msg);
-            case "input" -> handleInput(session, msg);
-            case "leave" -> handleLeave(session);
-            case "ping" -> handlePing(session, msg);
-
-            default -> {
-                ObjectNode err = om.createObjectNode();
-                err.put("type", "error");
-                err.put("reason", "unknown_type");
-                session.sendMessage(new TextMessage(err.toString()));
-            }
+            case "join" -> handleJoin(out, msg);
+            case "queue" -> handleQueue(out, msg);
+            default -> sendUnknownType(out);
+        }
+    }
+
+    // binary input/ack frames (see InboundMessage); state may still be JSON or binary either way
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        SessionOutbox out = outboxes.get(session.getId());
+        if (out == null) return;
+        if (out.inbound.parse(message.getPayload())) dispatch(session, out, out.inbound);
+        else sendUnknownType(out);
+    }
+
+    private void dispatch(WebSocketSession session, SessionOutbox out, InboundMessage msg) {
+        switch (msg.type) {
+            case InboundMessage.INPUT -> handleInput(session, msg);
+            case InboundMessage.ACK -> out.ackState(msg.seq);
+            case InboundMessage.PING -> handlePing(out, msg);
+            case InboundMessage.LEAVE -> handleLeave(session);
+            default -> sendUnknownType(out);
         }
     }
 
+    private void sendUnknownType(SessionOutbox out) {
+        ObjectNode err = om.createObjectNode();
+        err.put("type", "error");
+        err.put("reason", "unknown_type");
+        out.send(new TextMessage(err.toString()));
+    }
+
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
         handleLeave(session);
+        SessionOutbox out = outboxes.remove(session.getId());
+        if (out != null) out.close();
+    }
+
+    private void handleJoin(SessionOutbox out, JsonNode msg) {
+        // picking a room leaves the matchmaking queue; waits out a pairing in flight, which put them in a room
+        matchmaker.cancel(out);
+        if (sessionToRoom.containsKey(out.id())) {
+            ObjectNode err = om.createObjectNode();
+            err.put("type", "error");
+            err.put("reason", "already_in_room");
+            out.send(new TextMessage(err.toString()));
+            return;
+        }
+        join(out, msg);
     }
 
-    private void handleJoin(WebSocketSession session, JsonNode msg) throws IOException {
+    private void join(SessionOutbox out, JsonNode msg) {
+        if (draining) {
+            sendDraining(out);
+            return;
+        }
         String roomId = msg.path("room").asText("").trim();
         String name = msg.path("name").asText("Player");
+        // the token from "joined"/"restarting": back into our slot after a server restart
+        String resume = msg.path("resume").asText("");
+        // opt-in compact state frames (see BinaryStateCodec)
+        out.setBinaryState("bin".equals(msg.path("proto").asText("json")));
+        // opt-in delta snapshots (see StatePublisher); starts from a keyframe
+        out.setDeltaState(msg.path("delta").asBoolean(false));
 
         if (roomId.isEmpty()) {
             ObjectNode err = om.createObjectNode();
             err.put("type", "error");
             err.put("reason", "room_required");
-            session.sendMessage(new TextMessage(err.toString()));
+            out.send(new TextMessage(err.toString()));
             return;
         }
 
-        Room room = rooms.computeIfAbsent(roomId, rid -> new Room(rid));
-        boolean joined = room.addPlayer(session, name);
+        // opt-in deterministic rollback (see RollbackSession); decided by whoever creates the room
+        boolean rollback = "rollback".equals(msg.path("mode").asText(""));
+        // likewise the tick rate, e.g. 60 for ranked or 10 for spectator-only rooms
+        int tickHz = msg.path("tickHz").asInt(defaultTickHz);
+        if (!supportedTickRate(tickHz)) {
+            ObjectNode err = om.createObjectNode();
+            err.put("type", "error");
+            err.put("reason", "tick_rate_unsupported");
+            out.send(new TextMessage(err.toString()));
+            return;
+        }
+        // and the size: more than two fighters makes a free-for-all (rollback rooms are always 1v1)
+        int fighters = msg.path("fighters").asInt(2);
+        if (fighters < 2 || fighters > Match.MAX_FIGHTERS) {
+            ObjectNode err = om.createObjectNode();
+            err.put("type", "error");
+            err.put("reason", "fighters_unsupported");
+            out.send(new TextMessage(err.toString()));
+            return;
+        }
+        // practice: "bot": "easy" | "normal" | "hard" has the server play a free slot against you
+        // (not in rollback rooms: their clients simulate every fighter)
+        String botLevel = msg.path("bot").asText("");
+        BotController.Difficulty bot = botLevel.isEmpty() ? null : BotController.Difficulty.parse(botLevel);
+        if (!botLevel.isEmpty() && (bot == null || rollback)) {
+            ObjectNode err = om.createObjectNode();
+            err.put("type", "error");
+            err.put("reason", "bot_unsupported");
+            out.send(new TextMessage(err.toString()));
+            return;
+        }
+        // back a bit before the new instance adopted the rooms: look now rather than start afresh
+        if (!resume.isEmpty() && handoffFile != null && !rooms.containsKey(roomId)) adoptHandoff();
+        // a room already running on some node stays there (even if nodes were added since); new ones go
+        // where they're placed, and are claimed before they start so other nodes send their players here
+        RoomDirectory.Node owner = rooms.containsKey(roomId) ? directory.self() : directory.ownerOf(roomId);
+        if (isSelf(owner) && !rooms.containsKey(roomId)) owner = directory.claim(roomId);
+        if (!isSelf(owner)) {
+            metrics.redirected();
+            ObjectNode redirect = om.createObjectNode();
+            redirect.put("type", "redirect");
+            redirect.put("room", roomId);
+            redirect.put("node", owner.id());
+            redirect.put("url", owner.url());
+            out.send(new TextMessage(redirect.toString()));
+            return;
+        }
+        boolean spectator = "spectator".equals(msg.path("role").asText("player"));
+        Room room;
+        boolean resumed, joined;
+        int addedBot = 0;
+        for (;;) {
+            Room found = rooms.computeIfAbsent(roomId, rid -> {
+                Room r = roomPool.acquire(rid, tickHz, rollback, fighters, spectatorFeeds);
+                if (replays != null) r.startRecording(replays);
+                tickEngine.register(rid, r, r.tickPeriodNanos());
+                return r;
+            });
+            // the last one out may have dropped it since we looked it up (see dropRoom): it is out of
+            // the map by the time it is retired, so looking again finds or makes the live one
+            synchronized (found) {
+                if (found.retired()) continue;
+                if (spectator) {
+                    joinAsSpectator(out, found);
+                    return;
+                }
+                resumed = !resume.isEmpty() && found.resumePlayer(out, parseToken(resume)) != 0;
+                joined = resumed || found.addPlayer(out, name);
+                // a resumed practice match still has its bot
+                if (joined && bot != null && !resumed) addedBot = found.addBot(bot, ThreadLocalRandom.current().nextLong());
+            }
+            room = found;
+            break;
+        }
         if (!joined) {
             ObjectNode full = om.createObjectNode();
             full.put("type", "error");
             full.put("reason", "room_full");
-            session.sendMessage(new TextMessage(full.toString()));
+            out.send(new TextMessage(full.toString()));
             return;
         }
+        int botSlot = addedBot;
+        wake(room);
 
-        sessionToRoom.put(session.getId(), roomId);
+        sessionToRoom.put(out.id(), roomId);
 
-        // reply joined with your slot (1 or 2)
+        // reply joined with your slot (1-based)
         ObjectNode joinedMsg = om.createObjectNode();
         joinedMsg.put("type", "joined");
         joinedMsg.put("room", roomId);
-        joinedMsg.put("slot", room.getSlotOf(session));
-        session.sendMessage(new TextMessage(joinedMsg.toString()));
+        joinedMsg.put("slot", room.getSlotOf(out.session()));
+        joinedMsg.put("proto", out.binaryState() ? "bin" : "json");
+        joinedMsg.put("delta", out.deltaState() && !out.binaryState());
+        joinedMsg.put("mode", room.rollback != null ? "rollback" : "server");
+        joinedMsg.put("tickHz", room.tickHz);
+        joinedMsg.put("fighters", room.capacity());
+        if (room.rollback != null) joinedMsg.put("frame", room.rollback.frame());
+        // binary state frames carry no names, so hand them out here
+        joinedMsg.set("names", names(room));
+        // keep it: rejoining with it after a server restart puts us back in this slot mid-round
+        int slot = room.getSlotOf(out.session());
+        long token = room.resumeToken(slot);
+        if (token != 0) joinedMsg.put("resume", Long.toHexString(token));
+        joinedMsg.put("resumed", resumed);
+        out.send(new TextMessage(joinedMsg.toString()));
 
         // notify others
-        room.broadcastExcept(session, json(j -> {
+        String peerJoined = json(j -> {
             j.put("type", "peer_joined");
-            j.put("name", name);
-            j.put("slot", room.getSlotOf(session));
-        }));
+            j.put("name", room.match.fighters[slot - 1].name); // a resumed fighter keeps the name it had
+            j.put("slot", slot);
+        });
+        room.broadcastExcept(out.session(), peerJoined);
+        room.spectators.broadcast(new TextMessage(peerJoined));
+        if (botSlot != 0) {
+            String botJoined = json(j -> {
+                j.put("type", "peer_joined");
+                j.put("name", room.match.fighters[botSlot - 1].name);
+                j.put("slot", botSlot);
+                j.put("bot", true);
+            });
+            room.broadcastExcept(out.session(), botJoined);
+            room.spectators.broadcast(new TextMessage(botJoined));
+        }
+    }
+
+    // viewers take no slot and get full (not delta) states at the spectator rate
+    private void joinAsSpectator(SessionOutbox out, Room room) {
+        out.setDeltaState(false);
+        if (!room.spectators.add(out)) {
+            ObjectNode err = om.createObjectNode();
+            err.put("type", "error");
+            err.put("reason", "spectators_full");
+            out.send(new TextMessage(err.toString()));
+            return;
+        }
+        sessionToRoom.put(out.id(), room.id);
+        wake(room); // so the new viewer gets a frame even from a quiet room
+
+        ObjectNode joinedMsg = om.createObjectNode();
+        joinedMsg.put("type", "joined");
+        joinedMsg.put("room", room.id);
+        joinedMsg.put("slot", 0);
+        joinedMsg.put("role", "spectator");
+        joinedMsg.put("proto", out.binaryState() ? "bin" : "json");
+        joinedMsg.put("delta", false);
+        joinedMsg.put("mode", room.rollback != null ? "rollback" : "server");
+        joinedMsg.put("tickHz", room.tickHz);
+        joinedMsg.put("fighters", room.capacity());
+        joinedMsg.set("names", names(room));
+        joinedMsg.put("spectators", room.spectators.count());
+        out.send(new TextMessage(joinedMsg.toString()));
+    }
+
+    // resume tokens travel as hex; anything else resumes nothing
+    private static long parseToken(String hex) {
+        try {
+            return Long.parseUnsignedLong(hex, 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    // this instance is about to go away: try again in a moment (on its successor)
+    private void sendDraining(SessionOutbox out) {
+        ObjectNode err = om.createObjectNode();
+        err.put("type", "error");
+        err.put("reason", "draining");
+        out.send(new TextMessage(err.toString()));
+    }
+
+    private ArrayNode names(Room room) {
+        ArrayNode names = om.createArrayNode();
+        for (PlayerState p : room.match.fighters) names.add(p.name);
+        return names;
+    }
+
+    // payload: { name?, proto?, delta?, rating?: n }; what kind of room it is is the matchmaker's to say
+    private void handleQueue(SessionOutbox out, JsonNode msg) {
+        if (draining) {
+            sendDraining(out);
+            return;
+        }
+        if (sessionToRoom.containsKey(out.id())) {
+            ObjectNode err = om.createObjectNode();
+            err.put("type", "error");
+            err.put("reason", "already_in_room");
+            out.send(new TextMessage(err.toString()));
+            return;
+        }
+        ObjectNode join = queuedJoin(msg);
+        String name = msg.path("name").asText("Player");
+        // self-reported until there are accounts; it only decides who waits with whom
+        int rating = msg.path("rating").asInt(1000);
+        matchmaker.enqueue(new Matchmaker.Ticket(out, name, rating, out.rttMs, System.nanoTime(), join));
+
+        ObjectNode queued = om.createObjectNode();
+        queued.put("type", "queued");
+        queued.put("waiting", matchmaker.waiting());
+        out.send(new TextMessage(queued.toString()));
+    }
+
+    // the join a ticket replays once paired: only what is the player's own to pick. The rest
+    // (bot, mode, tickHz, resume, role, fighters) would let one of the pair decide the room for both.
+    static ObjectNode queuedJoin(JsonNode queue) {
+        ObjectNode join = JsonNodeFactory.instance.objectNode();
+        join.put("type", "join");
+        for (String field : QUEUE_JOIN_FIELDS) {
+            JsonNode v = queue.get(field);
+            if (v != null && v.isValueNode()) join.set(field, v);
+        }
+        return join;
     }
 
-    private void handleInput(WebSocketSession session, JsonNode msg) {
+    private static final String[] QUEUE_JOIN_FIELDS = {"name", "proto", "delta"};
+
+    private void runMatchmaking() {
+        try {
+            matchmaker.runBatch(System.nanoTime());
+        } catch (RuntimeException e) {
+            // keep the schedule alive; one bad batch shouldn't stop matchmaking
+            metrics.error("matchmaking", e);
+        }
+    }
+
+    // on the matchmaker thread: a fresh room on this node, joined by both as if they had asked for it
+    private void startMatch(Matchmaker.Ticket a, Matchmaker.Ticket b, long nowNanos) {
+        String roomId;
+        int tries = 0;
+        do {
+            roomId = "mm-" + directory.self().id() + "-" + matchCounter.incrementAndGet();
+        } while (!directory.isLocal(roomId) && ++tries < 1000);
+        for (Matchmaker.Ticket[] t : new Matchmaker.Ticket[][]{{a, b}, {b, a}}) {
+            metrics.matched(nowNanos - t[0].enqueuedNanos);
+            String matched = json(j -> {
+                j.put("type", "matched");
+                j.put("opponent", t[1].name);
+                j.put("waitedMs", (nowNanos - t[0].enqueuedNanos) / 1_000_000);
+            });
+            t[0].out.send(new TextMessage(matched));
+            ObjectNode join = (ObjectNode) t[0].join;
+            join.put("room", roomId);
+            join.put("tickHz", defaultTickHz);
+            join(t[0].out, join);
+        }
+    }
+
+    private boolean supportedTickRate(int hz) {
+        if (hz == defaultTickHz) return true;
+        for (int r : tickRates) if (r == hz) return true;
+        return false;
+    }
+
+    private void handleInput(WebSocketSession session, InboundMessage msg) {
         String roomId = sessionToRoom.get(session.getId());
         if (roomId == null) return;
         Room room = rooms.get(roomId);
         if (room == null) return;
 
-        // payload: { pressed: {left,right,up,light,heavy,block} }
-        JsonNode pressed = msg.path("pressed");
-        room.updateInput(session, pressed);
+        // payload: { seq?: n, pressed: {left,right,up,light,heavy,block} } or { seq?: n, keys: bits },
+        // or the binary frame; already reduced to an update word on the network thread
+        if (room.rollback != null) {
+            handleRollbackInput(session, room, msg.frame, msg.update);
+            return;
+        }
+        if (room.updateInput(session, msg.seq, msg.update)) wakeOnInput(room);
+    }
+
+    // rollback rooms: { frame?: n, pressed: {...} }; the opponent gets the resolved bits to simulate locally
+    private void handleRollbackInput(WebSocketSession session, Room room, int frame, int update) {
+        int slot = room.getSlotOf(session);
+        if (slot == 0) return;
+        long at = room.rollbackInput(slot, frame, update);
+        if (at < 0) return; // outside the rollback window
+        room.broadcastExcept(session, json(j -> {
+            j.put("type", "rinput");
+            j.put("slot", slot);
+            j.put("frame", (int) (at >>> 32));
+            j.put("bits", (int) at);
+        }));
     }
-    private void handlePing(WebSocketSession session, JsonNode msg) throws IOException {
+
+    private void handlePing(SessionOutbox out, InboundMessage msg) {
+        // clients report the round trip they measured from earlier pongs; matchmaking pairs by it,
+        // and their state rate adapts to it
+        if (msg.rtt >= 0) out.reportRtt(msg.rtt);
         // Echo back the same timestamp field "ts" the client sent
         ObjectNode pong = om.createObjectNode();
         pong.put("type", "pong");
         // pass through original client timestamp if present
-        if (msg.has("ts")) pong.put("ts", msg.get("ts").asLong());
+        if (msg.hasTs) pong.put("ts", msg.ts);
         // (optional) include server time too
         pong.put("serverTs", System.currentTimeMillis());
-        session.sendMessage(new TextMessage(pong.toString()));
+        out.send(new TextMessage(pong.toString()));
     }
 
     private void handleLeave(WebSocketSession session) {
+        SessionOutbox out = outboxes.get(session.getId());
+        if (out != null && matchmaker.cancel(out)) return; // was only queued
         String roomId = sessionToRoom.remove(session.getId());
         if (roomId == null) return;
         Room room = rooms.get(roomId);
         if (room == null) return;
 
         int slot = room.removePlayer(session);
+        if (slot == 0) room.spectators.remove(session);
         if (slot != 0) {
             room.broadcast(json(j -> {
                 j.put("type", "peer_left");
@@ -156,361 +644,63 @@ public class GameHandler extends TextWebSocketHandler {
             }));
         }
 
-        if (room.isEmpty()) {
-            rooms.remove(roomId);
-        }
+        if (room.isEmpty()) dropRoom(roomId, room);
     }
 
-    private void tickAllRooms() {
-        try {
-            for (Room room : rooms.values()) {
-                room.tickAndBroadcast(om);
-            }
-        } catch (Exception ignored) {
+    // only drops this exact room (a concurrent join may already have replaced it), and only while
+    // it is still empty. Under the room lock, so a join holding an old reference sees it retired
+    private void dropRoom(String roomId, Room room) {
+        synchronized (room) {
+            if (!room.isEmpty() || !rooms.remove(roomId, room)) return;
+            tickEngine.unregister(roomId, room);
+            room.stopRecording();
+            roomPool.release(room);
         }
+        directory.release(roomId);
+        // a join may have started it afresh since we removed it: that one is ours too
+        if (rooms.containsKey(roomId)) directory.claim(roomId);
     }
 
-    // small helper for building JSON
-    private String json(java.util.function.Consumer<ObjectNode> f) {
-        ObjectNode n = om.createObjectNode();
-        f.accept(n);
-        return n.toString();
+    private boolean isSelf(RoomDirectory.Node node) {
+        return node.id().equals(directory.self().id());
     }
 
-    // -------------------------- Room class --------------------------
-    private static class Room {
-        // add in Room fields:
-        boolean ko = false;
-        int koTicks = 0;
-        // count ticks since KO to auto-reset
-        int roundTimerTicks = 90 * 20; // 90 seconds * 20 ticks (display-only, no logic yet)
-        String koReason = ""; // "hp" or "timeout" ("" means no KO)
-
-
-        final String id;
-        // exactly two slots (1 and 2)
-        volatile WebSocketSession p1;
-        volatile WebSocketSession p2;
-
-        // inputs and state
-        final PlayerState s1 = new PlayerState(-120, 0, 1);
-        final PlayerState s2 = new PlayerState(+120, 0, -1);
-
-        // last pressed keys for each player (very simple booleans)
-        final Pressed k1 = new Pressed();
-        final Pressed k2 = new Pressed();
-
-        Room(String id) { this.id = id; }
-
-        synchronized boolean addPlayer(WebSocketSession s, String name) {
-            try {
-                if (p1 == null) { p1 = s; s1.name = name; return true; }
-                if (p2 == null) { p2 = s; s2.name = name; return true; }
-                return false;
-            } finally { /* nothing */ }
-        }
-
-        synchronized int getSlotOf(WebSocketSession s) {
-            if (s == null) return 0;
-            if (p1 != null && p1.getId().equals(s.getId())) return 1;
-            if (p2 != null && p2.getId().equals(s.getId())) return 2;
-            return 0;
-        }
-
-        synchronized int removePlayer(WebSocketSession s) {
-            int slot = getSlotOf(s);
-            if (slot == 1) { p1 = null; resetState1(); }
-            if (slot == 2) { p2 = null; resetState2(); }
-            return slot;
-        }
-
-        synchronized boolean isEmpty() {
-            return p1 == null && p2 == null;
-        }
-
-        synchronized void updateInput(WebSocketSession s, JsonNode pressed) {
-            int slot = getSlotOf(s);
-            if (slot == 1) k1.update(pressed);
-            else if (slot == 2) k2.update(pressed);
-        }
-
-        synchronized void tickAndBroadcast(ObjectMapper om) {
-            // If KO, wait ~3s (60 ticks) then reset round
-            // ===== ROUND TIMER =====
-            if (roundTimerTicks > 0) {
-                roundTimerTicks--; // always tick down
-            } else if (!ko) {
-                // time's up → KO by timeout (draw)
-                ko = true;
-                koTicks = 0;
-                koReason = "timeout";
-            }
-
-// ===== KO HANDLING =====
-            if (ko) {
-                koTicks++;
-                if (koTicks >= 60) {
-                    resetState1();
-                    resetState2();
-                    ko = false;
-                    koTicks = 0;
-                    roundTimerTicks = 90 * 20; // reset timer
-                    koReason = "";
-                }
-                // still broadcast state so clients can draw overlay
-                broadcastState(om);
-                return;
-            }
-
-
-            // ===== 1) READ INPUT -> INTENT (movement, facing, start actions) =====
-            boolean p1Locked = s1.action.equals("light") || s1.action.equals("heavy") || s1.action.equals("block");
-            boolean p2Locked = s2.action.equals("light") || s2.action.equals("heavy") || s2.action.equals("block");
-
-            // Player 1
-            if (!p1Locked) {
-                if (k1.left)  { s1.vx = -WALK_SPEED; s1.facing = -1; if (s1.onGround && !s1.action.equals("jump")) s1.action = "run"; }
-                else if (k1.right) { s1.vx = WALK_SPEED; s1.facing = 1; if (s1.onGround && !s1.action.equals("jump")) s1.action = "run"; }
-                else { s1.vx *= 0.8; if (s1.onGround && s1.action.equals("run")) s1.action = "idle"; }
-            } else {
-                s1.vx *= 0.9;
-            }
-            if (k1.up && s1.onGround && !p1Locked) {
-                s1.vy = -JUMP_POWER; s1.onGround = false; s1.action = "jump";
-            }
-            if (k1.light && s1.onGround && s1.actionTimer == 0) { s1.action = "light"; s1.actionTimer = 10; s1.didHitThisAction = false; }
-            if (k1.heavy && s1.onGround && s1.actionTimer == 0) { s1.action = "heavy"; s1.actionTimer = 18; s1.didHitThisAction = false; }
-            if (k1.block && s1.onGround && !s1.action.equals("block")) { s1.action = "block"; s1.actionTimer = 14; }
-            if (!k1.block && s1.action.equals("block")) { s1.actionTimer = 0; s1.action = (s1.onGround && (k1.left || k1.right)) ? "run" : "idle"; }
-
-            // Player 2
-            if (!p2Locked) {
-                if (k2.left)  { s2.vx = -WALK_SPEED; s2.facing = -1; if (s2.onGround && !s2.action.equals("jump")) s2.action = "run"; }
-                else if (k2.right) { s2.vx = WALK_SPEED; s2.facing = 1; if (s2.onGround && !s2.action.equals("jump")) s2.action = "run"; }
-                else { s2.vx *= 0.8; if (s2.onGround && s2.action.equals("run")) s2.action = "idle"; }
-            } else {
-                s2.vx *= 0.9;
-            }
-            if (k2.up && s2.onGround && !p2Locked) {
-                s2.vy = -JUMP_POWER; s2.onGround = false; s2.action = "jump";
-            }
-            if (k2.light && s2.onGround && s2.actionTimer == 0) { s2.action = "light"; s2.actionTimer = 10; s2.didHitThisAction = false; }
-            if (k2.heavy && s2.onGround && s2.actionTimer == 0) { s2.action = "heavy"; s2.actionTimer = 18; s2.didHitThisAction = false; }
-            if (k2.block && s2.onGround && !s2.action.equals("block")) { s2.action = "block"; s2.actionTimer = 14; }
-            if (!k2.block && s2.action.equals("block")) { s2.actionTimer = 0; s2.action = (s2.onGround && (k2.left || k2.right)) ? "run" : "idle"; }
-
-            // ===== 2) PHYSICS =====
-            // gravity
-            s1.vy += GRAVITY;
-            s2.vy += GRAVITY;
-
-            // apply velocity
-            s1.x += s1.vx; s1.y += s1.vy;
-            s2.x += s2.vx; s2.y += s2.vy;
-
-            // ground collision (ground is y=0)
-            if (s1.y > 0) { s1.y = 0; s1.vy = 0; s1.onGround = true; if (!(s1.action.equals("light")||s1.action.equals("heavy")||s1.action.equals("block")) && !(k1.left||k1.right)) s1.action = "idle"; }
-            else { s1.onGround = false; }
-            if (s2.y > 0) { s2.y = 0; s2.vy = 0; s2.onGround = true; if (!(s2.action.equals("light")||s2.action.equals("heavy")||s2.action.equals("block")) && !(k2.left||k2.right)) s2.action = "idle"; }
-            else { s2.onGround = false; }
-
-            // bounds
-            if (s1.x < LEFT_BOUND) s1.x = LEFT_BOUND;
-            if (s1.x > RIGHT_BOUND) s1.x = RIGHT_BOUND;
-            if (s2.x < LEFT_BOUND) s2.x = LEFT_BOUND;
-            if (s2.x > RIGHT_BOUND) s2.x = RIGHT_BOUND;
-
-            // friction on ground
-            if (s1.onGround) s1.vx *= FRICTION;
-            if (s2.onGround) s2.vx *= FRICTION;
-
-            // ===== 3) HIT DETECTION =====
-            applyHitIfInRange(s1, s2); // P1 hits P2
-            applyHitIfInRange(s2, s1); // P2 hits P1
-
-            // ===== 4) ACTION TIMERS =====
-            if (s1.actionTimer > 0) {
-                s1.actionTimer--;
-                if (s1.actionTimer == 0 && !"jump".equals(s1.action)) {
-                    s1.action = (s1.onGround && (k1.left || k1.right)) ? "run" : "idle";
-                }
-            }
-            if (s2.actionTimer > 0) {
-                s2.actionTimer--;
-                if (s2.actionTimer == 0 && !"jump".equals(s2.action)) {
-                    s2.action = (s2.onGround && (k2.left || k2.right)) ? "run" : "idle";
-                }
-            }
-
-            // ===== 5) KO CHECK =====
-            if (s1.hp <= 0 || s2.hp <= 0) {
-                ko = true;
-                koTicks = 0;
-                koReason = "hp";
-            }
-
-            // ===== 6) BROADCAST =====
-            broadcastState(om);
-        }
-
-
-        synchronized void broadcast(String json) {
-            sendSafe(p1, json);
-            sendSafe(p2, json);
-        }
-
-        synchronized void broadcastExcept(WebSocketSession except, String json) {
-            if (p1 != null && !p1.getId().equals(except.getId())) sendSafe(p1, json);
-            if (p2 != null && !p2.getId().equals(except.getId())) sendSafe(p2, json);
-        }
-
-        private void sendSafe(WebSocketSession s, String json) {
-            if (s == null || !s.isOpen()) return;
-            try { s.sendMessage(new TextMessage(json)); } catch (IOException ignored) {}
-        }
-
-        private void resetState1() {
-            s1.resetForNewRound(-120, 0, 1);
-            k1.clear();
-        }
-
-        private void resetState2() {
-            s2.resetForNewRound(+120, 0, -1);
-            k2.clear();
+    // called on the room's shard thread
+    private void tickRoom(String key, Room room) {
+        // heat changes and engine membership move together under the room lock (see wake)
+        boolean published;
+        synchronized (room) {
+            // a pass from before the room was dropped: it may be pooled, or another room by now
+            if (!room.ticksAs(key)) return;
+            published = room.tickAndBroadcast(om);
+            if (room.heat == Room.Heat.COLD) tickEngine.unregister(room.id, room);
         }
-
-        synchronized void broadcastState(ObjectMapper om) {
-            try {
-                ObjectNode out = om.createObjectNode();
-                out.put("timer", Math.max(0, roundTimerTicks / 20));  // seconds remaining
-                if (ko) out.put("koReason", koReason);                // "hp" or "timeout"
-
-                out.put("type", "state");
-                out.put("room", id);
-                out.put("ko", ko);
-
-                ObjectNode p1n = om.createObjectNode();
-                p1n.put("x", s1.x);
-                p1n.put("y", s1.y);
-                p1n.put("hp", s1.hp);
-                p1n.put("facing", s1.facing);
-                p1n.put("action", s1.action);
-                p1n.put("name", s1.name);
-
-                ObjectNode p2n = om.createObjectNode();
-                p2n.put("x", s2.x);
-                p2n.put("y", s2.y);
-                p2n.put("hp", s2.hp);
-                p2n.put("facing", s2.facing);
-                p2n.put("action", s2.action);
-                p2n.put("name", s2.name);
-
-                out.set("players", om.createArrayNode().add(p1n).add(p2n));
-                out.put("timer", Math.max(0, roundTimerTicks / 20)); // whole seconds remaining
-
-                broadcast(out.toString());
-            } catch (Exception ignored) {}
+        if (published) {
+            metrics.roomTicked(tickEngine.shardIndexOf(room.id), room.publisher.bytesThisTick(), room.publisher.encodeNanosThisTick());
         }
-
     }
 
-    // ---------------------- Simple State Classes ----------------------
-    private static class PlayerState {
-        // position (x relative to arena center, y=0 is ground)
-        double x, y;
-        // velocity
-        double vx = 0, vy = 0;
-        // state
-        int hp = 100;
-        int facing;                 // 1 or -1
-        String action = "idle";     // idle | run | jump | light | heavy | block
-        int actionTimer = 0;        // ticks remaining for current action
-        boolean onGround = true;
-        boolean didHitThisAction = false;
-        String name = "Player";
-
-        PlayerState(int x, int y, int facing) {
-            this.x = x; this.y = y; this.facing = facing;
-        }
-
-        void resetForNewRound(int x, int y, int facing) {
-            this.x = x; this.y = y;
-            vx = vy = 0;
-            hp = 100;
-            this.facing = facing;
-            action = "idle";
-            actionTimer = 0;
-            onGround = true;
-            didHitThisAction = false;
-        }
+    // a new button: HOT rooms (nearly all input) need nothing, so the input path skips the room lock
+    private void wakeOnInput(Room room) {
+        if (room.heat != Room.Heat.HOT) wake(room);
     }
 
-
-    private static class Pressed {
-        boolean left, right, up, light, heavy, block;
-        void update(JsonNode p) {
-            if (p.has("left")) left = p.get("left").asBoolean(false);
-            if (p.has("right")) right = p.get("right").asBoolean(false);
-            if (p.has("up")) up = p.get("up").asBoolean(false);
-            if (p.has("light")) light = p.get("light").asBoolean(false);
-            if (p.has("heavy")) heavy = p.get("heavy").asBoolean(false);
-            if (p.has("block")) block = p.get("block").asBoolean(false);
+    // back to full rate; a COLD room goes back on the tick engine
+    private void wake(Room room) {
+        synchronized (room) {
+            if (room.wake()) tickEngine.register(room.id, room, room.tickPeriodNanos());
         }
-        void clear() { left=right=up=light=heavy=block=false; }
     }
-    // Return {x,y} fist position in server coords for a player currently attacking
-    private static double[] fistPos(PlayerState s) {
-        // Stickman proportions used on client; we mirror them here.
-        // We don't need head radius and such; only arm length & shoulder Y relative to hips.
-        double bodyLen = 40.0;
-        double armLen = 30.0;
-        double shoulderY = s.y - bodyLen + 10.0; // s.y is 0 on ground; negative is up
 
-        double attackAngle = -1.2;
-        if ("light".equals(s.action) || "heavy".equals(s.action)) {
-            attackAngle = (s.facing == 1) ? -0.2 : -2.94;
-        }
-        double fx = s.x + Math.cos(attackAngle) * armLen;
-        double fy = shoulderY + Math.sin(attackAngle) * armLen;
-        return new double[]{fx, fy};
-    }
-
-    private static void applyHitIfInRange(PlayerState attacker, PlayerState defender) {
-        if (!("light".equals(attacker.action) || "heavy".equals(attacker.action))) return;
-        if (attacker.didHitThisAction) return;
-
-        double[] fist = fistPos(attacker);
-
-        // Defender torso target roughly mid-body
-        double bodyLen = 40.0;
-        double tx = defender.x;
-        double ty = defender.y - bodyLen / 2.0;
-
-        double dx = fist[0] - tx;
-        double dy = fist[1] - ty;
-        double dist = Math.hypot(dx, dy);
-
-        double reach = 20.0;
-        if (dist <= reach) {
-            int dmg = "light".equals(attacker.action) ? 8 : 18;
-
-            // If defender is blocking and facing attacker, reduce damage
-            boolean attackerOnRight = attacker.x > defender.x;
-            boolean defenderFacingAttacker = attackerOnRight ? defender.facing == 1 : defender.facing == -1;
-            if ("block".equals(defender.action) && defenderFacingAttacker) {
-                dmg = (int)Math.round(dmg * 0.4); // 60% damage reduction
-            }
-
-            defender.hp = Math.max(0, defender.hp - dmg);
-
-            // small knockback
-            int dir = attackerOnRight ? 1 : -1;
-            defender.vx += 2.0 * dir;
-            if (defender.onGround) defender.vy = -3.0;
-
-            attacker.didHitThisAction = true;
-        }
+    /** Live rooms, for reporting. */
+    java.util.Collection<Room> rooms() {
+        return rooms.values();
     }
 
+    // small helper for building JSON
+    private String json(java.util.function.Consumer<ObjectNode> f) {
+        ObjectNode n = om.createObjectNode();
+        f.accept(n);
+        return n.toString();
+    }
 }
-
@@ -0,0 +1,248 @@
+package com.stickfight.backend;
+
+import io.micrometer.core.instrument.*;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Micrometer meters for the game loop, exposed as {@code game.*} by the {@code metrics} endpoint (over local JMX).
+ * <ul>
+ *   <li>{@code game.tick.duration{shard}}: wall time of one shard tick over all its rooms</li>
+ *   <li>{@code game.tick.overruns{shard}}: shard ticks that took longer than the tick period</li>
+ *   <li>{@code game.shard.rooms{shard}}, {@code game.shard.sessions{shard}}: rooms on the tick engine</li>
+ *   <li>{@code game.rooms{heat}}: rooms by {@link Room.Heat} (hot, warm, cold)</li>
+ *   <li>{@code game.rooms.pooled}, {@code game.rooms.reused}, {@code game.snapshot.rings.pooled}: the {@link RoomPool}</li>
+ *   <li>{@code game.spectators}, {@code game.spectators.skipped.frames}: viewers, and frames their fan-out coalesced</li>
+ *   <li>{@code game.tick.outbound.bytes{shard}}: state bytes a shard's rooms enqueue in one tick, summed</li>
+ *   <li>{@code game.tick.state.encode{shard}}: time a shard's rooms spend serializing state in one tick, summed</li>
+ *   <li>{@code game.outbox.queued}, {@code game.outbox.dropped.states}, {@code game.outbox.written.bytes}</li>
+ *   <li>{@code game.outbox.throttled}, {@code game.outbox.slow.disconnects}: players on a reduced state rate
+ *       (see {@link SendRate}), and those dropped for not keeping up even at the lowest</li>
+ *   <li>{@code game.egress.bytes}: bytes written in the last full second, against the {@link EgressBudget}</li>
+ *   <li>{@code game.matchmaking.waiting}, {@code game.matchmaking.wait}: players queued, and how long each waited to be paired</li>
+ *   <li>{@code game.redirects}: joins sent to the node that hosts their room (see {@link RoomDirectory})</li>
+ *   <li>{@code game.errors{where,exception}}: exceptions we recover from instead of propagating</li>
+ * </ul>
+ */
+@Component
+class GameMetrics implements ShardedTickEngine.TickObserver {
+    /** Metrics that go nowhere, for rooms and outboxes built outside Spring (tests, benchmarks, tools). */
+    static final GameMetrics NONE = new GameMetrics(new CompositeMeterRegistry());
+
+    private static final double[] PERCENTILES = {0.5, 0.99, 0.999};
+
+    private final MeterRegistry registry;
+    private final Counter writtenBytes;
+    private final Counter slowDisconnects;
+    private final Counter redirects;
+    // where -> exception type -> counter; looked up on every swallowed error, so no tag building on a hit
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Class<?>, Counter>> errors = new ConcurrentHashMap<>();
+    private Timer[] tickDuration = new Timer[0];
+    private Counter[] tickOverruns = new Counter[0];
+    private DistributionSummary[] tickOutboundBytes = new DistributionSummary[0];
+    private Timer[] tickStateEncode = new Timer[0];
+    // running totals of the shard tick in progress; each slot is only touched by its shard's thread
+    private long[] pendingBytes = new long[0];
+    private long[] pendingEncodeNanos = new long[0];
+    private Timer matchmakingWait;
+
+    GameMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.writtenBytes = Counter.builder("game.outbox.written.bytes")
+                .description("Payload bytes written to WebSockets")
+                .baseUnit("bytes")
+                .register(registry);
+        this.slowDisconnects = Counter.builder("game.outbox.slow.disconnects")
+                .description("Sessions closed for not keeping up even at the lowest state rate")
+                .register(registry);
+        this.redirects = Counter.builder("game.redirects")
+                .description("Joins sent to the node that hosts their room")
+                .register(registry);
+    }
+
+    /** Per-shard meters; called once the engine exists. */
+    <T> void bindEngine(ShardedTickEngine<T> engine, ToDoubleFunction<T> sessionsOf) {
+        int n = engine.shardCount();
+        Timer[] durations = new Timer[n];
+        Counter[] overruns = new Counter[n];
+        DistributionSummary[] outbound = new DistributionSummary[n];
+        Timer[] encode = new Timer[n];
+        for (int i = 0; i < n; i++) {
+            String shard = Integer.toString(i);
+            final int idx = i;
+            durations[i] = Timer.builder("game.tick.duration")
+                    .description("Time to tick every room of a shard once")
+                    .tag("shard", shard)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+            overruns[i] = Counter.builder("game.tick.overruns")
+                    .description("Shard ticks that exceeded the tick period")
+                    .tag("shard", shard)
+                    .register(registry);
+            outbound[i] = DistributionSummary.builder("game.tick.outbound.bytes")
+                    .description("State bytes enqueued by every room of a shard in one tick")
+                    .baseUnit("bytes")
+                    .tag("shard", shard)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+            encode[i] = Timer.builder("game.tick.state.encode")
+                    .description("State serialization time of every room of a shard in one tick")
+                    .tag("shard", shard)
+                    .publishPercentiles(PERCENTILES)
+                    .register(registry);
+            Gauge.builder("game.shard.rooms", engine, e -> e.itemCount(idx))
+                    .tag("shard", shard)
+                    .register(registry);
+            Gauge.builder("game.shard.sessions", engine, e -> e.sum(idx, sessionsOf))
+                    .tag("shard", shard)
+                    .register(registry);
+        }
+        pendingBytes = new long[n];
+        pendingEncodeNanos = new long[n];
+        tickOutboundBytes = outbound;
+        tickStateEncode = encode;
+        tickDuration = durations;
+        tickOverruns = overruns;
+    }
+
+    /** Room counts per heat and spectator counts, over all live rooms at scrape time. */
+    void bindRooms(Collection<Room> rooms) {
+        for (Room.Heat heat : Room.Heat.values()) {
+            Gauge.builder("game.rooms", rooms, all -> {
+                        long n = 0;
+                        for (Room r : all) if (r.heat == heat) n++;
+                        return n;
+                    })
+                    .description("Rooms by tick budget: hot (full rate), warm (reduced state rate), cold (suspended)")
+                    .tag("heat", heat.name().toLowerCase())
+                    .register(registry);
+        }
+        Gauge.builder("game.spectators", rooms, all -> {
+                    long n = 0;
+                    for (Room r : all) n += r.spectators.count();
+                    return n;
+                })
+                .description("Spectator sessions over all rooms")
+                .register(registry);
+        Gauge.builder("game.spectators.skipped.frames", rooms, all -> {
+                    long n = 0;
+                    for (Room r : all) n += r.spectators.skippedFrames();
+                    return n;
+                })
+                .description("Frames replaced before spectator fan-out got to them, over live rooms")
+                .register(registry);
+    }
+
+    void bindRoomPool(RoomPool pool) {
+        Gauge.builder("game.rooms.pooled", pool, RoomPool::pooledRooms)
+                .description("Emptied rooms kept for reuse")
+                .register(registry);
+        FunctionCounter.builder("game.rooms.reused", pool, RoomPool::roomsReused)
+                .description("Rooms handed out from the pool instead of allocated")
+                .register(registry);
+        Gauge.builder("game.snapshot.rings.pooled", pool, RoomPool::pooledRings)
+                .description("Snapshot histories given back by sleeping or emptied rooms, kept for reuse")
+                .register(registry);
+    }
+
+    /** Queue depth and drop gauges, summed over all live outboxes at scrape time. */
+    void bindOutboxes(Collection<SessionOutbox> outboxes) {
+        Gauge.builder("game.outbox.queued", outboxes, all -> {
+                    long n = 0;
+                    for (SessionOutbox o : all) n += o.queuedControl() + (o.hasPendingState() ? 1 : 0);
+                    return n;
+                })
+                .description("Messages waiting in session outboxes")
+                .register(registry);
+        Gauge.builder("game.outbox.dropped.states", outboxes, all -> {
+                    long n = 0;
+                    for (SessionOutbox o : all) n += o.droppedStates();
+                    return n;
+                })
+                .description("Stale state snapshots replaced before being written, over live sessions")
+                .register(registry);
+        Gauge.builder("game.outbox.throttled", outboxes, all -> {
+                    long n = 0;
+                    for (SessionOutbox o : all) if (o.stateDivisor() > 1) n++;
+                    return n;
+                })
+                .description("Sessions sent states at less than their room's tick rate")
+                .register(registry);
+    }
+
+    void bindEgress(EgressBudget budget) {
+        Gauge.builder("game.egress.bytes", budget, EgressBudget::lastSecond)
+                .description("Bytes written to WebSockets in the last full second (measured only under a cap)")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    void slowClientDropped() {
+        slowDisconnects.increment();
+    }
+
+    @Override
+    public void tickFinished(int shard, long nanos, boolean overrun) {
+        if (shard >= tickDuration.length) return;
+        tickDuration[shard].record(nanos, TimeUnit.NANOSECONDS);
+        if (overrun) tickOverruns[shard].increment();
+        if (pendingBytes[shard] > 0) {
+            tickOutboundBytes[shard].record(pendingBytes[shard]);
+            tickStateEncode[shard].record(pendingEncodeNanos[shard], TimeUnit.NANOSECONDS);
+            pendingBytes[shard] = 0;
+            pendingEncodeNanos[shard] = 0;
+        }
+    }
+
+    @Override
+    public void tickFailed(int shard, Exception e) {
+        error("tick", e);
+    }
+
+    /** A room published a state; added up and recorded once per shard tick by {@link #tickFinished}. Call on the shard's thread. */
+    void roomTicked(int shard, int outboundBytes, long encodeNanos) {
+        if (shard >= pendingBytes.length) return;
+        pendingBytes[shard] += outboundBytes;
+        pendingEncodeNanos[shard] += encodeNanos;
+    }
+
+    void written(int bytes) {
+        writtenBytes.increment(bytes);
+    }
+
+    void bindMatchmaker(Matchmaker matchmaker) {
+        Gauge.builder("game.matchmaking.waiting", matchmaker, Matchmaker::waiting)
+                .description("Players in the matchmaking queue")
+                .register(registry);
+        matchmakingWait = Timer.builder("game.matchmaking.wait")
+                .description("Time from queue to match")
+                .publishPercentiles(PERCENTILES)
+                .register(registry);
+    }
+
+    void matched(long waitedNanos) {
+        if (matchmakingWait != null) matchmakingWait.record(waitedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void redirected() {
+        redirects.increment();
+    }
+
+    /** Count an exception we swallow; {@code where} is a small fixed set (tick, send, message, replay, matchmaking, handoff). */
+    void error(String where, Throwable e) {
+        ConcurrentHashMap<Class<?>, Counter> byType = errors.computeIfAbsent(where, w -> new ConcurrentHashMap<>());
+        Counter counter = byType.get(e.getClass());
+        if (counter == null) {
+            counter = byType.computeIfAbsent(e.getClass(), type -> Counter.builder("game.errors")
+                    .tag("where", where)
+                    .tag("exception", type.getSimpleName())
+                    .register(registry));
+        }
+        counter.increment();
+    }
+}
@@ -0,0 +1,49 @@
+package com.stickfight.backend;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent-hash ring of {@link RoomDirectory.Node}s. Each node gets {@link #VNODES} points on
+ * the ring so rooms spread evenly; a key belongs to the first point at or after its own hash.
+ * Adding or removing one node of N moves about 1/N of the keys. Immutable.
+ */
+final class HashRing {
+    static final int VNODES = 160;
+
+    private final TreeMap<Long, RoomDirectory.Node> ring = new TreeMap<>();
+    private final List<RoomDirectory.Node> nodes;
+
+    HashRing(Collection<RoomDirectory.Node> nodes) {
+        if (nodes.isEmpty()) throw new IllegalArgumentException("empty ring");
+        this.nodes = List.copyOf(nodes);
+        for (RoomDirectory.Node n : this.nodes) {
+            for (int v = 0; v < VNODES; v++) ring.put(hash(n.id() + "#" + v), n);
+        }
+    }
+
+    RoomDirectory.Node nodeFor(String key) {
+        Map.Entry<Long, RoomDirectory.Node> e = ring.ceilingEntry(hash(key));
+        return (e != null ? e : ring.firstEntry()).getValue();
+    }
+
+    List<RoomDirectory.Node> nodes() { return nodes; }
+
+    // FNV-1a over the chars, then a 64-bit finalizer (murmur3 fmix64) so similar ids spread apart;
+    // must never change, or every node would place rooms differently mid-deploy
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
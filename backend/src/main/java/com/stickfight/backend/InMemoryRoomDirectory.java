@@ -0,0 +1,49 @@
+package com.stickfight.backend;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Directory with a node list held in memory: just this node by default (every room is local),
+ * or a fixed list given at startup. Only this node's own claims are known.
+ */
+final class InMemoryRoomDirectory implements RoomDirectory {
+    private final Node self;
+    private volatile HashRing ring;
+    private final Set<String> claimed = ConcurrentHashMap.newKeySet();
+
+    InMemoryRoomDirectory(Node self) {
+        this(self, List.of(self));
+    }
+
+    InMemoryRoomDirectory(Node self, Collection<Node> nodes) {
+        this.self = self;
+        setNodes(nodes);
+    }
+
+    /** Replace the node list; rooms claimed here stay here. */
+    void setNodes(Collection<Node> nodes) {
+        ring = new HashRing(nodes);
+    }
+
+    @Override
+    public Node self() { return self; }
+
+    @Override
+    public Node ownerOf(String roomId) {
+        return claimed.contains(roomId) ? self : ring.nodeFor(roomId);
+    }
+
+    @Override
+    public Node claim(String roomId) {
+        claimed.add(roomId);
+        return self;
+    }
+
+    @Override
+    public void release(String roomId) {
+        claimed.remove(roomId);
+    }
+}
@@ -0,0 +1,158 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The high-frequency client messages ({@code input}, {@code ack}, {@code ping}, {@code leave}),
+ * decoded without building a {@code JsonNode} tree. Anything else (e.g. {@code join}) is left to
+ * the caller's tree parse.
+ * <p>
+ * JSON is streamed in one pass, so {@code type} may come anywhere in the object; anything but
+ * whitespace after the object is rejected, as in the tree parse. Buttons are either a
+ * {@code pressed} object (only the buttons it lists change) or {@code "keys": n}, the
+ * {@link Pressed} bitmask of everything held.
+ * <p>
+ * Binary frames (big-endian, like {@link BinaryStateCodec}):
+ * <pre>
+ * input: u8 2, u8 buttons ({@link Pressed} bits, everything held), [i32 seq: the frame in rollback rooms]
+ * ack:   u8 3, i32 seq of the last state received
+ * </pre>
+ * One instance per session, reused for every message; the container delivers a session's
+ * messages one at a time.
+ */
+final class InboundMessage {
+    static final int OTHER = 0, INPUT = 1, ACK = 2, PING = 3, LEAVE = 4;
+    static final byte KIND_INPUT = 2, KIND_ACK = 3;
+
+    int type;
+    int update;     // Pressed update word (INPUT)
+    int seq;        // -1 if absent
+    int frame;      // -1 if absent
+    boolean hasTs;
+    long ts;
+    int rtt;        // ping: the client's last measured round trip in ms, -1 if absent
+
+    private void reset() {
+        type = OTHER;
+        update = 0;
+        seq = -1;
+        frame = -1;
+        hasTs = false;
+        ts = 0;
+        rtt = -1;
+    }
+
+    /** Decode a text frame. Returns false if it isn't one of the types above. */
+    boolean parse(JsonFactory f, String payload) throws IOException {
+        reset();
+        try (JsonParser p = f.createParser(payload)) {
+            if (p.nextToken() != JsonToken.START_OBJECT) return false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                // field names come back canonicalized, so switching on them doesn't allocate
+                String field = p.currentName();
+                JsonToken v = p.nextToken();
+                switch (field) {
+                    case "type" -> type = v == JsonToken.VALUE_STRING ? typeOf(p) : OTHER;
+                    case "seq" -> seq = intOrNone(p, v);
+                    case "frame" -> frame = intOrNone(p, v);
+                    case "pressed" -> update = v == JsonToken.START_OBJECT ? pressed(p) : skip(p);
+                    case "keys" -> update = isInt(p, v) ? Pressed.full(p.getIntValue()) : 0;
+                    case "rtt" -> rtt = intOrNone(p, v);
+                    case "ts" -> {
+                        hasTs = v.isScalarValue();
+                        ts = p.getValueAsLong(0);
+                    }
+                    default -> { }
+                }
+                // an object or array where we expected a scalar (or an unknown field): step over
+                // it, so the next field name is read at this level. A no-op after a scalar
+                p.skipChildren();
+            }
+            // "{...}garbage" or two objects in one frame: not a message
+            JsonToken after = p.nextToken();
+            if (after != null) throw new JsonParseException(p, "Trailing token after the message: " + after);
+        }
+        return type != OTHER;
+    }
+
+    /** Decode a binary frame. Returns false if the kind is unknown or the frame too short. */
+    boolean parse(ByteBuffer b) {
+        reset();
+        if (!b.hasRemaining()) return false;
+        switch (b.get()) {
+            case KIND_INPUT -> {
+                if (!b.hasRemaining()) return false;
+                update = Pressed.full(b.get());
+                if (b.remaining() >= 4) seq = frame = b.getInt();
+                type = INPUT;
+            }
+            case KIND_ACK -> {
+                if (b.remaining() < 4) return false;
+                seq = b.getInt();
+                type = ACK;
+            }
+            default -> { return false; }
+        }
+        return true;
+    }
+
+    // {left,right,up,light,heavy,block}, as in Pressed.parse
+    private static int pressed(JsonParser p) throws IOException {
+        int values = 0, present = 0;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            int bit = switch (p.currentName()) {
+                case "left" -> Pressed.LEFT;
+                case "right" -> Pressed.RIGHT;
+                case "up" -> Pressed.UP;
+                case "light" -> Pressed.LIGHT;
+                case "heavy" -> Pressed.HEAVY;
+                case "block" -> Pressed.BLOCK;
+                default -> 0;
+            };
+            JsonToken v = p.nextToken();
+            if (bit != 0) {
+                present |= bit;
+                // an integer too big for an int (which would throw) is not zero either: pressed
+                if (v == JsonToken.VALUE_NUMBER_INT ? !isInt(p, v) || p.getIntValue() != 0 : p.getValueAsBoolean(false)) values |= bit;
+            }
+            p.skipChildren();
+        }
+        return values | (present << 8);
+    }
+
+    private static int skip(JsonParser p) throws IOException {
+        p.skipChildren();
+        return 0;
+    }
+
+    private static int intOrNone(JsonParser p, JsonToken v) throws IOException {
+        return isInt(p, v) ? p.getIntValue() : -1;
+    }
+
+    private static boolean isInt(JsonParser p, JsonToken v) throws IOException {
+        return v == JsonToken.VALUE_NUMBER_INT && p.getNumberType() == JsonParser.NumberType.INT;
+    }
+
+    // compare the string value in place, without materializing it
+    private static int typeOf(JsonParser p) throws IOException {
+        char[] c = p.getTextCharacters();
+        int off = p.getTextOffset(), len = p.getTextLength();
+        if (is(c, off, len, "input")) return INPUT;
+        if (is(c, off, len, "ack")) return ACK;
+        if (is(c, off, len, "ping")) return PING;
+        if (is(c, off, len, "leave")) return LEAVE;
+        return OTHER;
+    }
+
+    private static boolean is(char[] c, int off, int len, String s) {
+        if (len != s.length()) return false;
+        for (int i = 0; i < len; i++) if (c[off + i] != s.charAt(i)) return false;
+        return true;
+    }
+}
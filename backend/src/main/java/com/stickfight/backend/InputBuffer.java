@@ -0,0 +1,116 @@
+package com.stickfight.backend;
+
+/**
+ * Small per-player ring of input frames, so inputs that arrive between ticks are not lost.
+ * The network thread {@link #offer}s {@link Pressed} update words tagged with the client's
+ * sequence number; the tick applies one frame per tick, in sequence order, and reports the last
+ * seq it applied back to the client ({@code ack} in the state message).
+ * <p>
+ * A tap (e.g. {@code light} pressed and released within one tick) therefore spans two ticks
+ * instead of vanishing. Frames that only repeat what the player already holds (clients resend
+ * their input on a timer, faster than a slow room ticks) are applied along with the one before
+ * them, so they don't queue up as lag. If the client still gets more than {@link #MAX_BACKLOG}
+ * frames ahead, the extra frames are applied in the same tick, keeping any taps they contain.
+ * <p>
+ * Lock-free single-producer/single-consumer: one session feeds it (the container delivers a
+ * session's messages one at a time) and only the room's tick drains it. Each side owns its
+ * index and publishes it with a volatile write. The buffer stays with its slot: when the
+ * player leaves it is {@link #clear cleared} for the next one.
+ */
+final class InputBuffer {
+    static final int CAPACITY = 32; // power of two
+    private static final int MASK = CAPACITY - 1;
+    // frames left queued after a tick; more than this is latency we'd rather not add
+    static final int MAX_BACKLOG = 3;
+    // buttons whose short press matters even when frames are collapsed
+    private static final int TAP_BITS = Pressed.UP | Pressed.LIGHT | Pressed.HEAVY;
+
+    private final int[] seqs = new int[CAPACITY];
+    private final int[] updates = new int[CAPACITY];
+    private volatile int tail = 0;               // written by the producer only
+    private volatile int head = 0;               // written by the consumer only
+
+    // producer side
+    private boolean anyQueued;                   // since the last clear
+    private int lastQueuedSeq = -1;
+    private volatile int queuedBits = 0;         // buttons held once everything queued is applied
+    private volatile long dropped = 0;
+
+    // consumer side
+    private volatile int lastAppliedSeq = -1;
+    private int appliedBits = 0;                 // same, for what the tick has applied (taps aside)
+
+    /**
+     * Queue a frame. Frames that are not newer than the last queued one (duplicates, reordering)
+     * are ignored, as are frames arriving while the ring is full. Seqs compare with wraparound,
+     * so a client starting high or running long doesn't lock itself out at the int limit.
+     */
+    boolean offer(int seq, int update) {
+        if (anyQueued && seq - lastQueuedSeq <= 0) return false;
+        int t = tail;
+        if (t - head == CAPACITY) { dropped++; return false; }
+        seqs[t & MASK] = seq;
+        updates[t & MASK] = update;
+        tail = t + 1; // publishes the slot to the tick
+        lastQueuedSeq = seq;
+        anyQueued = true;
+        queuedBits = Pressed.applied(queuedBits, update);
+        return true;
+    }
+
+    /** Queue a frame from a client that doesn't number its inputs. */
+    boolean offer(int update) {
+        return offer(lastQueuedSeq + 1, update);
+    }
+
+    /** Producer side: buttons held once everything offered so far is applied. */
+    int queuedBits() { return queuedBits; }
+
+    /** Tick side: apply the next frame (plus any excess backlog) to {@code k}. Allocation-free. */
+    void applyNext(Pressed k) {
+        int h = head, size = tail - h;
+        if (size == 0) return; // nothing new: keep holding what was held
+        int seq = take(k, h++);
+        size--;
+        int taps = 0;
+        while (size > MAX_BACKLOG || size > 0 && Pressed.applied(k.bits, updates[h & MASK]) == k.bits) {
+            taps |= k.bits & TAP_BITS;
+            seq = take(k, h++);
+            size--;
+        }
+        k.bits |= taps;
+        lastAppliedSeq = seq;
+        head = h; // frees the slots for the producer
+    }
+
+    /** Tick side: whether frames still queued would change what the player holds. */
+    boolean pendingChange() { return queuedBits != appliedBits; }
+
+    private int take(Pressed k, int at) {
+        k.apply(updates[at & MASK]);
+        appliedBits = Pressed.applied(appliedBits, updates[at & MASK]);
+        return seqs[at & MASK];
+    }
+
+    /**
+     * Back to empty, for the slot's next player. Only while neither side runs: the room calls
+     * it under its monitor (so no tick) on the leaving player's own thread (so no offer).
+     */
+    void clear() {
+        anyQueued = false;
+        lastQueuedSeq = -1;
+        queuedBits = 0;
+        dropped = 0;
+        head = tail;
+        lastAppliedSeq = -1;
+        appliedBits = 0;
+    }
+
+    /** Seq of the last frame applied by the tick, -1 if none. */
+    int lastAppliedSeq() { return lastAppliedSeq; }
+
+    /** Frames waiting for the tick (exact on either side, approximate elsewhere). */
+    int queued() { return tail - head; }
+
+    long dropped() { return dropped; }
+}
@@ -0,0 +1,354 @@
+package com.stickfight.backend;
+
+/**
+ * The fight simulation of a room: its fighters (two, or up to {@link #MAX_FIGHTERS} in a
+ * free-for-all), their held buttons, the round timer and KO.
+ * {@link #step()} advances one tick and allocates nothing; networking lives in {@link Room}.
+ * Not thread-safe: the owning room serializes access.
+ * <p>
+ * Hits are found with a sweep-and-prune broadphase along X: fighters are kept sorted by x
+ * (insertion sort, nearly free since they barely move between ticks) and only pairs closer
+ * than {@link #HIT_RANGE} get the exact fist/torso test, so a crowded arena costs about
+ * O(n) per tick rather than O(n²). With two fighters every check comes out exactly as the
+ * original fixed P1-hits-P2, P2-hits-P1 pair, since neither hit changes what the other tests.
+ * <p>
+ * In a free-for-all, slots nobody holds are left out entirely ({@link #present}) and a fighter
+ * at 0 hp is down until the next round; the round ends when one fighter is left standing.
+ * <p>
+ * Speeds are in px per 20 Hz tick and timings in milliseconds; a match built for another
+ * tick rate scales both, so a round plays the same at 10 Hz or 60 Hz (at 20 Hz the arithmetic
+ * is exactly the original).
+ */
+final class Match {
+    // ---- Physics/Arena constants ----
+    static final double GRAVITY = 0.8;
+    static final double JUMP_POWER = 17.0;
+    static final double FRICTION = 0.80;
+    static final double WALK_SPEED = 5.0;
+    // Arena in server coordinates: center = 0; we clamp X within these bounds
+    static final int ARENA_HALF_WIDTH = 600;  // ~ screen width/2 on client
+    static final int LEFT_BOUND = -ARENA_HALF_WIDTH + 50;
+    static final int RIGHT_BOUND = +ARENA_HALF_WIDTH - 50;
+
+    static final double RELEASE_DRAG = 0.8;   // walk keys released
+    static final double LOCKED_DRAG = 0.9;    // while attacking/blocking
+
+    // ---- Timings (ms) ----
+    static final int DEFAULT_TICK_HZ = 20;
+    static final int ROUND_MS = 90_000;
+    static final int KO_RESET_MS = 3_000;     // KO overlay before the next round
+    static final int LIGHT_MS = 500;
+    static final int HEAVY_MS = 900;
+    static final int BLOCK_MS = 700;
+
+    // the same in ticks at the default rate, for the fixed 20 Hz simulators (BatchSimulator, FixedMatch)
+    static final int ROUND_TICKS = ticks(ROUND_MS, DEFAULT_TICK_HZ);
+    static final int KO_RESET_TICKS = ticks(KO_RESET_MS, DEFAULT_TICK_HZ);
+    static final int LIGHT_TICKS = ticks(LIGHT_MS, DEFAULT_TICK_HZ);
+    static final int HEAVY_TICKS = ticks(HEAVY_MS, DEFAULT_TICK_HZ);
+    static final int BLOCK_TICKS = ticks(BLOCK_MS, DEFAULT_TICK_HZ);
+
+    // ---- Stickman proportions (mirrors the client) ----
+    static final double BODY_LEN = 40.0;
+    static final double ARM_LEN = 30.0;
+    static final double REACH = 20.0;
+
+    // the furthest a fist reaches from its owner's x, plus the reach of a hit: pairs further apart can't hit
+    static final double HIT_RANGE = ARM_LEN + REACH;
+
+    static final int MAX_FIGHTERS = 16;
+    // free-for-all rounds start with everyone spread over this much of the arena, facing inwards
+    static final int SPAWN_SPREAD = 450;
+
+    static final String KO_HP = "hp";
+    static final String KO_TIMEOUT = "timeout";
+
+    final int tickHz;
+    // this rate's timings in ticks
+    final int roundTicks, koResetTicks, lightTicks, heavyTicks, blockTicks;
+    // one tick in units of a 20 Hz tick, and the per-tick drags for it
+    private final double dt, friction, releaseDrag, lockedDrag;
+
+    // fighter i is slot i + 1; s1/s2 and k1/k2 are the first two, the 1v1 pair
+    final PlayerState[] fighters;
+    final PlayerState s1, s2;
+
+    // buttons currently held by each player
+    final Pressed[] keys;
+    final Pressed k1, k2;
+
+    // slots in play; a 1v1 match always has both, a free-for-all only the ones taken
+    final boolean[] present;
+    // fighter indices sorted by x, for the hit broadphase
+    private final int[] byX;
+
+    boolean ko = false;
+    int koTicks = 0;                 // ticks since KO, to auto-reset
+    int roundTimerTicks;
+    String koReason = "";            // KO_HP or KO_TIMEOUT ("" means no KO)
+
+    Match() {
+        this(DEFAULT_TICK_HZ);
+    }
+
+    Match(int tickHz) {
+        this(tickHz, 2);
+    }
+
+    Match(int tickHz, int fighterCount) {
+        if (fighterCount < 2 || fighterCount > MAX_FIGHTERS) throw new IllegalArgumentException("fighters: " + fighterCount);
+        this.tickHz = tickHz;
+        fighters = new PlayerState[fighterCount];
+        keys = new Pressed[fighterCount];
+        present = new boolean[fighterCount];
+        byX = new int[fighterCount];
+        for (int i = 0; i < fighterCount; i++) {
+            fighters[i] = new PlayerState(spawnX(i, fighterCount), 0, spawnX(i, fighterCount) < 0 ? 1 : -1);
+            keys[i] = new Pressed();
+            present[i] = fighterCount == 2;
+            byX[i] = i;
+        }
+        s1 = fighters[0];
+        s2 = fighters[1];
+        k1 = keys[0];
+        k2 = keys[1];
+        roundTicks = ticks(ROUND_MS, tickHz);
+        koResetTicks = ticks(KO_RESET_MS, tickHz);
+        lightTicks = ticks(LIGHT_MS, tickHz);
+        heavyTicks = ticks(HEAVY_MS, tickHz);
+        blockTicks = ticks(BLOCK_MS, tickHz);
+        dt = DEFAULT_TICK_HZ / (double) tickHz;
+        // Math.pow(x, 1.0) == x, so 20 Hz keeps the exact original multipliers
+        friction = Math.pow(FRICTION, dt);
+        releaseDrag = Math.pow(RELEASE_DRAG, dt);
+        lockedDrag = Math.pow(LOCKED_DRAG, dt);
+        roundTimerTicks = roundTicks;
+    }
+
+    /** A duration in whole ticks at {@code tickHz} (at least one). */
+    static int ticks(int ms, int tickHz) {
+        return Math.max(1, (int) Math.round(ms * (double) tickHz / 1000));
+    }
+
+    void step() {
+        // ===== ROUND TIMER =====
+        if (roundTimerTicks > 0) {
+            roundTimerTicks--; // always tick down
+        } else if (!ko) {
+            // time's up → KO by timeout (draw)
+            ko = true;
+            koTicks = 0;
+            koReason = KO_TIMEOUT;
+        }
+
+        // ===== KO HANDLING =====
+        // If KO, wait ~3s then reset round; state is frozen meanwhile
+        if (ko) {
+            koTicks++;
+            if (koTicks >= koResetTicks) {
+                for (int slot = 1; slot <= fighters.length; slot++) resetPlayer(slot);
+                ko = false;
+                koTicks = 0;
+                roundTimerTicks = roundTicks;
+                koReason = "";
+            }
+            return;
+        }
+
+        int n = fighters.length;
+
+        // ===== 1) READ INPUT -> INTENT (movement, facing, start actions) =====
+        // (only reached with someone down in a free-for-all: they let go of everything until the next round)
+        for (int i = 0; i < n; i++) {
+            if (inPlay(i)) applyInput(fighters[i], keys[i]);
+            else keys[i].clear();
+        }
+
+        // ===== 2) PHYSICS =====
+        for (int i = 0; i < n; i++) if (present[i]) applyPhysics(fighters[i], keys[i]);
+
+        // ===== 3) HIT DETECTION =====
+        detectHits();
+
+        // ===== 4) ACTION TIMERS =====
+        for (int i = 0; i < n; i++) if (present[i]) tickActionTimer(fighters[i], keys[i]);
+
+        // ===== 5) KO CHECK =====
+        // one fighter left standing (in 1v1: either one down)
+        int inMatch = 0, standing = 0;
+        for (int i = 0; i < n; i++) {
+            if (!present[i]) continue;
+            inMatch++;
+            if (fighters[i].hp > 0) standing++;
+        }
+        if (inMatch >= 2 && standing <= 1) {
+            ko = true;
+            koTicks = 0;
+            koReason = KO_HP;
+        }
+    }
+
+    // present and not down
+    private boolean inPlay(int i) {
+        return present[i] && fighters[i].hp > 0;
+    }
+
+    // sweep and prune along X, then the exact test both ways for each close pair
+    private void detectHits() {
+        int n = fighters.length;
+        // insertion sort: fighters rarely overtake each other, so this is ~n compares
+        for (int i = 1; i < n; i++) {
+            int f = byX[i];
+            double x = fighters[f].x;
+            int j = i - 1;
+            while (j >= 0 && fighters[byX[j]].x > x) {
+                byX[j + 1] = byX[j];
+                j--;
+            }
+            byX[j + 1] = f;
+        }
+        for (int i = 0; i < n; i++) {
+            int a = byX[i];
+            if (!inPlay(a)) continue;
+            PlayerState pa = fighters[a];
+            for (int j = i + 1; j < n; j++) {
+                int b = byX[j];
+                PlayerState pb = fighters[b];
+                if (pb.x - pa.x > HIT_RANGE) break; // sorted: everyone further right is out of range too
+                if (!inPlay(b)) continue;
+                applyHitIfInRange(pa, pb);
+                applyHitIfInRange(pb, pa);
+            }
+        }
+    }
+
+    /** Back to the round start position for a slot (1-based), releasing its buttons. */
+    void resetPlayer(int slot) {
+        int i = slot - 1;
+        if (i < 0 || i >= fighters.length) return;
+        int x = spawnX(i, fighters.length);
+        fighters[i].resetForNewRound(x, 0, x < 0 ? 1 : -1);
+        keys[i].clear();
+    }
+
+    /** Back to a new match, as constructed: empty slots, full timer, nobody's name. */
+    void reset() {
+        for (int i = 0; i < fighters.length; i++) {
+            resetPlayer(i + 1);
+            fighters[i].name = PlayerState.DEFAULT_NAME;
+            present[i] = fighters.length == 2;
+            byX[i] = i;
+        }
+        ko = false;
+        koTicks = 0;
+        roundTimerTicks = roundTicks;
+        koReason = "";
+    }
+
+    /** Round start x of fighter {@code i}: ±120 in 1v1, else spread evenly over {@link #SPAWN_SPREAD}. */
+    static int spawnX(int i, int fighterCount) {
+        if (fighterCount == 2) return i == 0 ? -120 : +120;
+        return -SPAWN_SPREAD + 2 * SPAWN_SPREAD * i / (fighterCount - 1);
+    }
+
+    int timerSeconds() {
+        return Math.max(0, roundTimerTicks / tickHz);
+    }
+
+    private void applyInput(PlayerState s, Pressed k) {
+        boolean locked = s.action.isLocked();
+        if (!locked) {
+            if (k.left())  { s.vx = -WALK_SPEED; s.facing = -1; if (s.onGround && s.action != Action.JUMP) s.action = Action.RUN; }
+            else if (k.right()) { s.vx = WALK_SPEED; s.facing = 1; if (s.onGround && s.action != Action.JUMP) s.action = Action.RUN; }
+            else { s.vx *= releaseDrag; if (s.onGround && s.action == Action.RUN) s.action = Action.IDLE; }
+        } else {
+            s.vx *= lockedDrag;
+        }
+        if (k.up() && s.onGround && !locked) {
+            s.vy = -JUMP_POWER; s.onGround = false; s.action = Action.JUMP;
+        }
+        if (k.light() && s.onGround && s.actionTimer == 0) { s.action = Action.LIGHT; s.actionTimer = lightTicks; s.didHitThisAction = false; }
+        if (k.heavy() && s.onGround && s.actionTimer == 0) { s.action = Action.HEAVY; s.actionTimer = heavyTicks; s.didHitThisAction = false; }
+        if (k.block() && s.onGround && s.action != Action.BLOCK) { s.action = Action.BLOCK; s.actionTimer = blockTicks; }
+        if (!k.block() && s.action == Action.BLOCK) { s.actionTimer = 0; s.action = (s.onGround && (k.left() || k.right())) ? Action.RUN : Action.IDLE; }
+    }
+
+    private void applyPhysics(PlayerState s, Pressed k) {
+        // gravity
+        s.vy += GRAVITY * dt;
+
+        // apply velocity
+        s.x += s.vx * dt; s.y += s.vy * dt;
+
+        // ground collision (ground is y=0)
+        if (s.y > 0) { s.y = 0; s.vy = 0; s.onGround = true; if (!s.action.isLocked() && !(k.left() || k.right())) s.action = Action.IDLE; }
+        else { s.onGround = false; }
+
+        // bounds
+        if (s.x < LEFT_BOUND) s.x = LEFT_BOUND;
+        if (s.x > RIGHT_BOUND) s.x = RIGHT_BOUND;
+
+        // friction on ground
+        if (s.onGround) s.vx *= friction;
+    }
+
+    private static void tickActionTimer(PlayerState s, Pressed k) {
+        if (s.actionTimer > 0) {
+            s.actionTimer--;
+            if (s.actionTimer == 0 && s.action != Action.JUMP) {
+                s.action = (s.onGround && (k.left() || k.right())) ? Action.RUN : Action.IDLE;
+            }
+        }
+    }
+
+    // Fist position in server coords for a player currently attacking
+    // (split into x/y so the hot path doesn't allocate a pair)
+    static double fistX(PlayerState s) {
+        return s.x + Math.cos(attackAngle(s)) * ARM_LEN;
+    }
+
+    static double fistY(PlayerState s) {
+        double shoulderY = s.y - BODY_LEN + 10.0; // s.y is 0 on ground; negative is up
+        return shoulderY + Math.sin(attackAngle(s)) * ARM_LEN;
+    }
+
+    private static double attackAngle(PlayerState s) {
+        if (s.action.isAttack()) {
+            return (s.facing == 1) ? -0.2 : -2.94;
+        }
+        return -1.2;
+    }
+
+    static void applyHitIfInRange(PlayerState attacker, PlayerState defender) {
+        if (!attacker.action.isAttack()) return;
+        if (attacker.didHitThisAction) return;
+
+        // Defender torso target roughly mid-body
+        double tx = defender.x;
+        double ty = defender.y - BODY_LEN / 2.0;
+
+        double dx = fistX(attacker) - tx;
+        double dy = fistY(attacker) - ty;
+        double dist = Math.hypot(dx, dy);
+
+        if (dist <= REACH) {
+            int dmg = attacker.action == Action.LIGHT ? 8 : 18;
+
+            // If defender is blocking and facing attacker, reduce damage
+            boolean attackerOnRight = attacker.x > defender.x;
+            boolean defenderFacingAttacker = attackerOnRight ? defender.facing == 1 : defender.facing == -1;
+            if (defender.action == Action.BLOCK && defenderFacingAttacker) {
+                dmg = (int)Math.round(dmg * 0.4); // 60% damage reduction
+            }
+
+            defender.hp = Math.max(0, defender.hp - dmg);
+
+            // small knockback
+            int dir = attackerOnRight ? 1 : -1;
+            defender.vx += 2.0 * dir;
+            if (defender.onGround) defender.vy = -3.0;
+
+            attacker.didHitThisAction = true;
+        }
+    }
+}
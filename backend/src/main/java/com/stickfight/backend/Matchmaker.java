@@ -0,0 +1,223 @@
+package com.stickfight.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pairs players who sent {@code queue}, in periodic batches ({@link #runBatch}), so players
+ * agree on nothing out of band.
+ * <p>
+ * Waiting players sit in FIFO buckets indexed by rating band ({@link #RATING_BAND} points) and
+ * ping band ({@link #PING_BANDS_MS}), so a batch pairs each bucket from its head without
+ * scanning anyone else. It costs O(players paired + buckets), however long the queue is. Only
+ * the at most one player a bucket has left over looks further away. The rating and ping bands
+ * it accepts widen by one every {@link #WIDEN_EVERY_MS} of waiting.
+ * <p>
+ * Threading: network threads {@link #enqueue} and {@link #cancel}; one thread runs the batches
+ * and alone touches the buckets. Cancelled tickets are dropped lazily when a batch reaches them.
+ * A pair is decided under both tickets' monitors, but {@link Pairing#matched} runs after they are
+ * released (it takes room locks); a cancel for a ticket being joined waits for that to finish.
+ */
+final class Matchmaker {
+    static final int RATING_BAND = 100;
+    static final int RATING_BANDS = 32;                 // 0 .. 3199, higher ratings share the top band
+    static final int[] PING_BANDS_MS = {50, 100, 200};  // upper bounds; unknown or slower -> last band
+    static final int PING_BUCKETS = PING_BANDS_MS.length + 1;
+    static final long WIDEN_EVERY_MS = 5_000;
+
+    /** One waiting player. {@code join} is what to join them with once paired. */
+    static final class Ticket {
+        final SessionOutbox out;
+        final String name;
+        final int rating;
+        final int rttMs;
+        final long enqueuedNanos;
+        final Object join;
+        final int ratingBand, pingBand;
+        // set under the ticket's monitor, so a cancel and a pairing can't both win
+        volatile boolean cancelled;
+        private boolean matched;
+        // matched, and Pairing.matched has returned for it
+        private boolean settled;
+
+        Ticket(SessionOutbox out, String name, int rating, int rttMs, long enqueuedNanos, Object join) {
+            this.out = out;
+            this.name = name;
+            this.rating = rating;
+            this.rttMs = rttMs;
+            this.enqueuedNanos = enqueuedNanos;
+            this.join = join;
+            this.ratingBand = Math.min(RATING_BANDS - 1, Math.max(0, rating / RATING_BAND));
+            this.pingBand = pingBand(rttMs);
+        }
+    }
+
+    interface Pairing {
+        void matched(Ticket a, Ticket b, long nowNanos);
+    }
+
+    private final Pairing pairing;
+    private final Queue<Ticket> incoming = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, Ticket> bySession = new ConcurrentHashMap<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    // batch thread only: [ratingBand * PING_BUCKETS + pingBand]
+    private final List<ArrayDeque<Ticket>> buckets = new ArrayList<>(RATING_BANDS * PING_BUCKETS);
+    private final List<Ticket> leftovers = new ArrayList<>();
+
+    Matchmaker(Pairing pairing) {
+        this.pairing = pairing;
+        for (int i = 0; i < RATING_BANDS * PING_BUCKETS; i++) buckets.add(new ArrayDeque<>());
+    }
+
+    /** Queue a player (replacing their earlier ticket, if any); they are paired at a later batch. */
+    void enqueue(Ticket t) {
+        Ticket old = bySession.put(t.out.id(), t);
+        if (old != null) cancel(old);
+        waiting.incrementAndGet();
+        incoming.add(t);
+    }
+
+    /**
+     * Take a player out of the queue (leave, disconnect). Returns whether they were still waiting;
+     * false if not queued, or already paired (then they have joined their room by the time this returns).
+     */
+    boolean cancel(SessionOutbox out) {
+        Ticket t = bySession.get(out.id());
+        if (t == null || !cancel(t)) return false;
+        bySession.remove(out.id(), t);
+        return true;
+    }
+
+    private boolean cancel(Ticket t) {
+        synchronized (t) {
+            awaitSettled(t);
+            if (t.cancelled || t.matched) return false;
+            t.cancelled = true;
+        }
+        waiting.decrementAndGet();
+        return true;
+    }
+
+    /** Players waiting right now. */
+    int waiting() { return waiting.get(); }
+
+    /** One pairing pass; call periodically from a single thread. */
+    void runBatch(long nowNanos) {
+        for (Ticket t; (t = incoming.poll()) != null; ) {
+            if (!t.cancelled) bucketOf(t).addLast(t);
+        }
+
+        // same bucket: first come, first paired
+        leftovers.clear();
+        for (ArrayDeque<Ticket> bucket : buckets) {
+            Ticket a;
+            while ((a = nextLive(bucket)) != null) {
+                bucket.pollFirst();
+                Ticket b = nextLive(bucket);
+                if (b == null) {
+                    bucket.addFirst(a);
+                    leftovers.add(a);
+                    break;
+                }
+                bucket.pollFirst();
+                pair(a, b, nowNanos);
+            }
+        }
+
+        // whoever is left alone in a bucket looks at neighbouring buckets, longest waiting first
+        leftovers.sort(Comparator.comparingLong(t -> t.enqueuedNanos));
+        for (int i = 0; i < leftovers.size(); i++) {
+            Ticket a = leftovers.get(i);
+            if (a == null) continue;
+            int reach = (int) ((nowNanos - a.enqueuedNanos) / 1_000_000 / WIDEN_EVERY_MS);
+            if (reach == 0) continue;
+            int best = -1, bestDistance = Integer.MAX_VALUE;
+            for (int j = i + 1; j < leftovers.size(); j++) {
+                Ticket b = leftovers.get(j);
+                if (b == null) continue;
+                int dr = Math.abs(a.ratingBand - b.ratingBand), dp = Math.abs(a.pingBand - b.pingBand);
+                if (dr > reach || dp > reach) continue;
+                if (dr + dp < bestDistance) { best = j; bestDistance = dr + dp; }
+            }
+            if (best < 0) continue;
+            Ticket b = leftovers.get(best);
+            bucketOf(a).pollFirst();
+            bucketOf(b).pollFirst();
+            leftovers.set(i, null);
+            leftovers.set(best, null);
+            pair(a, b, nowNanos);
+        }
+    }
+
+    // cancel only ever holds one ticket's monitor, so holding both here can't deadlock
+    private void pair(Ticket a, Ticket b, long nowNanos) {
+        synchronized (a) {
+            synchronized (b) {
+                // cancelled since this batch looked: the other one waits on
+                if (a.cancelled || b.cancelled) {
+                    if (!a.cancelled) requeue(a);
+                    if (!b.cancelled) requeue(b);
+                    return;
+                }
+                a.matched = b.matched = true;
+                waiting.addAndGet(-2);
+            }
+        }
+        // joined without the monitors: a leave arriving meanwhile waits in cancel, then finds them in the room
+        try {
+            pairing.matched(a, b, nowNanos);
+        } finally {
+            settle(a);
+            settle(b);
+        }
+    }
+
+    private void settle(Ticket t) {
+        synchronized (t) {
+            t.settled = true;
+            t.notifyAll();
+        }
+        bySession.remove(t.out.id(), t);
+    }
+
+    // under t's monitor
+    private static void awaitSettled(Ticket t) {
+        boolean interrupted = false;
+        while (t.matched && !t.settled) {
+            try {
+                t.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private ArrayDeque<Ticket> bucketOf(Ticket t) {
+        return buckets.get(t.ratingBand * PING_BUCKETS + t.pingBand);
+    }
+
+    private void requeue(Ticket t) {
+        bucketOf(t).addFirst(t);
+    }
+
+    // head of the bucket after dropping cancelled tickets
+    private static Ticket nextLive(ArrayDeque<Ticket> bucket) {
+        Ticket t;
+        while ((t = bucket.peekFirst()) != null && t.cancelled) bucket.pollFirst();
+        return t;
+    }
+
+    static int pingBand(int rttMs) {
+        if (rttMs < 0) return PING_BUCKETS - 1;
+        for (int i = 0; i < PING_BANDS_MS.length; i++) if (rttMs < PING_BANDS_MS[i]) return i;
+        return PING_BUCKETS - 1;
+    }
+}
@@ -0,0 +1,34 @@
+package com.stickfight.backend;
+
+/** One fighter's simulation state. Primitives and an enum only, so ticking it allocates nothing. */
+final class PlayerState {
+    static final String DEFAULT_NAME = "Player";
+
+    // position (x relative to arena center, y=0 is ground)
+    double x, y;
+    // velocity
+    double vx = 0, vy = 0;
+    // state
+    int hp = 100;
+    int facing;                 // 1 or -1
+    Action action = Action.IDLE;
+    int actionTimer = 0;        // ticks remaining for current action
+    boolean onGround = true;
+    boolean didHitThisAction = false;
+    String name = DEFAULT_NAME; // not touched by the tick
+
+    PlayerState(int x, int y, int facing) {
+        this.x = x; this.y = y; this.facing = facing;
+    }
+
+    void resetForNewRound(int x, int y, int facing) {
+        this.x = x; this.y = y;
+        vx = vy = 0;
+        hp = 100;
+        this.facing = facing;
+        action = Action.IDLE;
+        actionTimer = 0;
+        onGround = true;
+        didHitThisAction = false;
+    }
+}
@@ -0,0 +1,63 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Buttons currently held by one player, as a bitmask.
+ * <p>
+ * Network threads turn a {@code pressed} object into an <em>update word</em> (see {@link #parse},
+ * and {@link InboundMessage} for the streaming version the handler uses):
+ * the low byte holds the button values, the next byte which buttons the message mentioned,
+ * so a partial {@code pressed} object only changes the buttons it lists.
+ */
+final class Pressed {
+    static final int LEFT = 1;
+    static final int RIGHT = 1 << 1;
+    static final int UP = 1 << 2;
+    static final int LIGHT = 1 << 3;
+    static final int HEAVY = 1 << 4;
+    static final int BLOCK = 1 << 5;
+    static final int ALL = LEFT | RIGHT | UP | LIGHT | HEAVY | BLOCK;
+
+    private static final String[] NAMES = {"left", "right", "up", "light", "heavy", "block"};
+
+    int bits;
+
+    boolean left()  { return (bits & LEFT) != 0; }
+    boolean right() { return (bits & RIGHT) != 0; }
+    boolean up()    { return (bits & UP) != 0; }
+    boolean light() { return (bits & LIGHT) != 0; }
+    boolean heavy() { return (bits & HEAVY) != 0; }
+    boolean block() { return (bits & BLOCK) != 0; }
+
+    /** Apply an update word from {@link #parse}. */
+    void apply(int update) {
+        bits = applied(bits, update);
+    }
+
+    /** {@code bits} after applying an update word. */
+    static int applied(int bits, int update) {
+        int values = update & ALL;
+        int present = (update >>> 8) & ALL;
+        return (bits & ~present) | (values & present);
+    }
+
+    void clear() { bits = 0; }
+
+    /** Update word for a {@code pressed} JSON object: {left,right,up,light,heavy,block}. */
+    static int parse(JsonNode p) {
+        int values = 0, present = 0;
+        for (int i = 0; i < NAMES.length; i++) {
+            JsonNode v = p.get(NAMES[i]);
+            if (v == null) continue;
+            present |= 1 << i;
+            if (v.asBoolean(false)) values |= 1 << i;
+        }
+        return values | (present << 8);
+    }
+
+    /** Update word that sets every button to {@code bits}. */
+    static int full(int bits) {
+        return (bits & ALL) | (ALL << 8);
+    }
+}
@@ -0,0 +1,161 @@
+package com.stickfight.backend;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Recording of one room's match: its initial state plus the buttons both players held at
+ * every tick, enough to re-run the match through {@link Match#step()} ({@link ReplayReader}).
+ * <p>
+ * Records are appended to the room's own small buffer under the room lock (a few byte puts per
+ * tick); when it fills, or about once per second, an exact-size copy goes to the
+ * {@link ReplayWriter} thread, so the tick never touches the disk.
+ * <pre>
+ * header: "SFRP" u8 version, u16 tick rate (Hz), i64 start (epoch ms), u16 length + utf8 room id
+ * records, each starting with a u8 opcode:
+ *   STATE  full match state (see {@link #writeState}); the first record of every log
+ *   KEYS   u16: player 1 buttons | player 2 buttons &lt;&lt; 8, then one step
+ *   REPEAT u16 n: n more steps with the same buttons
+ *   NAME   u8 slot, u16 length + utf8: a player took the slot
+ *   RESET  u8 slot: the slot was reset ({@link Match#resetPlayer}) between steps
+ *   END    the room closed
+ * </pre>
+ * All multi-byte values are big-endian. Not thread-safe: the owning room serializes access.
+ */
+final class ReplayLog {
+    static final int MAGIC = 0x53465250; // "SFRP"
+    static final int VERSION = 1;
+    static final byte STATE = 1, KEYS = 2, REPEAT = 3, NAME = 4, RESET = 5, END = 6;
+    static final int BUFFER_SIZE = 1024;
+    // room for the largest fixed-size record plus a REPEAT before it
+    private static final int HEADROOM = 128;
+
+    private final ReplayWriter writer;
+    final String roomId;
+    final long startMillis;
+    private final int flushEveryTicks;
+
+    private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+    private int lastKeys = -1;
+    private int repeat = 0;             // steps with lastKeys not written yet
+    private int ticksSinceFlush = 0;
+    private boolean closed = false;
+
+    ReplayLog(ReplayWriter writer, String roomId, int tickHz, long startMillis, Match m) {
+        this.writer = writer;
+        this.roomId = roomId;
+        this.startMillis = startMillis;
+        this.flushEveryTicks = tickHz;
+        byte[] id = roomId.getBytes(StandardCharsets.UTF_8);
+        int idLen = Math.min(id.length, 255);
+        buf.putInt(MAGIC).put((byte) VERSION).putShort((short) tickHz).putLong(startMillis);
+        buf.putShort((short) idLen).put(id, 0, idLen);
+        buf.put(STATE);
+        writeState(buf, m);
+    }
+
+    /** The buttons for the step about to run. */
+    void frame(int keys1, int keys2) {
+        if (closed) return;
+        int keys = (keys1 & Pressed.ALL) | (keys2 & Pressed.ALL) << 8;
+        if (keys == lastKeys && repeat < 0xFFFF) {
+            repeat++;
+        } else {
+            flushRepeat();
+            ensure(3);
+            buf.put(KEYS).putShort((short) keys);
+            lastKeys = keys;
+        }
+        if (++ticksSinceFlush >= flushEveryTicks) flush(false);
+    }
+
+    void name(int slot, String name) {
+        if (closed) return;
+        flushRepeat();
+        byte[] b = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(b.length, 255);
+        ensure(4 + len);
+        buf.put(NAME).put((byte) slot).putShort((short) len).put(b, 0, len);
+    }
+
+    void reset(int slot) {
+        if (closed) return;
+        flushRepeat();
+        ensure(2);
+        buf.put(RESET).put((byte) slot);
+    }
+
+    void close() {
+        if (closed) return;
+        flushRepeat();
+        ensure(1);
+        buf.put(END);
+        flush(true);
+        closed = true;
+    }
+
+    private void flushRepeat() {
+        if (repeat == 0) return;
+        buf.put(REPEAT).putShort((short) repeat); // fits: ensure() always leaves HEADROOM free
+        repeat = 0;
+    }
+
+    private void ensure(int bytes) {
+        if (buf.remaining() < bytes + HEADROOM) flush(false);
+    }
+
+    // hand a copy of what we have to the writer thread and start over
+    private void flush(boolean last) {
+        flushRepeat();
+        buf.flip();
+        ByteBuffer out = ByteBuffer.allocate(buf.remaining()).put(buf).flip();
+        buf.clear();
+        writer.submit(this, out, last);
+        ticksSinceFlush = 0;
+    }
+
+    static void writeState(ByteBuffer b, Match m) {
+        b.put((byte) (m.ko ? 1 : 0)).putInt(m.koTicks).putInt(m.roundTimerTicks);
+        b.put((byte) BinaryStateCodec.koReasonCode(m.koReason));
+        writePlayer(b, m.s1, m.k1);
+        writePlayer(b, m.s2, m.k2);
+    }
+
+    static void readState(ByteBuffer b, Match m) {
+        m.ko = b.get() != 0;
+        m.koTicks = b.getInt();
+        m.roundTimerTicks = b.getInt();
+        m.koReason = switch (b.get()) {
+            case 1 -> Match.KO_HP;
+            case 2 -> Match.KO_TIMEOUT;
+            default -> "";
+        };
+        readPlayer(b, m.s1, m.k1);
+        readPlayer(b, m.s2, m.k2);
+    }
+
+    // one fighter and its held buttons (also used by RoomHandoff)
+    static final int PLAYER_BYTES = 44;
+
+    static void writePlayer(ByteBuffer b, PlayerState s, Pressed k) {
+        b.putDouble(s.x).putDouble(s.y).putDouble(s.vx).putDouble(s.vy);
+        b.putInt(s.hp).put((byte) s.facing).put((byte) s.action.code()).putInt(s.actionTimer);
+        b.put((byte) ((s.onGround ? 1 : 0) | (s.didHitThisAction ? 2 : 0)));
+        b.put((byte) k.bits);
+    }
+
+    static void readPlayer(ByteBuffer b, PlayerState s, Pressed k) {
+        s.x = b.getDouble();
+        s.y = b.getDouble();
+        s.vx = b.getDouble();
+        s.vy = b.getDouble();
+        s.hp = b.getInt();
+        s.facing = b.get();
+        s.action = Action.ofCode(b.get());
+        s.actionTimer = b.getInt();
+        int flags = b.get();
+        s.onGround = (flags & 1) != 0;
+        s.didHitThisAction = (flags & 2) != 0;
+        k.bits = b.get();
+    }
+}
@@ -0,0 +1,86 @@
+package com.stickfight.backend;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Plays a {@link ReplayLog} file back through {@link Match#step()}, as fast as the CPU allows.
+ * The file is memory-mapped and decoded in place. A log cut short (server killed mid-match)
+ * replays up to its last complete record.
+ */
+final class ReplayReader {
+    /** Called after every replayed step; {@code tick} counts steps from the start of the log. */
+    interface TickListener {
+        void onTick(int tick, Match m);
+    }
+
+    final int tickHz;
+    final long startMillis;
+    final String roomId;
+    private final MappedByteBuffer data;
+    private final int recordsStart;
+
+    ReplayReader(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            data = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (data.remaining() < 4 || data.getInt() != ReplayLog.MAGIC) throw new IOException(file + ": not a replay");
+        int version = data.get();
+        if (version != ReplayLog.VERSION) throw new IOException(file + ": unsupported replay version " + version);
+        tickHz = data.getShort() & 0xFFFF;
+        startMillis = data.getLong();
+        roomId = utf8(data, data.getShort() & 0xFFFF);
+        recordsStart = data.position();
+    }
+
+    /** Replay the whole log and return the match as it was when recording stopped. */
+    Match replay(TickListener listener) {
+        Match m = new Match(tickHz);
+        ByteBuffer b = data.duplicate().position(recordsStart);
+        int tick = 0;
+        try {
+            while (b.hasRemaining()) {
+                byte op = b.get();
+                switch (op) {
+                    case ReplayLog.STATE -> ReplayLog.readState(b, m);
+                    case ReplayLog.KEYS -> {
+                        int keys = b.getShort() & 0xFFFF;
+                        m.k1.bits = keys & Pressed.ALL;
+                        m.k2.bits = (keys >>> 8) & Pressed.ALL;
+                        m.step();
+                        listener.onTick(++tick, m);
+                    }
+                    case ReplayLog.REPEAT -> {
+                        for (int n = b.getShort() & 0xFFFF; n > 0; n--) {
+                            m.step();
+                            listener.onTick(++tick, m);
+                        }
+                    }
+                    case ReplayLog.NAME -> {
+                        int slot = b.get();
+                        String name = utf8(b, b.getShort() & 0xFFFF);
+                        (slot == 1 ? m.s1 : m.s2).name = name;
+                    }
+                    case ReplayLog.RESET -> m.resetPlayer(b.get());
+                    case ReplayLog.END -> { return m; }
+                    default -> throw new IllegalStateException("bad replay opcode " + op + " at " + (b.position() - 1));
+                }
+            }
+        } catch (BufferUnderflowException truncated) {
+            // recording was cut off mid-record: keep what we have
+        }
+        return m;
+    }
+
+    private static String utf8(ByteBuffer b, int len) {
+        byte[] bytes = new byte[len];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
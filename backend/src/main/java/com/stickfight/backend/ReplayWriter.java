@@ -0,0 +1,153 @@
+package com.stickfight.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * One background thread that appends every room's {@link ReplayLog} chunks to files in
+ * {@code dir} (one {@code .sfr} file per room). Whatever queued up since the last pass is written
+ * in one go, with a single gathering {@link FileChannel#write(ByteBuffer[])} per file.
+ */
+final class ReplayWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(ReplayWriter.class);
+    static final String SUFFIX = ".sfr";
+
+    private record Chunk(ReplayLog log, ByteBuffer data, boolean last) {}
+
+    private static final Chunk STOP = new Chunk(null, null, true);
+
+    private final Path dir;
+    private final GameMetrics metrics;
+    private final BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+
+    // writer thread only
+    private final Map<ReplayLog, FileChannel> files = new HashMap<>();
+    private final Set<ReplayLog> failed = new HashSet<>();
+
+    ReplayWriter(Path dir, GameMetrics metrics) {
+        this.dir = dir;
+        this.metrics = metrics;
+        this.thread = Thread.ofPlatform().name("replay-writer").daemon().start(this::run);
+    }
+
+    /** Start recording a room whose match is in its initial state. */
+    ReplayLog open(String roomId, int tickHz, Match m) {
+        return new ReplayLog(this, roomId, tickHz, System.currentTimeMillis(), m);
+    }
+
+    /**
+     * File a room's log goes to: {@code <room>-<start ms>.sfr}, or {@code <room>-<start ms>-<n>.sfr}
+     * for the {@code n}th other log that would have had the same name (ids that only differ in
+     * characters we replace, or a room recorded twice in one millisecond).
+     */
+    Path fileFor(ReplayLog l, int n) {
+        String name = l.roomId.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + l.startMillis;
+        return dir.resolve(n == 0 ? name + SUFFIX : name + "-" + n + SUFFIX);
+    }
+
+    void submit(ReplayLog l, ByteBuffer data, boolean last) {
+        queue.add(new Chunk(l, data, last));
+    }
+
+    /** Write out everything submitted so far and stop. Interrupted, it stops waiting; the writer still finishes. */
+    @Override
+    public void close() {
+        queue.add(STOP);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<Chunk> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                boolean stop = batch.remove(STOP);
+                writeBatch(batch);
+                batch.clear();
+                if (stop) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (FileChannel ch : files.values()) closeQuietly(ch);
+        files.clear();
+    }
+
+    private void writeBatch(List<Chunk> batch) {
+        // group by log, keeping each log's chunks in submission order, and the logs in the order they
+        // first submitted (so the file name a log gets, suffix and all, doesn't depend on hashing)
+        Map<ReplayLog, List<Chunk>> byLog = new LinkedHashMap<>();
+        for (Chunk c : batch) byLog.computeIfAbsent(c.log(), k -> new ArrayList<>()).add(c);
+
+        for (Map.Entry<ReplayLog, List<Chunk>> e : byLog.entrySet()) {
+            ReplayLog l = e.getKey();
+            List<Chunk> chunks = e.getValue();
+            boolean last = chunks.get(chunks.size() - 1).last();
+            if (!failed.contains(l)) {
+                try {
+                    FileChannel ch = files.get(l);
+                    if (ch == null) {
+                        Files.createDirectories(dir);
+                        ch = create(l);
+                        files.put(l, ch);
+                    }
+                    ByteBuffer[] data = new ByteBuffer[chunks.size()];
+                    for (int i = 0; i < data.length; i++) data[i] = chunks.get(i).data();
+                    long remaining = 0;
+                    for (ByteBuffer b : data) remaining += b.remaining();
+                    while (remaining > 0) remaining -= ch.write(data);
+                } catch (IOException ex) {
+                    // give up on this recording only; the match itself is unaffected
+                    metrics.error("replay", ex);
+                    log.warn("replay of room {} stopped", l.roomId, ex);
+                    failed.add(l);
+                    FileChannel ch = files.remove(l);
+                    if (ch != null) closeQuietly(ch);
+                }
+            }
+            if (last) {
+                failed.remove(l);
+                FileChannel ch = files.remove(l);
+                if (ch != null) closeQuietly(ch);
+            }
+        }
+    }
+
+    // never over an earlier recording
+    private FileChannel create(ReplayLog l) throws IOException {
+        for (int n = 0; ; n++) {
+            try {
+                return FileChannel.open(fileFor(l, n), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException taken) {
+                // try the next suffix
+            }
+        }
+    }
+
+    private static void closeQuietly(FileChannel ch) {
+        try { ch.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,125 @@
+package com.stickfight.backend;
+
+/**
+ * Server side of a rollback room: runs {@link FixedMatch} one frame per tick, predicting missing
+ * inputs (a player keeps holding what they last sent), and when an input arrives for a frame that
+ * was already simulated with a different prediction, restores the snapshot of that frame and
+ * re-simulates up to the present.
+ * <p>
+ * Clients run the same step function locally on their own inputs plus the opponent's relayed
+ * inputs, and compare the per-frame {@link #hashAt hash} to detect desyncs.
+ * Not thread-safe: the owning room serializes access.
+ */
+final class RollbackSession {
+    static final int HISTORY = 64;
+    // inputs are accepted up to WINDOW frames back (1.6 s at 20 Hz) or ahead; the ring holds both sides
+    static final int WINDOW = HISTORY / 2;
+
+    // states[f % HISTORY] = state at the start of frame f
+    private final int[][] states = new int[HISTORY][FixedMatch.SIZE];
+    private final long[] hashes = new long[HISTORY];          // hash after simulating frame f
+    // per slot (0/1), per frame: received input, which frame it belongs to, and what we simulated with
+    private final int[][] inputs = new int[2][HISTORY];
+    private final int[][] inputFrame = new int[2][HISTORY];
+    private final int[][] used = new int[2][HISTORY];
+    private final int[] lastFrameReceived = {-1, -1};
+    // buttons held at the newest frame that can no longer change (clients only send changes)
+    private final int[] settled = new int[2];
+
+    private final int[] state = FixedMatch.newState();
+    private int frame = 0;                       // next frame to simulate
+    private int rollbackFrom = Integer.MAX_VALUE;
+
+    long rollbacks = 0;
+    long resimulatedFrames = 0;
+    long rejectedInputs = 0;
+
+    RollbackSession() {
+        for (int[] f : inputFrame) java.util.Arrays.fill(f, -1);
+    }
+
+    /** Next frame the server will simulate; inputs for it are on time. */
+    int frame() { return frame; }
+
+    /** Current state (start of {@link #frame()}); do not modify. */
+    int[] state() { return state; }
+
+    /** Latest frame a slot (1/2) has sent input for, -1 if none. */
+    int lastFrameReceived(int slot) { return lastFrameReceived[slot - 1]; }
+
+    /** Buttons a slot (1/2) most recently sent, the base for partial {@link Pressed} updates. */
+    int lastBits(int slot) {
+        int f = lastFrameReceived[slot - 1];
+        return f < 0 ? 0 : bitsAt(slot - 1, f);
+    }
+
+    /**
+     * Record a slot's (1/2) input for {@code atFrame}. Returns false if the frame is outside the
+     * window (more than {@link #WINDOW} frames old, or that far in the future).
+     */
+    boolean addInput(int slot, int atFrame, int bits) {
+        int p = slot - 1;
+        if (atFrame < 0 || atFrame <= settledFrame() || atFrame >= frame + WINDOW) {
+            rejectedInputs++;
+            return false;
+        }
+        int i = Math.floorMod(atFrame, HISTORY);
+        inputs[p][i] = bits & Pressed.ALL;
+        inputFrame[p][i] = atFrame;
+        if (atFrame > lastFrameReceived[p]) lastFrameReceived[p] = atFrame;
+
+        // already simulated with a guess that turned out wrong: replay from there
+        if (atFrame < frame && used[p][i] != inputs[p][i]) {
+            rollbackFrom = Math.min(rollbackFrom, atFrame);
+        }
+        return true;
+    }
+
+    /** One server tick: resolve pending corrections, then simulate the next frame. */
+    void advance() {
+        if (rollbackFrom < frame) {
+            rollbacks++;
+            System.arraycopy(states[Math.floorMod(rollbackFrom, HISTORY)], 0, state, 0, FixedMatch.SIZE);
+            for (int f = rollbackFrom; f < frame; f++) {
+                simulate(f);
+                resimulatedFrames++;
+            }
+        }
+        rollbackFrom = Integer.MAX_VALUE;
+        simulate(frame);
+        // the oldest frame in the window is final from now on
+        settled[0] = bitsAt(0, settledFrame() + 1);
+        settled[1] = bitsAt(1, settledFrame() + 1);
+        frame++;
+    }
+
+    /** State hash after simulating {@code f}; only valid for the last {@link #HISTORY} frames. */
+    long hashAt(int f) {
+        if (f >= frame || f <= frame - HISTORY) throw new IllegalArgumentException("frame " + f + " not in history");
+        return hashes[Math.floorMod(f, HISTORY)];
+    }
+
+    private void simulate(int f) {
+        int i = Math.floorMod(f, HISTORY);
+        System.arraycopy(state, 0, states[i], 0, FixedMatch.SIZE);
+        int k1 = bitsAt(0, f), k2 = bitsAt(1, f);
+        used[0][i] = k1;
+        used[1][i] = k2;
+        FixedMatch.step(state, k1, k2);
+        hashes[i] = FixedMatch.hash(state);
+    }
+
+    // newest frame whose inputs are final
+    private int settledFrame() {
+        return frame - WINDOW;
+    }
+
+    // received input for frame f, or the prediction: the latest earlier input, i.e. keep holding it
+    private int bitsAt(int p, int f) {
+        for (int g = f, stop = settledFrame(); g > stop; g--) {
+            int i = Math.floorMod(g, HISTORY);
+            if (inputFrame[p][i] == g) return inputs[p][i];
+        }
+        return settled[p];
+    }
+}
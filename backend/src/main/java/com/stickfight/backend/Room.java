@@ -0,0 +1,528 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A room: its player slots (two, or up to {@link Match#MAX_FIGHTERS} in a free-for-all), the
+ * match they fight, and the state stream sent to them and its viewers.
+ * <p>
+ * Threading: inputs never take the room monitor. A player's slot is a session attribute (no
+ * search, no string compares) and their inputs go into a single-producer {@link InputBuffer}
+ * that only the tick drains. The monitor, held by the tick, is left for the rare events that
+ * touch the match from outside: joins, leaves, heat changes, recording, and rollback inputs.
+ * <p>
+ * Memory: a room is made once and reused through the {@link RoomPool} (its id changes, nothing
+ * else is reallocated), and a COLD room hands its snapshot ring back, leaving it at about
+ * {@link #IDLE_BYTES} of heap (see RoomFootprintTest), so 100k idle rooms fit in ~200 MB.
+ */
+class Room {
+    /**
+     * How much tick budget a room gets. HOT rooms simulate and publish every tick. WARM rooms
+     * (KO overlay, or both players idle and at rest) still simulate every tick, which is cheap,
+     * but publish only every {@link #WARM_PUBLISH_MS} and on heat changes. COLD rooms (a lone
+     * player idle and at rest) are taken off the tick engine until a join or input wakes them.
+     */
+    enum Heat { HOT, WARM, COLD }
+
+    static final int WARM_AFTER_MS = 10_000;     // both players idle this long -> WARM
+    static final int COLD_AFTER_MS = 5_000;      // lone player idle this long -> COLD
+    static final int WARM_PUBLISH_MS = 1_000;
+    // below this speed (px per 20 Hz tick) a fighter counts as standing still
+    private static final double REST_SPEED = 0.05;
+    // session attribute holding the player's slot (1-based) in the room they joined
+    static final String SLOT_ATTRIBUTE = "stickfight.slot";
+    // heap budget of a COLD 1v1 room with its player gone or asleep, sessions not included
+    static final int IDLE_BYTES = 2_048;
+
+    String id;                  // changes only while the room is in the pool
+    final int tickHz; // this room's simulation and state rate
+    int tick = 0; // server tick counter, sent with each state
+    // slot i + 1 is index i; written under the monitor, read from anywhere
+    private final AtomicReferenceArray<SessionOutbox> players;
+    // more than two fighters: slots come and go during the match instead of being fixed opponents
+    final boolean freeForAll;
+    // slots played by the server (see BotController); a joining player takes over a bot's slot if
+    // there is no free one. Guarded by the monitor
+    private final BotController[] bots;
+    // per slot: the secret its player sends to get the slot back after a server restart (see
+    // RoomHandoff), 0 if nobody is in it. A long, so joining costs no allocation. Guarded by the monitor
+    private final long[] resumeTokens;
+    // a room restored from a handoff holds its players' slots for them until then (nanoTime)
+    private boolean reserving;
+    private long reservedUntil;
+
+    final Match match;
+    // inputs queued by network threads, applied one frame per tick; cleared when the player leaves
+    private final InputBuffer[] inputs;
+    // rollback rooms run FixedMatch instead of match/inputs; null otherwise
+    final RollbackSession rollback;
+
+    // snapshot history + per-client encoding of the state stream
+    final StatePublisher publisher;
+    // viewers; fed off the tick thread
+    final SpectatorFeed spectators;
+    // match recording, null unless recording
+    private ReplayLog replay;
+
+    volatile Heat heat = Heat.HOT;
+    private int lastActiveTick = 0;              // last tick a player's held buttons changed
+    private int lastPublishTick = 0;
+    private final int[] held;                    // buttons held at the previous tick
+    private boolean retired;                     // out of the room map, pooled or garbage; monitor
+
+    // cost of this room's last / worst tick, for the rooms actuator endpoint
+    volatile long lastTickNanos;
+    volatile long maxTickNanos;
+
+    Room(String id) {
+        this(id, Match.DEFAULT_TICK_HZ, false, new SpectatorFeed(Runnable::run, 0, Integer.MAX_VALUE));
+    }
+
+    Room(String id, int tickHz, boolean rollback, SpectatorFeed spectators) {
+        this(id, tickHz, rollback, 2, spectators);
+    }
+
+    /**
+     * Rollback rooms always run at the default rate: their frames are 20 Hz {@link FixedMatch} steps,
+     * and always 1v1, like FixedMatch.
+     */
+    Room(String id, int tickHz, boolean rollback, int fighters, SpectatorFeed spectators) {
+        this(id, tickHz, rollback, fighters, spectators, RoomPool.NONE);
+    }
+
+    Room(String id, int tickHz, boolean rollback, int fighters, SpectatorFeed spectators, RoomPool pool) {
+        this.id = id;
+        this.tickHz = rollback ? Match.DEFAULT_TICK_HZ : tickHz;
+        int n = rollback ? 2 : fighters;
+        this.match = new Match(this.tickHz, n);
+        this.freeForAll = n > 2;
+        this.players = new AtomicReferenceArray<>(n);
+        this.inputs = new InputBuffer[n];
+        for (int i = 0; i < n; i++) inputs[i] = new InputBuffer();
+        this.held = new int[n];
+        this.bots = new BotController[n];
+        this.resumeTokens = new long[n];
+        this.publisher = new StatePublisher(id, n, this.tickHz, pool);
+        this.rollback = rollback ? new RollbackSession() : null;
+        this.spectators = spectators;
+    }
+
+    /** Player slots in this room. */
+    int capacity() {
+        return players.length();
+    }
+
+    /** The player in {@code slot} (1-based), or null. */
+    SessionOutbox player(int slot) {
+        return players.get(slot - 1);
+    }
+
+    /** Input queue of {@code slot} (1-based). */
+    InputBuffer input(int slot) {
+        return inputs[slot - 1];
+    }
+
+    long tickPeriodNanos() {
+        return 1_000_000_000L / tickHz;
+    }
+
+    synchronized boolean addPlayer(SessionOutbox s, String name) {
+        int i = freeSlot();
+        boolean tookBotsSlot = false;
+        if (i < 0) {
+            // all taken: a human beats a bot to the slot
+            i = 0;
+            while (i < bots.length && bots[i] == null) i++;
+            if (i == bots.length) return false;
+            bots[i] = null;
+            match.keys[i].clear();
+            tookBotsSlot = true;
+        }
+        // a slot held for a player who never came back, or the bot's: start them over, not with
+        // the fighter as it was left (in the recording too)
+        if ((tookBotsSlot || resumeTokens[i] != 0) && rollback == null) {
+            match.resetPlayer(i + 1);
+            if (replay != null) replay.reset(i + 1);
+        }
+        players.set(i, s);
+        occupy(i, name);
+        long token;
+        do token = ThreadLocalRandom.current().nextLong(); while (token == 0);
+        resumeTokens[i] = token;
+        s.session().getAttributes().put(SLOT_ATTRIBUTE, i + 1);
+        return true;
+    }
+
+    /**
+     * Back into the slot whose {@link #resumeToken} this is, its fighter as they left it.
+     * Returns the slot, or 0 if no empty slot has that token.
+     */
+    synchronized int resumePlayer(SessionOutbox s, long token) {
+        if (token == 0) return 0;
+        for (int i = 0; i < resumeTokens.length; i++) {
+            if (players.get(i) == null && resumeTokens[i] == token) {
+                players.set(i, s);
+                s.session().getAttributes().put(SLOT_ATTRIBUTE, i + 1);
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /** Secret of the player in {@code slot} (1-based) for {@link #resumePlayer}, 0 if none. */
+    synchronized long resumeToken(int slot) {
+        return resumeTokens[slot - 1];
+    }
+
+    /** Restored from a handoff: keep {@code slot} for the holder of {@code token} until {@code untilNanos}. */
+    synchronized void reserve(int slot, long token, long untilNanos) {
+        resumeTokens[slot - 1] = token;
+        reserving = true;
+        reservedUntil = untilNanos;
+    }
+
+    /** Difficulty of the bot in {@code slot} (1-based), null if a bot doesn't play it. */
+    synchronized BotController.Difficulty bot(int slot) {
+        BotController b = bots[slot - 1];
+        return b != null ? b.difficulty : null;
+    }
+
+    /** Restored from a handoff: a bot plays {@code slot} again, its fighter as it was. */
+    synchronized void restoreBot(int slot, BotController.Difficulty difficulty, long seed) {
+        bots[slot - 1] = new BotController(slot, difficulty, tickHz, seed);
+    }
+
+    /**
+     * Have the server play a free slot. Returns the slot, or 0 if none is free or this is a
+     * rollback room (its clients simulate every fighter themselves).
+     */
+    synchronized int addBot(BotController.Difficulty difficulty, long seed) {
+        int i = rollback == null ? freeSlot() : -1;
+        if (i < 0) return 0;
+        bots[i] = new BotController(i + 1, difficulty, tickHz, seed);
+        occupy(i, difficulty.displayName);
+        return i + 1;
+    }
+
+    synchronized int botCount() {
+        int n = 0;
+        for (BotController b : bots) if (b != null) n++;
+        return n;
+    }
+
+    // neither a player nor a bot in it, nor held for a player resuming, -1 if none
+    private int freeSlot() {
+        boolean holding = reserving && System.nanoTime() - reservedUntil < 0;
+        for (int i = 0; i < bots.length; i++) {
+            if (players.get(i) == null && bots[i] == null && !(holding && resumeTokens[i] != 0)) return i;
+        }
+        return -1;
+    }
+
+    private void occupy(int i, String name) {
+        match.fighters[i].name = name;
+        if (freeForAll) {
+            // walks in at their spawn point; in 1v1 the slot's fighter is always there already
+            match.resetPlayer(i + 1);
+            match.present[i] = true;
+        }
+        if (replay != null) replay.name(i + 1, name);
+    }
+
+    /**
+     * Record this room's match from now on (see {@link ReplayLog}). Rollback rooms are not
+     * recorded: their inputs are rewritten after the fact and they run {@link FixedMatch}.
+     * Neither are free-for-alls: the log format has room for two players.
+     */
+    synchronized void startRecording(ReplayWriter writer) {
+        if (rollback != null || freeForAll || replay != null) return;
+        replay = writer.open(id, tickHz, match);
+        // a room restored from a handoff already has its fighters
+        for (int i = 0; i < match.fighters.length; i++) replay.name(i + 1, match.fighters[i].name);
+    }
+
+    synchronized void stopRecording() {
+        if (replay != null) replay.close();
+        replay = null;
+    }
+
+    /** Slot (1-based) of a player session, 0 if it has none here. O(1) and lock-free. */
+    int getSlotOf(WebSocketSession s) {
+        if (s == null || !(s.getAttributes().get(SLOT_ATTRIBUTE) instanceof Integer slot)) return 0;
+        if (slot < 1 || slot > players.length()) return 0;
+        SessionOutbox p = players.get(slot - 1);
+        return p != null && p.session() == s ? slot : 0;
+    }
+
+    synchronized int removePlayer(WebSocketSession s) {
+        int slot = getSlotOf(s);
+        if (slot == 0) return 0;
+        players.set(slot - 1, null);
+        resumeTokens[slot - 1] = 0;
+        // drops what they left queued and leaves the next player a clean buffer
+        inputs[slot - 1].clear();
+        s.getAttributes().remove(SLOT_ATTRIBUTE);
+        // a rollback match is shared with the clients' simulations, so it is left as is
+        if (rollback == null) {
+            match.resetPlayer(slot);
+            if (freeForAll) match.present[slot - 1] = false;
+            if (replay != null) replay.reset(slot);
+        }
+        return slot;
+    }
+
+    synchronized boolean isEmpty() {
+        return sessionCount() == 0 && spectators.count() == 0;
+    }
+
+    /**
+     * Out of service, on the way into the pool: COLD, off {@link #ticksAs} (so a tick pass still
+     * holding it skips it) and without its snapshot ring. False if someone is in it after all.
+     */
+    synchronized boolean retire() {
+        if (!isEmpty()) return false;
+        retired = true;
+        heat = Heat.COLD;
+        publisher.release();
+        return true;
+    }
+
+    /** Dropped from the room map: whoever still holds it must look the room up again. */
+    synchronized boolean retired() {
+        return retired;
+    }
+
+    /**
+     * Whether a tick pass over {@code key} is for this room as it is now: false once it is retired,
+     * and once it is reused as another room. Callers hold the monitor across the check and the tick.
+     */
+    synchronized boolean ticksAs(String key) {
+        return !retired && id.equals(key);
+    }
+
+    /** Out of the pool as room {@code id}: everything as in a new room but the allocations. */
+    synchronized void reuse(String id) {
+        this.id = id;
+        retired = false;
+        tick = 0;
+        for (int i = 0; i < inputs.length; i++) {
+            // nobody should be left, but a session from its last life must not get this room's states
+            SessionOutbox stale = players.getAndSet(i, null);
+            if (stale != null) stale.session().getAttributes().remove(SLOT_ATTRIBUTE);
+            bots[i] = null;
+            resumeTokens[i] = 0;
+            inputs[i].clear();
+            held[i] = 0;
+        }
+        reserving = false;
+        match.reset();
+        publisher.reuse(id);
+        spectators.reset();
+        heat = Heat.HOT;
+        lastActiveTick = 0;
+        lastPublishTick = 0;
+        lastTickNanos = 0;
+        maxTickNanos = 0;
+    }
+
+    int sessionCount() {
+        int n = 0;
+        for (int i = 0; i < players.length(); i++) if (players.get(i) != null) n++;
+        return n;
+    }
+
+    /**
+     * Server-simulated rooms only: rollback rooms take input for a frame, through {@link #rollbackInput},
+     * and ignore it here.
+     *
+     * @param seq    client sequence number of this input, or -1 if the client doesn't send one
+     * @param update a {@link Pressed} update word
+     * @return whether the update changes what the player holds (clients resend unchanged input)
+     */
+    boolean updateInput(WebSocketSession s, int seq, int update) {
+        if (rollback != null) return false;
+        int slot = getSlotOf(s);
+        if (slot == 0) return false;
+        InputBuffer in = inputs[slot - 1];
+        int before = in.queuedBits();
+        if (seq < 0) in.offer(update);
+        else in.offer(seq, update);
+        return in.queuedBits() != before;
+    }
+
+    /**
+     * Back to HOT (on join or fresh input). Returns true if the room was COLD, i.e. off the tick
+     * engine. A retired room stays asleep: input that raced its drop must not put it back on.
+     */
+    synchronized boolean wake() {
+        if (retired) return false;
+        lastActiveTick = tick;
+        Heat was = heat;
+        heat = Heat.HOT;
+        return was == Heat.COLD;
+    }
+
+    /**
+     * Rollback rooms: input for simulation frame {@code frame} (the current frame if -1).
+     * Returns the frame and full button bits it was recorded as, for relaying to the opponent,
+     * or -1 if it fell outside the rollback window.
+     */
+    synchronized long rollbackInput(int slot, int frame, int update) {
+        int at = frame >= 0 ? frame : rollback.frame();
+        int before = rollback.lastBits(slot);
+        int bits = Pressed.applied(before, update);
+        if (!rollback.addInput(slot, at, bits)) return -1;
+        if (rollback.lastBits(slot) != before) wake(); // never COLD, so no engine change needed
+        return ((long) at << 32) | bits;
+    }
+
+    /** Returns whether a state was published this tick (WARM rooms skip most ticks). */
+    synchronized boolean tickAndBroadcast(ObjectMapper om) {
+        if (heat == Heat.COLD) return false; // suspended; may still be in an engine pass that started earlier
+        long t0 = System.nanoTime();
+        tick++;
+        if (rollback != null) {
+            rollback.advance();
+        } else {
+            for (int i = 0; i < inputs.length; i++) inputs[i].applyNext(match.keys[i]);
+            for (BotController b : bots) if (b != null) b.drive(match);
+            if (replay != null) replay.frame(match.k1.bits, match.k2.bits);
+            match.step();
+        }
+        Heat was = heat;
+        Heat next = nextHeat();
+        // a new button offered while we decided to sleep: its sender saw us awake and won't wake
+        // us, so stay up (we write heat then read the queue, the sender the reverse: one of us notices)
+        if (next == Heat.COLD) {
+            heat = Heat.COLD;
+            for (InputBuffer in : inputs) {
+                if (in.pendingChange()) next = Heat.HOT;
+            }
+        }
+        // still broadcast during KO so clients can draw the overlay (at least when it starts)
+        boolean publish = next == Heat.HOT || next != was || ticksToMs(tick - lastPublishTick) >= WARM_PUBLISH_MS;
+        if (publish) {
+            broadcastState(om);
+            lastPublishTick = tick;
+        }
+        heat = next;
+        // asleep: no states to send or diff against until it wakes
+        if (next == Heat.COLD) publisher.release();
+        long took = System.nanoTime() - t0;
+        lastTickNanos = took;
+        if (took > maxTickNanos) maxTickNanos = took;
+        return publish;
+    }
+
+    private Heat nextHeat() {
+        for (int i = 0; i < held.length; i++) {
+            int k = rollback != null ? rollback.lastBits(i + 1) : match.keys[i].bits;
+            if (k != held[i]) lastActiveTick = tick;
+            held[i] = k;
+        }
+
+        int idleMs = ticksToMs(tick - lastActiveTick);
+        boolean ko = rollback != null ? rollback.state()[FixedMatch.KO] != 0 : match.ko;
+        if (ko) return Heat.WARM;
+        if (!atRest()) return Heat.HOT;
+        // rollback clients keep simulating, so those rooms are never suspended
+        if (sessionCount() + botCount() < 2) return idleMs >= COLD_AFTER_MS && rollback == null ? Heat.COLD : Heat.HOT;
+        return idleMs >= WARM_AFTER_MS ? Heat.WARM : Heat.HOT;
+    }
+
+    // every fighter standing idle on the ground
+    private boolean atRest() {
+        if (rollback != null) {
+            int[] st = rollback.state();
+            return restingFixed(st, FixedMatch.P1) && restingFixed(st, FixedMatch.P2);
+        }
+        for (int i = 0; i < match.fighters.length; i++) {
+            if (match.present[i] && !resting(match.fighters[i])) return false;
+        }
+        return true;
+    }
+
+    private static boolean resting(PlayerState p) {
+        return p.onGround && p.action == Action.IDLE && Math.abs(p.vx) < REST_SPEED;
+    }
+
+    private static boolean restingFixed(int[] st, int p) {
+        return (st[p + FixedMatch.FLAGS] & FixedMatch.ON_GROUND) != 0
+                && st[p + FixedMatch.ACTION] == Action.IDLE.code()
+                && Math.abs(st[p + FixedMatch.VX]) < REST_SPEED * FixedMatch.ONE;
+    }
+
+    private int ticksToMs(int ticks) {
+        return (int) (ticks * 1000L / tickHz);
+    }
+
+    void broadcast(String json) {
+        // one immutable message shared by all outboxes
+        TextMessage msg = new TextMessage(json);
+        for (int i = 0; i < players.length(); i++) {
+            SessionOutbox p = players.get(i);
+            if (p != null) p.send(msg);
+        }
+        spectators.broadcast(msg);
+    }
+
+    void broadcastExcept(WebSocketSession except, String json) {
+        TextMessage msg = new TextMessage(json);
+        for (int i = 0; i < players.length(); i++) {
+            SessionOutbox p = players.get(i);
+            if (p != null && p.session() != except) p.send(msg);
+        }
+    }
+
+    // tick thread
+    void broadcastState(ObjectMapper om) {
+        captureSnapshot();
+        // outboxes only enqueue (latest wins); the writer does the I/O
+        for (int i = 0; i < players.length(); i++) publisher.publishTo(players.get(i), tickHz, om);
+        publisher.publishTo(spectators, tickHz, om);
+    }
+
+    /** Copy the match into the publisher's snapshot ring for this tick (allocation-free). */
+    StateSnapshot captureSnapshot() {
+        StateSnapshot snap = publisher.begin(tick);
+        snap.serverTime = System.currentTimeMillis();
+        if (rollback != null) {
+            captureRollback(snap);
+            return snap;
+        }
+        snap.timerSeconds = match.timerSeconds(); // whole seconds remaining
+        snap.ko = match.ko;
+        snap.koReason = match.koReason;
+        for (int i = 0; i < match.fighters.length; i++) {
+            PlayerState p = match.fighters[i];
+            snap.setPlayer(i, p.x, p.y, p.hp, p.facing, p.action, p.name);
+            snap.ack[i] = inputs[i].lastAppliedSeq();
+        }
+        return snap;
+    }
+
+    private void captureRollback(StateSnapshot snap) {
+        int[] st = rollback.state();
+        snap.frame = rollback.frame() - 1;               // last simulated frame
+        snap.hash = snap.frame >= 0 ? rollback.hashAt(snap.frame) : 0;
+        snap.timerSeconds = Math.max(0, st[FixedMatch.ROUND_TIMER] / 20);
+        snap.ko = st[FixedMatch.KO] != 0;
+        snap.koReason = switch (st[FixedMatch.KO_REASON]) {
+            case 1 -> Match.KO_HP;
+            case 2 -> Match.KO_TIMEOUT;
+            default -> "";
+        };
+        for (int i = 0; i < snap.players; i++) {
+            int p = i == 0 ? FixedMatch.P1 : FixedMatch.P2;
+            snap.setPlayer(i, FixedMatch.toPixels(st[p + FixedMatch.X]), FixedMatch.toPixels(st[p + FixedMatch.Y]),
+                    st[p + FixedMatch.HP], st[p + FixedMatch.FACING], Action.ofCode(st[p + FixedMatch.ACTION]),
+                    i == 0 ? match.s1.name : match.s2.name);
+            snap.ack[i] = rollback.lastFrameReceived(i + 1);   // latest input frame received
+        }
+    }
+}
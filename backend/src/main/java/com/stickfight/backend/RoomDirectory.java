@@ -0,0 +1,42 @@
+package com.stickfight.backend;
+
+/**
+ * Which backend node hosts which room. Room ids are placed on nodes by a {@link HashRing}, so
+ * every node answers the same for the same node list, and adding a node only moves the rooms
+ * that land on it. A join for a room placed elsewhere is answered with a {@code redirect}.
+ * <p>
+ * Placement only decides where a room starts: the node that creates a room {@link #claim}s it,
+ * and a claimed room keeps routing to that node until it is {@link #release}d, even if the node
+ * list changes meanwhile and the ring now places it elsewhere. Otherwise a room live on one node
+ * would be started afresh on another, and its players split between the two.
+ * <p>
+ * {@link InMemoryRoomDirectory} is the single-node default; {@link FileRoomDirectory} shares the
+ * node list through a file, for several nodes on one machine or a shared volume.
+ */
+interface RoomDirectory extends AutoCloseable {
+    /** A backend node: a stable id and the WebSocket URL clients should connect to. */
+    record Node(String id, String url) {}
+
+    /** This node. */
+    Node self();
+
+    /** Node that hosts {@code roomId}: the one running it, or, if none is, where it is placed. */
+    Node ownerOf(String roomId);
+
+    /**
+     * Record that this node runs {@code roomId}, unless another node already does. Returns the
+     * node that hosts it: {@link #self()} if the claim is ours (or already was).
+     */
+    Node claim(String roomId);
+
+    /** This node no longer runs {@code roomId}. */
+    void release(String roomId);
+
+    default boolean isLocal(String roomId) {
+        return ownerOf(roomId).id().equals(self().id());
+    }
+
+    /** Leave the directory (other nodes stop placing rooms here, and our claims lapse). */
+    @Override
+    default void close() {}
+}
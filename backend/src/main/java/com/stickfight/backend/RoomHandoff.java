@@ -0,0 +1,191 @@
+package com.stickfight.backend;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Live rooms passed from a stopping instance to the one replacing it, so a deploy doesn't end
+ * every match. The old instance stops ticking, writes every room to a file and tells its players
+ * to reconnect with their resume token; the new one reads the file back into COLD rooms that
+ * hold each player's slot until they {@link Room#resumePlayer resume} (or the window passes),
+ * and the round goes on from where it stopped.
+ * <p>
+ * Server-mode rooms only: a rollback room's state is also in its clients' simulations, which a
+ * reconnect throws away, so those matches still end.
+ * <pre>
+ * header: "SFHO" u8 version, i64 written (epoch ms), i32 room count
+ * room:   str id, u16 tick rate (Hz), u8 fighters, i32 tick,
+ *         u8 ko, i32 ko ticks, i32 round timer ticks, u8 ko reason (as {@link ReplayLog#writeState}),
+ *         then per fighter: u8 kind (EMPTY, PLAYER, BOT), u8 present,
+ *           PLAYER: str name, i64 resume token; BOT: u8 difficulty,
+ *           the fighter ({@link ReplayLog#writePlayer})
+ * str:    u16 length + utf8
+ * </pre>
+ * All multi-byte values are big-endian. A few hundred bytes per room, so even 100k rooms are a
+ * quick write.
+ */
+final class RoomHandoff {
+    static final int MAGIC = 0x5346484F; // "SFHO"
+    static final int VERSION = 1;
+    static final byte EMPTY = 0, PLAYER = 1, BOT = 2;
+    private static final int MAX_NAME = 255;   // bytes, as in replays
+    // tick rate, fighters, tick, ko, ko ticks, round timer, ko reason (after the id)
+    private static final int ROOM_BYTES = 2 + 1 + 4 + 1 + 4 + 4 + 1;
+    // kind, present, name, token, fighter: a PLAYER slot, the largest kind
+    private static final int SLOT_BYTES = 1 + 1 + 2 + MAX_NAME + 8 + ReplayLog.PLAYER_BYTES;
+
+    /** Builds the room a record is read into (from the pool, in the server). */
+    interface RoomFactory {
+        Room create(String id, int tickHz, int fighters);
+    }
+
+    private RoomHandoff() {}
+
+    /**
+     * Write every server-mode room to {@code file}, replacing it in one step. Call with the tick
+     * stopped, so the rooms are a consistent cut. A room that fails to encode is passed to
+     * {@code skipped} and left out, the others are still written. Returns the rooms written.
+     */
+    static List<Room> write(Path file, Collection<Room> rooms, BiConsumer<Room, RuntimeException> skipped) throws IOException {
+        List<Room> written = new ArrayList<>();
+        List<ByteBuffer> records = new ArrayList<>();
+        for (Room room : rooms) {
+            if (room.rollback != null) continue;
+            try {
+                synchronized (room) {
+                    records.add(encode(room));
+                }
+                written.add(room);
+            } catch (RuntimeException e) {
+                skipped.accept(room, e);
+            }
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, CREATE, TRUNCATE_EXISTING, WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(17);
+            header.putInt(MAGIC).put((byte) VERSION).putLong(System.currentTimeMillis()).putInt(records.size()).flip();
+            writeFully(ch, header);
+            for (ByteBuffer r : records) writeFully(ch, r);
+            ch.force(true);
+        }
+        Files.move(tmp, file, REPLACE_EXISTING, ATOMIC_MOVE);
+        return written;
+    }
+
+    /**
+     * The rooms in {@code file}, each made by {@code newRoom} and set to its saved state, COLD,
+     * its players' slots held for them until {@code reserveUntilNanos}.
+     */
+    static List<Room> read(Path file, RoomFactory newRoom, long reserveUntilNanos) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(file));
+        if (b.getInt() != MAGIC) throw new IOException("not a room handoff: " + file);
+        int version = b.get();
+        if (version != VERSION) throw new IOException("unsupported handoff version " + version);
+        b.getLong(); // written at
+        int count = b.getInt();
+        List<Room> rooms = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            String id = getString(b);
+            int tickHz = b.getShort() & 0xFFFF;
+            int fighters = b.get() & 0xFF;
+            Room room = newRoom.create(id, tickHz, fighters);
+            synchronized (room) {
+                decode(b, room, reserveUntilNanos);
+            }
+            rooms.add(room);
+        }
+        return rooms;
+    }
+
+    private static ByteBuffer encode(Room room) {
+        Match m = room.match;
+        int n = m.fighters.length;
+        byte[] id = room.id.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(2 + id.length + ROOM_BYTES + n * SLOT_BYTES);
+        b.putShort((short) id.length).put(id);
+        b.putShort((short) room.tickHz).put((byte) n).putInt(room.tick);
+        b.put((byte) (m.ko ? 1 : 0)).putInt(m.koTicks).putInt(m.roundTimerTicks);
+        b.put((byte) BinaryStateCodec.koReasonCode(m.koReason));
+        for (int i = 0; i < n; i++) {
+            int slot = i + 1;
+            BotController.Difficulty bot = room.bot(slot);
+            long token = room.player(slot) != null ? room.resumeToken(slot) : 0;
+            if (bot != null) {
+                b.put(BOT).put((byte) (m.present[i] ? 1 : 0)).put((byte) bot.ordinal());
+            } else if (token != 0) {
+                b.put(PLAYER).put((byte) (m.present[i] ? 1 : 0));
+                putString(b, m.fighters[i].name, MAX_NAME);
+                b.putLong(token);
+            } else {
+                b.put(EMPTY).put((byte) (m.present[i] ? 1 : 0));
+            }
+            ReplayLog.writePlayer(b, m.fighters[i], m.keys[i]);
+        }
+        return b.flip();
+    }
+
+    private static void decode(ByteBuffer b, Room room, long reserveUntilNanos) {
+        Match m = room.match;
+        room.tick = b.getInt();
+        m.ko = b.get() != 0;
+        m.koTicks = b.getInt();
+        m.roundTimerTicks = b.getInt();
+        m.koReason = switch (b.get()) {
+            case 1 -> Match.KO_HP;
+            case 2 -> Match.KO_TIMEOUT;
+            default -> "";
+        };
+        for (int i = 0; i < m.fighters.length; i++) {
+            int slot = i + 1;
+            byte kind = b.get();
+            m.present[i] = b.get() != 0;
+            switch (kind) {
+                case PLAYER -> {
+                    m.fighters[i].name = getString(b);
+                    room.reserve(slot, b.getLong(), reserveUntilNanos);
+                }
+                case BOT -> {
+                    BotController.Difficulty d = BotController.Difficulty.values()[b.get()];
+                    m.fighters[i].name = d.displayName;
+                    room.restoreBot(slot, d, System.nanoTime() ^ slot);
+                }
+                default -> { }
+            }
+            ReplayLog.readPlayer(b, m.fighters[i], m.keys[i]);
+            // a returning player sends what they hold again; until then they let go of everything
+            if (kind != BOT) m.keys[i].clear();
+        }
+        // nobody is here yet: off the tick until the first player resumes (see GameHandler#wake)
+        room.heat = Room.Heat.COLD;
+    }
+
+    private static void putString(ByteBuffer b, String s, int max) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        int len = Math.min(bytes.length, max);
+        // cut before a character, not inside one: back off continuation bytes (10xxxxxx)
+        while (len < bytes.length && len > 0 && (bytes[len] & 0xC0) == 0x80) len--;
+        b.putShort((short) len).put(bytes, 0, len);
+    }
+
+    private static String getString(ByteBuffer b) {
+        byte[] bytes = new byte[b.getShort() & 0xFFFF];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) ch.write(b);
+    }
+}
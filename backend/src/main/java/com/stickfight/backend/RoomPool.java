@@ -0,0 +1,152 @@
+package com.stickfight.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Recycles the objects rooms are made of, so join/leave churn and rooms falling asleep and
+ * waking up don't keep allocating them.
+ * <ul>
+ *   <li><b>Rooms.</b> A room whose last player and viewer left is {@link #release released}
+ *       and handed out again, {@link Room#reuse reset}, for the next room of the same shape
+ *       (tick rate and fighter count), straight away: a tick pass that started before the room
+ *       was unregistered and still reaches it skips it (see {@link Room#ticksAs}).</li>
+ *   <li><b>Snapshot rings.</b> The {@link StatePublisher} history is most of a room's heap, and
+ *       only matters while states are being sent. A room going COLD gives its ring back and takes
+ *       one again when it wakes, so idle rooms cost a fraction of a live one.</li>
+ * </ul>
+ * Both are capped; past the cap releases are simply dropped. Thread-safe; rooms come and go on
+ * network threads and rings on tick threads, rarely enough that one monitor is plenty.
+ */
+final class RoomPool {
+    /** Pools nothing: rooms and rings are allocated on demand and dropped on release. */
+    static final RoomPool NONE = new RoomPool(0, 0);
+
+    private final int maxRooms;
+    private final int maxRings;
+
+    // one queue per (tickHz, fighters) in use, oldest release first; few, so a list scan is fine
+    private final List<Shape> shapes = new ArrayList<>();
+    private int pooledRooms;
+    // free snapshot rings per (fighters, length); the length follows the tick rate
+    private final List<RingShape> rings = new ArrayList<>();
+    private int pooledRings;
+
+    private long roomsReused;
+
+    private static final class Shape {
+        final int tickHz, fighters;
+        final ArrayDeque<Room> free = new ArrayDeque<>();
+
+        Shape(int tickHz, int fighters) {
+            this.tickHz = tickHz;
+            this.fighters = fighters;
+        }
+    }
+
+    private static final class RingShape {
+        final int players, length;
+        final ArrayDeque<StateSnapshot[]> free = new ArrayDeque<>();
+
+        RingShape(int players, int length) {
+            this.players = players;
+            this.length = length;
+        }
+    }
+
+    RoomPool(int maxRooms, int maxRings) {
+        this.maxRooms = maxRooms;
+        this.maxRings = maxRings;
+    }
+
+    /**
+     * A room for {@code id}: a released one of this shape if there is one, else a new one.
+     * Rollback rooms are always new (their session is not reusable).
+     */
+    Room acquire(String id, int tickHz, boolean rollback, int fighters, Supplier<SpectatorFeed> spectators) {
+        if (!rollback) {
+            Room r = take(tickHz, fighters);
+            if (r != null) {
+                r.reuse(id);
+                return r;
+            }
+        }
+        return new Room(id, tickHz, rollback, fighters, spectators.get(), this);
+    }
+
+    private synchronized Room take(int tickHz, int fighters) {
+        Shape s = shape(tickHz, fighters, false);
+        if (s == null) return null;
+        Room r = s.free.pollFirst();
+        if (r == null) return null;
+        pooledRooms--;
+        roomsReused++;
+        return r;
+    }
+
+    /**
+     * Retire an emptied room (already off the tick engine and out of the room map) and keep it
+     * for reuse. Rollback rooms are retired but not kept.
+     */
+    void release(Room room) {
+        if (!room.retire() || room.rollback != null) return;
+        synchronized (this) {
+            if (pooledRooms >= maxRooms) return;
+            shape(room.tickHz, room.capacity(), true).free.addLast(room);
+            pooledRooms++;
+        }
+    }
+
+    private Shape shape(int tickHz, int fighters, boolean create) {
+        for (Shape s : shapes) if (s.tickHz == tickHz && s.fighters == fighters) return s;
+        if (!create) return null;
+        Shape s = new Shape(tickHz, fighters);
+        shapes.add(s);
+        return s;
+    }
+
+    /** A snapshot ring of {@code length} snapshots for {@code players} fighters. */
+    StateSnapshot[] ring(int players, int length) {
+        synchronized (this) {
+            RingShape s = ringShape(players, length, false);
+            StateSnapshot[] ring = s == null ? null : s.free.pollFirst();
+            if (ring != null) {
+                pooledRings--;
+                return ring;
+            }
+        }
+        StateSnapshot[] ring = new StateSnapshot[length];
+        for (int i = 0; i < ring.length; i++) ring[i] = new StateSnapshot(players);
+        return ring;
+    }
+
+    /** Give back a ring; its snapshots are cleared so no one diffs against another room's state. */
+    void release(StateSnapshot[] ring) {
+        for (StateSnapshot s : ring) s.clear();
+        synchronized (this) {
+            if (pooledRings >= maxRings) return;
+            ringShape(ring[0].players, ring.length, true).free.addLast(ring);
+            pooledRings++;
+        }
+    }
+
+    private RingShape ringShape(int players, int length, boolean create) {
+        // indexed: this runs on every wake-up and sleep, and an iterator is garbage each time
+        for (int i = 0; i < rings.size(); i++) {
+            RingShape s = rings.get(i);
+            if (s.players == players && s.length == length) return s;
+        }
+        if (!create) return null;
+        RingShape s = new RingShape(players, length);
+        rings.add(s);
+        return s;
+    }
+
+    synchronized int pooledRooms() { return pooledRooms; }
+
+    synchronized int pooledRings() { return pooledRings; }
+
+    synchronized long roomsReused() { return roomsReused; }
+}
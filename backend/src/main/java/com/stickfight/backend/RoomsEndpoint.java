@@ -0,0 +1,53 @@
+package com.stickfight.backend;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@code rooms}: room/session counts and the rooms with the most expensive ticks. Exposed over local
+ * JMX only: it lists live room ids, and a room id is all it takes to join or watch a match.
+ */
+@Component
+@Endpoint(id = "rooms")
+class RoomsEndpoint {
+    private static final int TOP = 10;
+
+    private final GameHandler game;
+
+    RoomsEndpoint(GameHandler game) {
+        this.game = game;
+    }
+
+    @ReadOperation
+    Map<String, Object> rooms() {
+        List<Room> all = List.copyOf(game.rooms());
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("rooms", all.size());
+        out.put("sessions", all.stream().mapToInt(Room::sessionCount).sum());
+        Map<String, Long> byHeat = new LinkedHashMap<>();
+        for (Room.Heat h : Room.Heat.values()) {
+            byHeat.put(h.name().toLowerCase(), all.stream().filter(r -> r.heat == h).count());
+        }
+        out.put("heat", byHeat);
+        out.put("slowest", all.stream()
+                .sorted(Comparator.comparingLong((Room r) -> r.lastTickNanos).reversed())
+                .limit(TOP)
+                .map(r -> Map.of(
+                        "id", r.id,
+                        "sessions", r.sessionCount(),
+                        "bots", r.botCount(),
+                        "spectators", r.spectators.count(),
+                        "tickHz", r.tickHz,
+                        "heat", r.heat.name().toLowerCase(),
+                        "lastTickUs", r.lastTickNanos / 1000,
+                        "maxTickUs", r.maxTickNanos / 1000))
+                .toList());
+        return out;
+    }
+}
@@ -0,0 +1,91 @@
+package com.stickfight.backend;
+
+/**
+ * How often one player is sent their room's state, and in how much detail: congestion control
+ * in the spirit of TCP's, with "the previous state is still unwritten when the next is due"
+ * (the socket is backed up) as the loss signal.
+ * <ul>
+ *   <li>Backed up twice in a row: half the rate, down to {@link #MIN_STATE_HZ}. After
+ *       {@link #RECOVER_MS} without, twice the rate again, up to every tick.</li>
+ *   <li>Below full rate, full JSON states are {@link #lean}: no names or room id, which the client
+ *       has from "joined" and "peer_joined".</li>
+ *   <li>A round trip of {@link #SLOW_RTT_MS} or more (as the client reports it): half rate at
+ *       most. It interpolates over more than that anyway.</li>
+ *   <li>The server over its {@link EgressBudget}: clients not on a good link (full rate, short
+ *       round trip) step down and don't recover. A good link is never slowed for the others.</li>
+ *   <li>At the lowest rate and still backed up for {@link #HOPELESS_MS}: {@link #hopeless}, the
+ *       outbox disconnects it.</li>
+ * </ul>
+ * Used only from the tick thread of the player's room.
+ */
+final class SendRate {
+    static final int MIN_STATE_HZ = 2;
+    static final int SLOW_RTT_MS = 300;
+    static final long RECOVER_MS = 2_000;
+    static final long HOPELESS_MS = 10_000;
+    // one late write is a hiccup (a GC pause, a scheduling delay), two in a row a slow link
+    private static final int STRIKES = 2;
+    private static final long RECOVER_NANOS = RECOVER_MS * 1_000_000;
+    private static final long HOPELESS_NANOS = HOPELESS_MS * 1_000_000;
+    private static final long NEVER = Integer.MIN_VALUE;
+
+    private volatile int divisor = 1;        // a state every divisor-th tick (also read by metrics)
+    private long lastSeq = NEVER;            // tick of the last state we let through
+    private int strikes;
+    private long changedAt;                  // nanoTime of the last step either way
+    private boolean behind;                  // at the lowest rate and backed up ...
+    private long behindSince;                // ... since (nanoTime)
+    private boolean hopeless;
+
+    /**
+     * Whether the state of tick {@code seq} goes to this client. {@code backedUp}: its previous
+     * state is still waiting to be written; {@code rttMs}: its reported round trip, -1 if unknown.
+     */
+    boolean due(int seq, int tickHz, boolean backedUp, int rttMs, boolean overBudget, long now) {
+        // seq going back: a new room (a rejoin, or a reused room); start its stream right away
+        if (seq > lastSeq && seq - lastSeq < divisor) return false;
+        if (lastSeq == NEVER) changedAt = now;
+        lastSeq = seq;
+        int slowest = Math.max(1, tickHz / MIN_STATE_HZ);
+        if (backedUp) {
+            if (++strikes >= STRIKES) {
+                strikes = 0;
+                slower(slowest, now);
+            }
+            if (divisor < slowest) {
+                behind = false;
+            } else if (!behind) {
+                behind = true;
+                behindSince = now;
+            } else if (now - behindSince >= HOPELESS_NANOS) {
+                hopeless = true;
+            }
+        } else {
+            strikes = 0;
+            behind = false;
+            boolean good = divisor == 1 && rttMs < SLOW_RTT_MS;
+            if (overBudget) {
+                if (!good && now - changedAt >= RECOVER_NANOS) slower(slowest, now);
+            } else if (divisor > 1 && now - changedAt >= RECOVER_NANOS) {
+                divisor = Math.max(1, divisor / 2);
+                changedAt = now;
+            }
+        }
+        if (rttMs >= SLOW_RTT_MS && divisor < 2) divisor = Math.min(2, slowest);
+        return true;
+    }
+
+    private void slower(int slowest, long now) {
+        divisor = Math.min(divisor * 2, slowest);
+        changedAt = now;
+    }
+
+    /** Send a state every this many ticks (1 = every tick). */
+    int divisor() { return divisor; }
+
+    /** Full states may leave out the fields that don't change during a match. */
+    boolean lean() { return divisor > 1; }
+
+    /** At the lowest rate and still not keeping up: not worth the bytes. */
+    boolean hopeless() { return hopeless; }
+}
@@ -0,0 +1,237 @@
+package com.stickfight.backend;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Outbound queue for one WebSocket session. Callers (tick threads, container threads)
+ * only enqueue; a single writer task on the writer executor does the actual socket I/O,
+ * so a slow client never blocks the simulation.
+ * <p>
+ * Two lanes:
+ * <ul>
+ *   <li>control messages (joined, pong, peer_left, ...) are delivered in order, bounded;</li>
+ *   <li>state snapshots are coalesced: only the latest one is kept, older unsent ones are dropped.</li>
+ * </ul>
+ * How often a player is offered states at all, and how lean they are, adapts to how well its
+ * socket keeps up (see {@link SendRate}); a client that can't keep up even at the lowest rate is
+ * disconnected.
+ */
+class SessionOutbox {
+    // a client this far behind on control messages is not coming back
+    static final int MAX_QUEUED_CONTROL = 64;
+
+    private final WebSocketSession session;
+    private final Executor writer;
+    private final GameMetrics metrics;
+    private final EgressBudget budget;
+    private final SendRate rate = new SendRate(); // tick thread only
+
+    private final Queue<WebSocketMessage<?>> control = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger controlSize = new AtomicInteger();
+    private final AtomicReference<WebSocketMessage<?>> latestState = new AtomicReference<>();
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    // negotiated at join: clients asking for "proto":"bin" get BinaryMessage state frames
+    private volatile boolean binaryState = false;
+    // negotiated at join: "delta":true clients get deltas against the last state they acked
+    private volatile boolean deltaState = false;
+    private volatile int ackedSeq = -1;
+    private int lastKeyframeSeq = -1; // tick thread only
+
+    private volatile boolean closed = false;
+    // close the session with this once the control lane is written out (server restart)
+    private volatile CloseStatus closeWhenFlushed;
+    // close the session with this as soon as the draining task is done with its current write
+    private final AtomicReference<CloseStatus> closeNow = new AtomicReference<>();
+    private volatile long droppedStates = 0;
+
+    // the client's round trip as it reports it in pings, smoothed; -1 until then (matchmaking, send rate)
+    volatile int rttMs = -1;
+
+    // decoded inbound message, reused by whichever container thread delivers this session's next one
+    final InboundMessage inbound = new InboundMessage();
+
+    SessionOutbox(WebSocketSession session, Executor writer) {
+        this(session, writer, GameMetrics.NONE);
+    }
+
+    SessionOutbox(WebSocketSession session, Executor writer, GameMetrics metrics) {
+        this(session, writer, metrics, EgressBudget.NONE);
+    }
+
+    SessionOutbox(WebSocketSession session, Executor writer, GameMetrics metrics, EgressBudget budget) {
+        this.session = session;
+        this.writer = writer;
+        this.metrics = metrics;
+        this.budget = budget;
+    }
+
+    WebSocketSession session() { return session; }
+
+    String id() { return session.getId(); }
+
+    boolean binaryState() { return binaryState; }
+
+    void setBinaryState(boolean binaryState) { this.binaryState = binaryState; }
+
+    boolean deltaState() { return deltaState; }
+
+    /** (Re)negotiate delta snapshots; forgets any baseline so the next state is a keyframe. */
+    void setDeltaState(boolean deltaState) {
+        this.deltaState = deltaState;
+        this.ackedSeq = -1;
+    }
+
+    int ackedSeq() { return ackedSeq; }
+
+    /** Client confirmed it has applied the state with this seq; acks only move forward. */
+    void ackState(int seq) {
+        if (seq > ackedSeq) ackedSeq = seq;
+    }
+
+    int lastKeyframeSeq() { return lastKeyframeSeq; }
+
+    void markKeyframe(int seq) { lastKeyframeSeq = seq; }
+
+    /** Queue an ordered message. Closes the session if the client is hopelessly behind. */
+    void send(WebSocketMessage<?> msg) {
+        if (closed) return;
+        if (controlSize.incrementAndGet() > MAX_QUEUED_CONTROL) {
+            controlSize.decrementAndGet();
+            closeOnWriter(CloseStatus.SESSION_NOT_RELIABLE);
+            return;
+        }
+        control.add(msg);
+        scheduleDrain();
+    }
+
+    /** A round trip the client measured; smoothed like TCP's SRTT (7/8 old, 1/8 new). */
+    void reportRtt(int ms) {
+        int srtt = rttMs;
+        rttMs = srtt < 0 ? ms : (7 * srtt + ms) / 8;
+    }
+
+    /**
+     * Whether this player gets the state of tick {@code seq}: false on ticks its {@link SendRate}
+     * skips, and from the moment it gives up on the client (which it then disconnects).
+     * Tick thread only.
+     */
+    boolean stateDue(int seq, int tickHz) {
+        if (closed) return false;
+        long now = System.nanoTime();
+        boolean due = rate.due(seq, tickHz, latestState.get() != null, rttMs, budget.exceeded(now), now);
+        if (rate.hopeless()) {
+            metrics.slowClientDropped();
+            closeOnWriter(CloseStatus.SESSION_NOT_RELIABLE);
+            return false;
+        }
+        return due;
+    }
+
+    /** Full states to this player may leave out names and room id (it is on a reduced rate). */
+    boolean leanState() { return rate.lean(); }
+
+    /** Ticks per state sent to this player right now (1 = every tick). */
+    int stateDivisor() { return rate.divisor(); }
+
+    /** Offer the newest state snapshot; replaces a snapshot that has not been written yet. */
+    void sendState(WebSocketMessage<?> msg) {
+        if (closed) return;
+        // one caller per outbox: the room's tick thread, or the spectator fan-out of that room
+        if (latestState.getAndSet(msg) != null) droppedStates++;
+        scheduleDrain();
+    }
+
+    int queuedControl() { return controlSize.get(); }
+
+    boolean hasPendingState() { return latestState.get() != null; }
+
+    long droppedStates() { return droppedStates; }
+
+    /** Write out the queued control messages, then close the session with {@code status}. */
+    void closeAfterFlush(CloseStatus status) {
+        closeWhenFlushed = status;
+        scheduleDrain();
+    }
+
+    void close() {
+        closed = true;
+        control.clear();
+        controlSize.set(0);
+        latestState.set(null);
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            writer.execute(this::drain);
+        }
+    }
+
+    // runs on the writer executor; draining flag guarantees one writer per session
+    private void drain() {
+        try {
+            WebSocketMessage<?> msg;
+            while (!closed && (msg = next()) != null) {
+                if (!session.isOpen()) { close(); break; }
+                // a shared binary frame goes to many sessions: give each write its own buffer position
+                session.sendMessage(msg instanceof BinaryMessage b ? new BinaryMessage(b.getPayload().duplicate(), b.isLast()) : msg);
+                metrics.written(msg.getPayloadLength());
+                budget.spent(msg.getPayloadLength(), System.nanoTime());
+            }
+            if (!closed && closeWhenFlushed != null && control.isEmpty()) closeQuietly(closeWhenFlushed);
+        } catch (IOException | IllegalStateException e) {
+            // broken socket: stop writing, the container will report the close
+            metrics.error("send", e);
+            close();
+        } finally {
+            // still the one writer: no send is in flight on this socket
+            CloseStatus status = closeNow.getAndSet(null);
+            try {
+                if (status != null) closeSession(status);
+            } finally {
+                draining.set(false);
+            }
+        }
+        // something may have been queued (or a close asked for) between our last poll and clearing the flag
+        if (closeNow.get() != null
+                || !closed && (!control.isEmpty() || latestState.get() != null || closeWhenFlushed != null)) scheduleDrain();
+    }
+
+    private WebSocketMessage<?> next() {
+        WebSocketMessage<?> msg = control.poll();
+        if (msg != null) {
+            controlSize.decrementAndGet();
+            return msg;
+        }
+        return latestState.getAndSet(null);
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        close();
+        closeSession(status);
+    }
+
+    // from a caller's thread: stop queueing now, but leave the socket to the draining task (it may
+    // be mid-write on it, and closing writes a frame to the very socket that is backed up). It closes
+    // after its current write; if no drain is running, this starts one that only closes
+    private void closeOnWriter(CloseStatus status) {
+        close();
+        closeNow.compareAndSet(null, status);
+        scheduleDrain();
+    }
+
+    private void closeSession(CloseStatus status) {
+        try { session.close(status); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,198 @@
+package com.stickfight.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Runs a fixed-rate tick over many items (rooms) spread across N single-threaded shards.
+ * An item is pinned to one shard by its key, so it is always ticked by the same thread,
+ * and a slow item only delays the other items of its own shard.
+ * <p>
+ * Each item has its own tick period; a shard runs one fixed-rate loop per distinct period,
+ * all on the shard thread.
+ * <p>
+ * Items are ticked with the key they were registered under. A pass that started before an item
+ * was unregistered may still reach it (and an item may be registered again, elsewhere, under
+ * another key by then); the callback tells such a stale pass from the current one by the key.
+ */
+class ShardedTickEngine<T> {
+    private static final Logger log = LoggerFactory.getLogger(ShardedTickEngine.class);
+    // don't spam the log when a shard is overloaded, or a room keeps failing, for a while
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final List<Shard> shards = new ArrayList<>();
+    private final BiConsumer<String, T> tick;
+    private final TickObserver observer;
+
+    /** Told about every shard tick, on the shard thread; must be cheap. */
+    interface TickObserver {
+        void tickFinished(int shard, long nanos, boolean overrun);
+
+        void tickFailed(int shard, Exception e);
+    }
+
+    /**
+     * @param shardCount number of worker threads; {@code <= 0} means one per available core
+     * @param tick       called once per period for every registered item and its key, on its shard thread
+     */
+    ShardedTickEngine(int shardCount, BiConsumer<String, T> tick, String threadName, TickObserver observer) {
+        if (shardCount <= 0) shardCount = Runtime.getRuntime().availableProcessors();
+        this.tick = tick;
+        this.observer = observer;
+        for (int i = 0; i < shardCount; i++) shards.add(new Shard(i, threadName + "-" + i));
+    }
+
+    /** Tick {@code item} every {@code periodNanos} on the shard owning {@code key}. */
+    void register(String key, T item, long periodNanos) {
+        shardOf(key).loop(periodNanos).items.put(key, item);
+    }
+
+    void unregister(String key, T item) {
+        for (Loop loop : shardOf(key).loops.values()) loop.items.remove(key, item);
+    }
+
+    int shardCount() { return shards.size(); }
+
+    /** Stable key -> shard mapping (same key always lands on the same shard). */
+    int shardIndexOf(String key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x9E3779B9; // spread sequential ids like "room1", "room2"
+        return Math.floorMod(h ^ (h >>> 15), shards.size());
+    }
+
+    int itemCount(int shard) {
+        int n = 0;
+        for (Loop loop : shards.get(shard).loops.values()) n += loop.items.size();
+        return n;
+    }
+
+    long overrunCount(int shard) { return shards.get(shard).overruns.get(); }
+
+    /** Longest of the last ticks of the shard's loops. */
+    long lastTickNanos(int shard) {
+        long max = 0;
+        for (Loop loop : shards.get(shard).loops.values()) max = Math.max(max, loop.lastTickNanos);
+        return max;
+    }
+
+    long maxTickNanos(int shard) {
+        long max = 0;
+        for (Loop loop : shards.get(shard).loops.values()) max = Math.max(max, loop.maxTickNanos);
+        return max;
+    }
+
+    /** Sum of {@code f} over the items of a shard (for reporting; not a consistent snapshot). */
+    double sum(int shard, ToDoubleFunction<T> f) {
+        double total = 0;
+        for (Loop loop : shards.get(shard).loops.values()) {
+            for (T item : loop.items.values()) total += f.applyAsDouble(item);
+        }
+        return total;
+    }
+
+    void shutdown() {
+        for (Shard s : shards) s.exec.shutdownNow();
+    }
+
+    private Shard shardOf(String key) {
+        return shards.get(shardIndexOf(key));
+    }
+
+    // -------------------------- Shard --------------------------
+    private final class Shard {
+        final int index;
+        final ScheduledExecutorService exec;
+        // one loop per tick period in use; loops are few (one per configured rate) and kept once created
+        final ConcurrentMap<Long, Loop> loops = new ConcurrentHashMap<>();
+
+        // counted by all of the shard's loops, read by anyone for reporting
+        final AtomicLong overruns = new AtomicLong();
+
+        Shard(int index, String threadName) {
+            this.index = index;
+            this.exec = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, threadName);
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        Loop loop(long periodNanos) {
+            return loops.computeIfAbsent(periodNanos, p -> {
+                Loop loop = new Loop(this, p);
+                exec.scheduleAtFixedRate(loop::runTick, p, p, TimeUnit.NANOSECONDS);
+                return loop;
+            });
+        }
+    }
+
+    // the items of one shard that share a tick period
+    private final class Loop {
+        final Shard shard;
+        final long periodNanos;
+        final ConcurrentMap<String, T> items = new ConcurrentHashMap<>();
+
+        // written only by this loop's runs, read by anyone for reporting
+        volatile long lastTickNanos;
+        volatile long maxTickNanos;
+        long lastOverrunLog = Long.MIN_VALUE;
+        long lastFailureLog = Long.MIN_VALUE;
+        long failuresSinceLog;
+        long passStart;
+        // made once: forEach over the map hands us key and item without allocating entries
+        final BiConsumer<String, T> tickOne = this::tickOne;
+
+        Loop(Shard shard, long periodNanos) {
+            this.shard = shard;
+            this.periodNanos = periodNanos;
+        }
+
+        void runTick() {
+            int index = shard.index;
+            long start = System.nanoTime();
+            passStart = start;
+            items.forEach(tickOne);
+            long took = System.nanoTime() - start;
+            lastTickNanos = took;
+            if (took > maxTickNanos) maxTickNanos = took;
+
+            boolean overrun = took > periodNanos;
+            observer.tickFinished(index, took, overrun);
+            if (overrun) {
+                long n = shard.overruns.incrementAndGet();
+                if (lastOverrunLog == Long.MIN_VALUE || start - lastOverrunLog > LOG_INTERVAL_NANOS) {
+                    lastOverrunLog = start;
+                    log.warn("tick shard {} overran: {} us for {} rooms (budget {} us, {} overruns so far)",
+                            index, took / 1000, items.size(), periodNanos / 1000, n);
+                }
+            }
+        }
+
+        private void tickOne(String key, T item) {
+            // one broken room must not stop the others (or kill the scheduled task)
+            try {
+                tick.accept(key, item);
+            } catch (Exception e) {
+                observer.tickFailed(shard.index, e);
+                failed(shard.index, passStart, e);
+            }
+        }
+
+        // a room failing every tick would log a trace per tick: the first one, then one per interval
+        private void failed(int index, long now, Exception e) {
+            failuresSinceLog++;
+            if (lastFailureLog != Long.MIN_VALUE && now - lastFailureLog <= LOG_INTERVAL_NANOS) return;
+            lastFailureLog = now;
+            log.warn("tick failed on shard {} ({} failures since the last report)", index, failuresSinceLog, e);
+            failuresSinceLog = 0;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.stickfight.backend;
+
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The viewers of one room and the low-priority path that feeds them.
+ * <p>
+ * The tick thread only {@link #offer}s the state it already encoded for the fighters (one shared
+ * immutable message per format), which is O(1) however many people watch. A task on the
+ * {@code fanout} executor then hands that frame to every viewer's outbox. Frames coalesce at both
+ * levels: if fan-out is still busy with an older frame the newer one replaces it, and each
+ * viewer's outbox keeps only its latest state. A popular match therefore costs the fighters'
+ * tick nothing extra, and a slow viewer only loses frames. Fan-out never writes a socket itself
+ * (each outbox drains on its own writer), so a stalled viewer can't hold up anyone else's feed.
+ */
+final class SpectatorFeed {
+    private final Executor fanout;
+    private final int maxHz;          // <= 0: every tick the room publishes
+    private final int maxViewers;
+
+    private final List<SessionOutbox> viewers = new CopyOnWriteArrayList<>();
+    private volatile int binaryViewers = 0;
+
+    private record Frame(TextMessage json, BinaryMessage binary) {}
+
+    private final AtomicReference<Frame> pending = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private int lastOfferTick = 0;                   // tick thread only
+    private volatile long skippedFrames = 0;
+
+    SpectatorFeed(Executor fanout, int maxHz, int maxViewers) {
+        this.fanout = fanout;
+        this.maxHz = maxHz;
+        this.maxViewers = maxViewers;
+    }
+
+    /** Adds a viewer; false if the room already has {@code maxViewers}. */
+    synchronized boolean add(SessionOutbox out) {
+        if (viewers.size() >= maxViewers) return false;
+        viewers.add(out);
+        if (out.binaryState()) binaryViewers++;
+        return true;
+    }
+
+    synchronized boolean remove(WebSocketSession s) {
+        for (SessionOutbox out : viewers) {
+            if (out.id().equals(s.getId())) {
+                viewers.remove(out);
+                if (out.binaryState()) binaryViewers--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int count() { return viewers.size(); }
+
+    boolean wantsBinary() { return binaryViewers > 0; }
+
+    boolean wantsJson() { return viewers.size() > binaryViewers; }
+
+    long skippedFrames() { return skippedFrames; }
+
+    /** Whether the frame of {@code tick} should go out, given the rate cap (tick thread). */
+    boolean due(int tick, int tickHz) {
+        if (viewers.isEmpty()) return false;
+        if (maxHz <= 0 || maxHz >= tickHz) return true;
+        return tick - lastOfferTick >= Math.round((float) tickHz / maxHz);
+    }
+
+    /** Tick thread: publish this tick's shared frames (either may be null if no viewer wants it). */
+    void offer(int tick, TextMessage json, BinaryMessage binary) {
+        lastOfferTick = tick;
+        if (pending.getAndSet(new Frame(json, binary)) != null) skippedFrames++;
+        schedule();
+    }
+
+    /** Forget rate-cap and skip counts, for a reused room (it has no viewers by then). */
+    void reset() {
+        pending.set(null);
+        lastOfferTick = 0;
+        skippedFrames = 0;
+    }
+
+    /** An ordered message (peer_joined, peer_left) for every viewer; also off the caller's thread. */
+    void broadcast(WebSocketMessage<?> msg) {
+        if (viewers.isEmpty()) return;
+        fanout.execute(() -> {
+            for (SessionOutbox out : viewers) out.send(msg);
+        });
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) fanout.execute(this::drain);
+    }
+
+    // on the fanout executor; one drain per feed at a time
+    private void drain() {
+        try {
+            Frame f;
+            while ((f = pending.getAndSet(null)) != null) {
+                for (SessionOutbox out : viewers) {
+                    WebSocketMessage<?> msg = out.binaryState() ? f.binary() : f.json();
+                    if (msg != null) out.sendState(msg);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        if (pending.get() != null) schedule();
+    }
+}
@@ -0,0 +1,255 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Snapshot layer between a room's tick and its outboxes. Keeps {@link #HISTORY_MS} worth of
+ * snapshots of the room, however fast it ticks, and encodes, per recipient, one of:
+ * <ul>
+ *   <li>the full JSON {@code state} (default clients),</li>
+ *   <li>the binary frame ({@code "proto":"bin"}),</li>
+ *   <li>a JSON {@code delta} against the last snapshot the client acked ({@code "delta":true}),
+ *       or a full keyframe when that baseline is unknown, too old, or a keyframe is due.</li>
+ * </ul>
+ * Each distinct message is encoded at most once per tick and shared between recipients.
+ * Players on a reduced {@link SendRate} skip ticks, and get their full JSON states lean (no room
+ * id or names).
+ * The history ring comes from the {@link RoomPool} on the first {@link #begin} and goes back on
+ * {@link #release} (when the room goes COLD), so a sleeping room holds no snapshots; clients then
+ * get a keyframe after it wakes, as their baselines are gone.
+ * Used only from the room's tick thread (and its monitor).
+ */
+final class StatePublisher {
+    static final int HISTORY_MS = 1_600;        // baselines we can diff against (32 ticks at 20 Hz)
+    static final int KEYFRAME_MS = 2_000;       // force a full state at least this often per client
+    // positions are compared at the binary protocol's resolution, so sub-pixel drift isn't "a change"
+    private static final int POS_SCALE = BinaryStateCodec.FIXED_POINT_SCALE;
+
+    private String roomId;                      // changes only when the room is reused
+    private final int players;
+    private final int historyTicks;             // ring length: HISTORY_MS at the room's rate
+    private final int keyframeTicks;
+    private final RoomPool pool;
+    private StateSnapshot[] history;            // null while released
+
+    // per-tick encode cache
+    private StateSnapshot current;
+    private TextMessage fullJson;
+    private TextMessage leanJson;
+    private BinaryMessage binary;
+    private int cachedDeltaBase = -1;
+    private TextMessage cachedDelta;
+
+    // per-tick accounting, read by the room after publishing
+    private int bytesThisTick;
+    private long encodeNanosThisTick;
+
+    StatePublisher(String roomId, int players, int tickHz, RoomPool pool) {
+        this.roomId = roomId;
+        this.players = players;
+        this.historyTicks = historyTicks(tickHz);
+        this.keyframeTicks = Math.max(1, KEYFRAME_MS * tickHz / 1000);
+        this.pool = pool;
+    }
+
+    /** Snapshots a room ticking at {@code tickHz} keeps, so every rate gets {@link #HISTORY_MS}. */
+    static int historyTicks(int tickHz) {
+        return Math.max(2, HISTORY_MS * tickHz / 1000);
+    }
+
+    /** Slot to fill for tick {@code seq}; recycles the oldest snapshot. */
+    StateSnapshot begin(int seq) {
+        if (history == null) history = pool.ring(players, historyTicks);
+        StateSnapshot s = history[Math.floorMod(seq, historyTicks)];
+        s.seq = seq;
+        current = s;
+        fullJson = null;
+        leanJson = null;
+        binary = null;
+        cachedDeltaBase = -1;
+        cachedDelta = null;
+        bytesThisTick = 0;
+        encodeNanosThisTick = 0;
+        return s;
+    }
+
+    /** Hand the current snapshot to one recipient in the format it negotiated, if its rate has it due. */
+    void publishTo(SessionOutbox out, int tickHz, ObjectMapper om) {
+        if (out == null || !out.stateDue(current.seq, tickHz)) return;
+        WebSocketMessage<?> msg = messageFor(out, om);
+        bytesThisTick += msg.getPayloadLength();
+        out.sendState(msg);
+    }
+
+    /**
+     * Hand the current snapshot to a room's viewers: the same full JSON / binary messages the
+     * fighters get (encoded at most once), whatever the number of viewers.
+     */
+    void publishTo(SpectatorFeed feed, int tickHz, ObjectMapper om) {
+        if (!feed.due(current.seq, tickHz)) return;
+        TextMessage json = feed.wantsJson() ? fullJson(om) : null;
+        BinaryMessage bin = feed.wantsBinary() ? binary() : null;
+        feed.offer(current.seq, json, bin);
+    }
+
+    /** Hand the history ring back to the pool until the next {@link #begin}. */
+    void release() {
+        if (history != null) pool.release(history);
+        history = null;
+        current = null;
+        fullJson = null;
+        leanJson = null;
+        binary = null;
+        cachedDeltaBase = -1;
+        cachedDelta = null;
+    }
+
+    /** Released, and publishing for another room from now on. */
+    void reuse(String roomId) {
+        release();
+        this.roomId = roomId;
+    }
+
+    int bytesThisTick() { return bytesThisTick; }
+
+    long encodeNanosThisTick() { return encodeNanosThisTick; }
+
+    private WebSocketMessage<?> messageFor(SessionOutbox out, ObjectMapper om) {
+        if (out.binaryState()) return binary();
+        if (!out.deltaState()) return out.leanState() ? leanJson(om) : fullJson(om);
+
+        StateSnapshot base = baselineFor(out);
+        if (base == null) {
+            out.markKeyframe(current.seq);
+            return out.leanState() ? leanJson(om) : fullJson(om);
+        }
+        if (cachedDelta == null || cachedDeltaBase != base.seq) {
+            long t0 = System.nanoTime();
+            cachedDeltaBase = base.seq;
+            cachedDelta = new TextMessage(encodeDelta(om, base, current));
+            encodeNanosThisTick += System.nanoTime() - t0;
+        }
+        return cachedDelta;
+    }
+
+    // the acked snapshot we can still diff against, or null if the client needs a keyframe
+    private StateSnapshot baselineFor(SessionOutbox out) {
+        int acked = out.ackedSeq();
+        if (acked < 0 || acked >= current.seq) return null;
+        if (current.seq - acked >= historyTicks) return null;
+        if (current.seq - out.lastKeyframeSeq() >= keyframeTicks) return null;
+        StateSnapshot base = history[Math.floorMod(acked, historyTicks)];
+        return base.seq == acked ? base : null;
+    }
+
+    private BinaryMessage binary() {
+        if (binary == null) {
+            long t0 = System.nanoTime();
+            binary = new BinaryMessage(encodeBinary(current));
+            encodeNanosThisTick += System.nanoTime() - t0;
+        }
+        return binary;
+    }
+
+    private TextMessage fullJson(ObjectMapper om) {
+        if (fullJson == null) {
+            long t0 = System.nanoTime();
+            fullJson = new TextMessage(encodeFull(om, current, false));
+            encodeNanosThisTick += System.nanoTime() - t0;
+        }
+        return fullJson;
+    }
+
+    private TextMessage leanJson(ObjectMapper om) {
+        if (leanJson == null) {
+            long t0 = System.nanoTime();
+            leanJson = new TextMessage(encodeFull(om, current, true));
+            encodeNanosThisTick += System.nanoTime() - t0;
+        }
+        return leanJson;
+    }
+
+    // lean: without what is fixed for the match (room id, names), which the client has from "joined"
+    private String encodeFull(ObjectMapper om, StateSnapshot s, boolean lean) {
+        ObjectNode out = om.createObjectNode();
+        out.put("timer", s.timerSeconds);              // whole seconds remaining
+        if (s.ko) out.put("koReason", s.koReason);     // "hp" or "timeout"
+
+        out.put("type", "state");
+        if (!lean) out.put("room", roomId);
+        out.put("ko", s.ko);
+        out.put("seq", s.seq);                         // server tick; baseline id for "ack" (delta clients)
+        out.put("serverTime", s.serverTime);           // epoch ms at capture, for interpolation
+        if (s.frame >= 0) putFrame(out, s);
+
+        var players = om.createArrayNode();
+        for (int i = 0; i < s.players; i++) {
+            ObjectNode p = om.createObjectNode();
+            p.put("x", s.x[i]);
+            p.put("y", s.y[i]);
+            p.put("hp", s.hp[i]);
+            p.put("facing", s.facing[i]);
+            p.put("action", s.action[i].wire);
+            if (!lean) p.put("name", s.name[i]);
+            p.put("ack", s.ack[i]);                    // last input seq applied
+            players.add(p);
+        }
+        out.set("players", players);
+        return out.toString();
+    }
+
+    // only the fields that differ from the baseline; players[i] is {} when nothing changed
+    private String encodeDelta(ObjectMapper om, StateSnapshot base, StateSnapshot s) {
+        ObjectNode out = om.createObjectNode();
+        out.put("type", "delta");
+        out.put("seq", s.seq);
+        out.put("base", base.seq);
+        out.put("serverTime", s.serverTime);
+        if (s.timerSeconds != base.timerSeconds) out.put("timer", s.timerSeconds);
+        if (s.ko != base.ko) out.put("ko", s.ko);
+        if (!s.koReason.equals(base.koReason)) out.put("koReason", s.koReason);
+        if (s.frame >= 0) putFrame(out, s);
+
+        var players = om.createArrayNode();
+        for (int i = 0; i < s.players; i++) {
+            ObjectNode p = om.createObjectNode();
+            if (quantize(s.x[i]) != quantize(base.x[i])) p.put("x", s.x[i]);
+            if (quantize(s.y[i]) != quantize(base.y[i])) p.put("y", s.y[i]);
+            if (s.hp[i] != base.hp[i]) p.put("hp", s.hp[i]);
+            if (s.facing[i] != base.facing[i]) p.put("facing", s.facing[i]);
+            if (s.action[i] != base.action[i]) p.put("action", s.action[i].wire);
+            if (!Objects.equals(s.name[i], base.name[i])) p.put("name", s.name[i]);
+            if (s.ack[i] != base.ack[i]) p.put("ack", s.ack[i]);
+            players.add(p);
+        }
+        out.set("players", players);
+        return out.toString();
+    }
+
+    // rollback rooms: frame + state hash so clients can check their own simulation
+    private static void putFrame(ObjectNode out, StateSnapshot s) {
+        out.put("frame", s.frame);
+        out.put("hash", Long.toHexString(s.hash));
+    }
+
+    private static long quantize(double v) {
+        return Math.round(v * POS_SCALE);
+    }
+
+    private static byte[] encodeBinary(StateSnapshot s) {
+        // the outbox holds on to the frame until it is written, so each tick gets its own array
+        ByteBuffer buf = ByteBuffer.allocate(BinaryStateCodec.stateSize(s.players));
+        BinaryStateCodec.writeHeader(buf, s.seq, s.serverTime, s.ko, s.koReason, s.timerSeconds);
+        for (int i = 0; i < s.players; i++) {
+            BinaryStateCodec.writePlayer(buf, s.x[i], s.y[i], s.hp[i], s.facing[i], s.action[i], s.ack[i]);
+        }
+        return buf.array();
+    }
+}
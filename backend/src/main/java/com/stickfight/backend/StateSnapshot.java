@@ -0,0 +1,54 @@
+package com.stickfight.backend;
+
+/**
+ * What clients get to see of a room at one tick. Instances live in a ring owned by
+ * {@link StatePublisher} and are overwritten in place, so capturing allocates nothing;
+ * the ring itself moves between rooms through the {@link RoomPool}.
+ */
+final class StateSnapshot {
+    final int players;            // fighter slots in the room, 2 unless it is a free-for-all
+
+    int seq = -1;                 // server tick this was captured at (-1 = never written)
+    long serverTime;              // wall clock (epoch ms) at capture, for client interpolation
+    int timerSeconds;
+    boolean ko;
+    String koReason = "";
+    int frame = -1;               // rollback rooms: simulation frame (-1 = not a rollback room)
+    long hash;                    // rollback rooms: FixedMatch hash of that frame
+
+    final double[] x;
+    final double[] y;
+    final int[] hp;
+    final int[] facing;
+    final Action[] action;
+    final String[] name;
+    final int[] ack;              // last input seq applied for each player (-1 = none)
+
+    StateSnapshot(int players) {
+        this.players = players;
+        x = new double[players];
+        y = new double[players];
+        hp = new int[players];
+        facing = new int[players];
+        action = new Action[players];
+        name = new String[players];
+        ack = new int[players];
+    }
+
+    /** Back to never written, dropping references into the room it came from. */
+    void clear() {
+        seq = -1;
+        frame = -1;
+        koReason = "";
+        java.util.Arrays.fill(name, null);
+    }
+
+    void setPlayer(int i, double x, double y, int hp, int facing, Action action, String name) {
+        this.x[i] = x;
+        this.y[i] = y;
+        this.hp[i] = hp;
+        this.facing[i] = facing;
+        this.action[i] = action;
+        this.name[i] = name;
+    }
+}
@@ -0,0 +1,66 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchSimulatorTest {
+
+	@Test
+	void matchesMatchStepExactly() {
+		int rooms = 64;
+		BatchSimulator batch = new BatchSimulator(rooms);
+		Match[] matches = new Match[rooms];
+		for (int r = 0; r < rooms; r++) {
+			assertEquals(r, batch.addRoom());
+			matches[r] = new Match();
+		}
+
+		Random rnd = new Random(42);
+		// long enough for hp KOs, timeouts and round resets
+		for (int t = 0; t < 2 * (Match.ROUND_TICKS + Match.KO_RESET_TICKS); t++) {
+			for (int r = 0; r < rooms; r++) {
+				// hold buttons for a few ticks at a time, like a person would
+				if (rnd.nextInt(6) == 0) {
+					int bits = rnd.nextInt(Pressed.ALL + 1);
+					batch.setKeys(r, 1, bits);
+					matches[r].k1.apply(Pressed.full(bits));
+				}
+				if (rnd.nextInt(6) == 0) {
+					int bits = rnd.nextInt(Pressed.ALL + 1);
+					batch.setKeys(r, 2, bits);
+					matches[r].k2.apply(Pressed.full(bits));
+				}
+			}
+			batch.step();
+			for (int r = 0; r < rooms; r++) {
+				matches[r].step();
+				assertSame(matches[r], batch, r, t);
+			}
+		}
+	}
+
+	private static void assertSame(Match m, BatchSimulator b, int r, int t) {
+		String at = "room " + r + " tick " + t;
+		assertEquals(m.ko, b.ko[r], at);
+		assertEquals(m.roundTimerTicks, b.roundTimer[r], at);
+		assertEquals(m.koTicks, b.koTicks[r], at);
+		assertFighter(m.s1, m.k1, b, BatchSimulator.fighter(r, 1), at);
+		assertFighter(m.s2, m.k2, b, BatchSimulator.fighter(r, 2), at);
+	}
+
+	private static void assertFighter(PlayerState s, Pressed k, BatchSimulator b, int i, String at) {
+		assertEquals(s.x, b.x[i], 0.0, at);
+		assertEquals(s.y, b.y[i], 0.0, at);
+		assertEquals(s.vx, b.vx[i], 0.0, at);
+		assertEquals(s.vy, b.vy[i], 0.0, at);
+		assertEquals(s.hp, b.hp[i], at);
+		assertEquals(s.facing, b.facing[i], at);
+		assertEquals(s.action.code(), b.action[i], at);
+		assertEquals(s.actionTimer, b.actionTimer[i], at);
+		assertEquals(s.onGround, b.onGround[i], at);
+		assertEquals(k.bits, b.keys[i], at);
+	}
+}
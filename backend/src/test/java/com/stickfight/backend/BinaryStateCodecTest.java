@@ -0,0 +1,55 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryStateCodecTest {
+
+	@Test
+	void stateReadsBackAsTheClientDecodesIt() {
+		ByteBuffer buf = ByteBuffer.allocate(BinaryStateCodec.stateSize(3));
+		BinaryStateCodec.writeHeader(buf, 70_001, 1_700_000_123_456L, true, "timeout", 42);
+		BinaryStateCodec.writePlayer(buf, 123.4, -56.78, 87, 1, Action.HEAVY, 513);
+		BinaryStateCodec.writePlayer(buf, 0.06, 400, 0, -1, Action.BLOCK, -1);
+		BinaryStateCodec.writePlayer(buf, 1e6, -1e6, 300, 1, Action.IDLE, 65_537);
+		assertFalse(buf.hasRemaining());
+
+		ByteBuffer in = ByteBuffer.wrap(buf.array());
+		assertEquals(BinaryStateCodec.KIND_STATE, in.get());
+		assertEquals(70_001 & 0xFFFF, in.getShort() & 0xFFFF, "tick wraps at 16 bits");
+		int flags = in.get() & 0xFF;
+		assertEquals(1, flags & 1, "ko");
+		assertEquals(2, flags >> 1, "koReason timeout");
+		assertEquals(42, in.get() & 0xFF);
+		assertEquals((int) 1_700_000_123_456L, in.getInt());
+		assertEquals(3, (buf.capacity() - BinaryStateCodec.HEADER_SIZE) / BinaryStateCodec.PLAYER_SIZE, "player count");
+
+		assertPlayer(in, 123.375, -56.75, 87, 1, Action.HEAVY, 513);
+		assertPlayer(in, 0.0, 400, 0, -1, Action.BLOCK, 0xFFFF);
+		// out of range: clamped, not wrapped
+		double max = (double) Short.MAX_VALUE / BinaryStateCodec.FIXED_POINT_SCALE;
+		double min = (double) Short.MIN_VALUE / BinaryStateCodec.FIXED_POINT_SCALE;
+		assertPlayer(in, max, min, 255, 1, Action.IDLE, 1);
+	}
+
+	@Test
+	void noKoHasNoReason() {
+		ByteBuffer buf = ByteBuffer.allocate(BinaryStateCodec.HEADER_SIZE);
+		BinaryStateCodec.writeHeader(buf, 1, 0, false, "", -3);
+		assertEquals(0, buf.get(3));
+		assertEquals(0, buf.get(4), "timer clamps at zero");
+		assertEquals(1, BinaryStateCodec.koReasonCode("hp"));
+	}
+
+	static void assertPlayer(ByteBuffer in, double x, double y, int hp, int facing, Action action, int ack) {
+		assertEquals(x, (double) in.getShort() / BinaryStateCodec.FIXED_POINT_SCALE);
+		assertEquals(y, (double) in.getShort() / BinaryStateCodec.FIXED_POINT_SCALE);
+		assertEquals(hp, in.get() & 0xFF);
+		assertEquals(action, Action.ofCode(in.get() & 0xFF));
+		assertEquals(facing, (int) in.get());
+		assertEquals(ack, in.getShort() & 0xFFFF);
+	}
+}
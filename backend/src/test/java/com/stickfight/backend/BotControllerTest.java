@@ -0,0 +1,78 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BotControllerTest {
+
+	@Test
+	void botBeatsAnIdlePlayer() {
+		for (BotController.Difficulty d : BotController.Difficulty.values()) {
+			Match m = new Match();
+			BotController bot = new BotController(2, d, Match.DEFAULT_TICK_HZ, 42);
+			int ticks = 0;
+			while (!m.ko && ticks < Match.ROUND_TICKS) {
+				bot.drive(m);
+				m.step();
+				ticks++;
+			}
+			assertEquals(Match.KO_HP, m.koReason, d.name());
+			assertEquals(0, m.s1.hp, d.name());
+			assertTrue(m.s2.hp > 0, d.name());
+		}
+	}
+
+	@Test
+	void playerTakesOverTheBotsSlot() {
+		ObjectMapper om = new ObjectMapper();
+		Room room = new Room("practice");
+		StubSession a = new StubSession("a"), b = new StubSession("b");
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "alice");
+		assertEquals(2, room.addBot(BotController.Difficulty.HARD, 1));
+		assertEquals(0, room.addBot(BotController.Difficulty.HARD, 1));
+		assertEquals("Bot (hard)", room.match.s2.name);
+		for (int t = 0; t < 20; t++) room.tickAndBroadcast(om);
+		// a bot that has taken a beating over by the wall
+		room.match.s2.hp = 35;
+		room.match.s2.x = 400;
+
+		assertTrue(room.addPlayer(new SessionOutbox(b, Runnable::run), "bob"));
+		assertEquals(2, room.getSlotOf(b));
+		assertEquals(0, room.botCount());
+		assertEquals(0, room.match.k2.bits);
+		// bob starts fresh, not as the bot left its fighter
+		PlayerState fresh = new Match().s2;
+		assertEquals(fresh.hp, room.match.s2.hp);
+		assertEquals(fresh.x, room.match.s2.x);
+		assertEquals(fresh.y, room.match.s2.y);
+		assertEquals("bob", room.match.s2.name);
+	}
+
+	@Test
+	void drivingDoesNotAllocate() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Match m = new Match(20, 8);
+		BotController[] bots = new BotController[8];
+		for (int i = 0; i < 8; i++) {
+			m.present[i] = true;
+			bots[i] = new BotController(i + 1, BotController.Difficulty.values()[i % 3], 20, i + 1);
+		}
+		Runnable ticks = () -> {
+			for (int t = 0; t < 50_000; t++) {
+				for (BotController b : bots) b.drive(m);
+				m.step();
+			}
+		};
+		ticks.run(); // warm up
+
+		long before = threads.getCurrentThreadAllocatedBytes();
+		ticks.run();
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+		assertTrue(allocated < 1024, "50k ticks allocated " + allocated + " bytes");
+	}
+}
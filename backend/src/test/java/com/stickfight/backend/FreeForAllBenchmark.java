@@ -0,0 +1,42 @@
+package com.stickfight.backend;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link Match#step()} of a single room as fighters are added. With the sweep-and-prune
+ * broadphase the cost should grow about linearly with {@code fighters}, not with its square.
+ * Rounds are kept from ending so every tick does the full movement and hit work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FreeForAllBenchmark {
+
+	@Param({"2", "4", "8", "16"})
+	int fighters;
+
+	Match match;
+	int tick;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		match = new Match(Match.DEFAULT_TICK_HZ, fighters);
+		Arrays.fill(match.present, true);
+	}
+
+	@Benchmark
+	public void step() {
+		tick++;
+		for (int i = 0; i < fighters; i++) {
+			match.keys[i].apply(Pressed.full(GameLoopBenchmark.keysFor(tick, 0, i + 1)));
+			match.fighters[i].hp = 100;
+		}
+		match.step();
+	}
+}
@@ -0,0 +1,105 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One server tick over N rooms. Score = ticks of all rooms per second, so divide by
+ * {@code rooms} for per-room cost. Run with {@code -prof gc} (the jmh profile's default)
+ * to get the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameLoopBenchmark {
+	// held buttons cycled through so fighters walk, jump, attack, block and get hit
+	static final int[] SCRIPT = {Pressed.RIGHT, Pressed.RIGHT, Pressed.RIGHT | Pressed.UP, Pressed.LIGHT,
+			Pressed.HEAVY, Pressed.BLOCK, Pressed.LEFT, 0, Pressed.LEFT | Pressed.LIGHT, Pressed.RIGHT | Pressed.HEAVY};
+
+	@Param({"1", "100", "10000"})
+	int rooms;
+
+	ObjectMapper om;
+	Room[] roomArr;
+	// same rooms with a NORMAL bot in slot 2 and a viewer in its place as the second recipient, so each tick
+	// still sends two states: compare tickBotRooms with tickAndBroadcast for what the bot costs
+	Room[] botRoomArr;
+	BatchSimulator batch;
+	int tick;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		om = new ObjectMapper();
+		roomArr = new Room[rooms];
+		botRoomArr = new Room[rooms];
+		batch = new BatchSimulator(rooms);
+		for (int r = 0; r < rooms; r++) {
+			Room room = new Room("bench-" + r);
+			// writer runs inline against a no-op session: measures encode + enqueue, not the network
+			room.addPlayer(new SessionOutbox(new StubSession(r + "a"), Runnable::run), "p1");
+			room.addPlayer(new SessionOutbox(new StubSession(r + "b"), Runnable::run), "p2");
+			roomArr[r] = room;
+			batch.addRoom();
+
+			Room botRoom = new Room("bench-bot-" + r);
+			botRoom.addPlayer(new SessionOutbox(new StubSession(r + "c"), Runnable::run), "p1");
+			botRoom.addBot(BotController.Difficulty.NORMAL, r + 1);
+			botRoom.spectators.add(new SessionOutbox(new StubSession(r + "d"), Runnable::run));
+			botRoomArr[r] = botRoom;
+		}
+	}
+
+	static int keysFor(int tick, int room, int slot) {
+		return SCRIPT[(tick / 5 + room * 3 + slot) % SCRIPT.length];
+	}
+
+	private void feedRooms() {
+		tick++;
+		for (int r = 0; r < rooms; r++) {
+			roomArr[r].match.k1.apply(Pressed.full(keysFor(tick, r, 1)));
+			roomArr[r].match.k2.apply(Pressed.full(keysFor(tick, r, 2)));
+		}
+	}
+
+	@Benchmark
+	public void tickAndBroadcast() {
+		feedRooms();
+		for (Room room : roomArr) room.tickAndBroadcast(om);
+	}
+
+	@Benchmark
+	public void tickBotRooms() {
+		tick++;
+		for (int r = 0; r < rooms; r++) botRoomArr[r].match.k1.apply(Pressed.full(keysFor(tick, r, 1)));
+		for (Room room : botRoomArr) room.tickAndBroadcast(om);
+	}
+
+	@Benchmark
+	public void matchStep() {
+		feedRooms();
+		for (Room room : roomArr) room.match.step();
+	}
+
+	@Benchmark
+	public void batchStep() {
+		tick++;
+		for (int r = 0; r < rooms; r++) {
+			batch.setKeys(r, 1, keysFor(tick, r, 1));
+			batch.setKeys(r, 2, keysFor(tick, r, 2));
+		}
+		batch.step();
+	}
+
+	@Benchmark
+	public void broadcastStateJson() {
+		for (Room room : roomArr) {
+			room.tick++;
+			room.broadcastState(om);
+		}
+	}
+}
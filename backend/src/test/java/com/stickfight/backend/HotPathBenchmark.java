@@ -0,0 +1,82 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/** Per-call cost of the pieces inside a tick: hit detection, input parsing, state encoding. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HotPathBenchmark {
+	static final String INPUT = "{\"type\":\"input\",\"pressed\":"
+			+ "{\"left\":false,\"right\":true,\"up\":false,\"light\":true,\"heavy\":false,\"block\":false}}";
+
+	static final byte[] BINARY_INPUT = {InboundMessage.KIND_INPUT, Pressed.RIGHT | Pressed.LIGHT, 0, 0, 0, 42};
+
+	ObjectMapper om;
+	InboundMessage inbound;
+	ByteBuffer binaryInput;
+	PlayerState attacker;
+	PlayerState defender;
+	Room room;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		om = new ObjectMapper();
+		inbound = new InboundMessage();
+		binaryInput = ByteBuffer.wrap(BINARY_INPUT);
+		attacker = new PlayerState(-10, 0, 1);
+		attacker.action = Action.LIGHT;
+		defender = new PlayerState(10, 0, -1);
+
+		room = new Room("bench");
+		room.addPlayer(new SessionOutbox(new StubSession("a"), Runnable::run), "p1");
+		room.addPlayer(new SessionOutbox(new StubSession("b"), Runnable::run), "p2");
+	}
+
+	@Benchmark
+	public void fistPos(Blackhole bh) {
+		bh.consume(Match.fistX(attacker));
+		bh.consume(Match.fistY(attacker));
+	}
+
+	@Benchmark
+	public int applyHitIfInRange() {
+		attacker.didHitThisAction = false;
+		defender.hp = 100;
+		Match.applyHitIfInRange(attacker, defender);
+		return defender.hp;
+	}
+
+	@Benchmark
+	public int parseInput() throws Exception {
+		JsonNode msg = om.readTree(INPUT);
+		return Pressed.parse(msg.path("pressed"));
+	}
+
+	@Benchmark
+	public int parseInputStreaming() throws Exception {
+		inbound.parse(om.getFactory(), INPUT);
+		return inbound.update;
+	}
+
+	@Benchmark
+	public int parseInputBinary() {
+		inbound.parse(binaryInput.clear());
+		return inbound.update;
+	}
+
+	@Benchmark
+	public void broadcastStateJson() {
+		room.tick++;
+		room.broadcastState(om);
+	}
+}
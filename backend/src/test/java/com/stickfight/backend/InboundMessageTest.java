@@ -0,0 +1,159 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundMessageTest {
+	final ObjectMapper om = new ObjectMapper();
+	final JsonFactory f = om.getFactory();
+	final InboundMessage msg = new InboundMessage();
+
+	@Test
+	void streamingInputMatchesTheTreeParse() throws Exception {
+		String[] inputs = {
+				"{\"type\":\"input\",\"pressed\":{\"left\":false,\"right\":true,\"up\":false,\"light\":true,\"heavy\":false,\"block\":false}}",
+				"{\"pressed\":{\"up\":true,\"extra\":{\"x\":[1,2]}},\"seq\":7,\"type\":\"input\"}",
+				"{\"type\":\"input\",\"pressed\":{\"block\":1,\"heavy\":\"true\",\"left\":null}}",
+				"{\"type\":\"input\",\"seq\":\"x\",\"pressed\":{}}",
+		};
+		for (String in : inputs) {
+			assertTrue(msg.parse(f, in), in);
+			assertEquals(InboundMessage.INPUT, msg.type);
+			assertEquals(Pressed.parse(om.readTree(in).path("pressed")), msg.update, in);
+		}
+		assertEquals(-1, msg.seq);
+
+		assertTrue(msg.parse(f, "{\"type\":\"input\",\"seq\":12,\"frame\":30,\"keys\":" + (Pressed.LEFT | Pressed.HEAVY) + "}"));
+		assertEquals(12, msg.seq);
+		assertEquals(30, msg.frame);
+		assertEquals(Pressed.full(Pressed.LEFT | Pressed.HEAVY), msg.update);
+	}
+
+	@Test
+	void nestedValuesWhereScalarsBelongAreSteppedOver() throws Exception {
+		assertTrue(msg.parse(f, "{\"seq\":{\"a\":[1,2]},\"frame\":[3,{\"b\":4}],\"keys\":{\"x\":1},\"type\":\"input\",\"rtt\":[5]}"));
+		assertEquals(InboundMessage.INPUT, msg.type);
+		assertEquals(-1, msg.seq);
+		assertEquals(-1, msg.frame);
+		assertEquals(-1, msg.rtt);
+		assertEquals(0, msg.update);
+
+		assertTrue(msg.parse(f, "{\"type\":\"input\",\"pressed\":{\"left\":{\"deep\":[true]},\"right\":true},\"seq\":9}"));
+		assertEquals(9, msg.seq);
+		assertEquals(Pressed.parse(om.readTree("{\"left\":{},\"right\":true}")), msg.update);
+
+		assertTrue(msg.parse(f, "{\"ts\":{\"t\":1},\"type\":\"ping\",\"rtt\":40}"));
+		assertEquals(InboundMessage.PING, msg.type);
+		assertFalse(msg.hasTs);
+		assertEquals(40, msg.rtt);
+
+		// a nested "type" is not the message's type
+		assertFalse(msg.parse(f, "{\"type\":{\"type\":\"input\"},\"seq\":1}"));
+		assertEquals(1, msg.seq);
+	}
+
+	@Test
+	void otherTypes() throws Exception {
+		assertTrue(msg.parse(f, "{\"type\":\"ping\",\"ts\":1700000000123}"));
+		assertEquals(InboundMessage.PING, msg.type);
+		assertTrue(msg.hasTs);
+		assertEquals(1700000000123L, msg.ts);
+
+		assertTrue(msg.parse(f, "{\"type\":\"ack\",\"seq\":99}"));
+		assertEquals(InboundMessage.ACK, msg.type);
+		assertEquals(99, msg.seq);
+
+		assertTrue(msg.parse(f, "{\"type\":\"leave\"}"));
+		assertEquals(InboundMessage.LEAVE, msg.type);
+
+		// left to the tree parse
+		assertFalse(msg.parse(f, "{\"type\":\"join\",\"room\":\"r\",\"name\":\"n\"}"));
+		assertFalse(msg.parse(f, "{\"type\":\"bogus\"}"));
+		assertFalse(msg.parse(f, "[1]"));
+	}
+
+	@Test
+	void unusualShapesDecodeTheSameAsTheCommonOnes() throws Exception {
+		// escapes, strings for booleans, fractions, whitespace
+		String[] inputs = {
+				"{\"type\":\"in\\u0070ut\",\"pressed\":{\"left\":true}}",
+				"{\"type\":\"input\",\"pressed\":{\"right\":\"true\",\"up\":1.5,\"light\":99999999999}}",
+				"{\"note\":\"a \\\"quoted\\\" \\\\ word\",\"type\":\"input\",\"pressed\":{\"heavy\":-3}}",
+				" {\n\t\"type\" : \"input\" ,\"pressed\" : { \"block\" : null , \"left\" : false } } ",
+		};
+		for (String in : inputs) {
+			assertTrue(msg.parse(f, in), in);
+			assertEquals(InboundMessage.INPUT, msg.type);
+			assertEquals(Pressed.parse(om.readTree(in).path("pressed")), msg.update, in);
+		}
+
+		assertTrue(msg.parse(f, "{\"type\":\"input\",\"seq\":-5,\"frame\":1e2,\"keys\":99999999999}"));
+		assertEquals(-5, msg.seq);
+		assertEquals(-1, msg.frame);
+		assertEquals(0, msg.update, "keys out of int range: nothing held, not an error");
+		assertTrue(msg.parse(f, "{\"typ\\u0065\":\"input\",\"keys\":99999999999}"));
+		assertEquals(0, msg.update);
+
+		assertTrue(msg.parse(f, "{\"type\":\"ping\",\"ts\":\"12\"}"));
+		assertTrue(msg.hasTs);
+		assertEquals(12, msg.ts);
+
+		assertThrows(java.io.IOException.class, () -> msg.parse(f, "{\"type\":\"input\",\"seq\":01}"));
+		assertThrows(java.io.IOException.class, () -> msg.parse(f, "{\"type\":\"input\",\"seq\":"));
+	}
+
+	@Test
+	void trailingContentIsRejected() throws Exception {
+		assertThrows(java.io.IOException.class, () -> msg.parse(f, "{\"type\":\"input\",\"keys\":1}garbage"));
+		assertThrows(java.io.IOException.class, () -> msg.parse(f, "{\"type\":\"input\",\"keys\":1}{\"type\":\"input\",\"keys\":2}"));
+		assertThrows(java.io.IOException.class, () -> msg.parse(f, "{\"type\":\"ping\"} 1"));
+		assertThrows(java.io.IOException.class, () -> msg.parse(f, "{\"type\":\"join\",\"room\":\"r\"}}"));
+		// whitespace is not content
+		assertTrue(msg.parse(f, "{\"type\":\"leave\"} \r\n\t"));
+	}
+
+	@Test
+	void binaryFramesAllocateNothing() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		ByteBuffer input = ByteBuffer.wrap(new byte[]{InboundMessage.KIND_INPUT, Pressed.RIGHT | Pressed.LIGHT, 0, 0, 0, 42});
+		ByteBuffer ack = ByteBuffer.wrap(new byte[]{InboundMessage.KIND_ACK, 0, 0, 0, 99});
+		for (int i = 0; i < 20_000; i++) parseBoth(input, ack); // warm up
+
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < 100_000; i++) parseBoth(input, ack);
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+		assertTrue(allocated < 1024, "200k frames allocated " + allocated + " bytes");
+	}
+
+	private void parseBoth(ByteBuffer input, ByteBuffer ack) {
+		assertTrue(msg.parse(input.clear()));
+		assertTrue(msg.parse(ack.clear()));
+	}
+
+	@Test
+	void binaryFrames() {
+		assertTrue(msg.parse(ByteBuffer.wrap(new byte[]{InboundMessage.KIND_INPUT, Pressed.UP | Pressed.BLOCK})));
+		assertEquals(InboundMessage.INPUT, msg.type);
+		assertEquals(Pressed.full(Pressed.UP | Pressed.BLOCK), msg.update);
+		assertEquals(-1, msg.seq);
+
+		assertTrue(msg.parse(ByteBuffer.wrap(new byte[]{InboundMessage.KIND_INPUT, Pressed.LIGHT, 0, 0, 1, 2})));
+		assertEquals(258, msg.seq);
+		assertEquals(258, msg.frame);
+
+		assertTrue(msg.parse(ByteBuffer.wrap(new byte[]{InboundMessage.KIND_ACK, 0, 0, 0, 5})));
+		assertEquals(InboundMessage.ACK, msg.type);
+		assertEquals(5, msg.seq);
+
+		assertFalse(msg.parse(ByteBuffer.wrap(new byte[]{InboundMessage.KIND_ACK, 0})));
+		assertFalse(msg.parse(ByteBuffer.wrap(new byte[]{9, 0})));
+		assertFalse(msg.parse(ByteBuffer.allocate(0)));
+	}
+}
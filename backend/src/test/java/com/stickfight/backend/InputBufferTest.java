@@ -0,0 +1,116 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputBufferTest {
+
+	@Test
+	void tapBetweenTicksStillAttacks() {
+		Room room = new Room("tap");
+		// press and release light before the next tick
+		room.input(1).offer(1, Pressed.full(Pressed.LIGHT));
+		room.input(1).offer(2, Pressed.full(0));
+
+		room.input(1).applyNext(room.match.k1);
+		room.match.step();
+		assertEquals(Action.LIGHT, room.match.s1.action);
+		assertEquals(1, room.input(1).lastAppliedSeq());
+
+		room.input(1).applyNext(room.match.k1);
+		room.match.step();
+		assertEquals(2, room.input(1).lastAppliedSeq());
+		assertFalse(room.match.k1.light());
+	}
+
+	@Test
+	void staleAndDuplicateFramesAreIgnored() {
+		InputBuffer in = new InputBuffer();
+		assertTrue(in.offer(5, Pressed.full(Pressed.LEFT)));
+		assertFalse(in.offer(5, Pressed.full(Pressed.RIGHT)));
+		assertFalse(in.offer(3, Pressed.full(Pressed.RIGHT)));
+
+		Pressed k = new Pressed();
+		in.applyNext(k);
+		assertEquals(Pressed.LEFT, k.bits);
+		assertEquals(0, in.queued());
+	}
+
+	@Test
+	void seqsCarryOnPastTheIntLimit() {
+		InputBuffer in = new InputBuffer();
+		assertTrue(in.offer(Integer.MAX_VALUE, Pressed.full(Pressed.LEFT)));
+		assertTrue(in.offer(Pressed.full(Pressed.RIGHT)), "unnumbered input after it still counts");
+		assertTrue(in.offer(Pressed.full(0)));
+		assertFalse(in.offer(Integer.MAX_VALUE - 1, Pressed.full(Pressed.BLOCK)), "stale");
+		assertEquals(3, in.queued());
+	}
+
+	@Test
+	void backlogIsCollapsedButKeepsTaps() {
+		InputBuffer in = new InputBuffer();
+		in.offer(1, Pressed.full(0));
+		in.offer(2, Pressed.full(Pressed.HEAVY));
+		// dodging left and right: every frame a change, so none of them is a mere repeat
+		for (int seq = 3; seq <= 8; seq++) in.offer(seq, Pressed.full(seq % 2 == 1 ? Pressed.RIGHT : Pressed.LEFT));
+
+		Pressed k = new Pressed();
+		in.applyNext(k);
+		assertEquals(InputBuffer.MAX_BACKLOG, in.queued());
+		assertEquals(Pressed.RIGHT | Pressed.HEAVY, k.bits);
+	}
+
+	@Test
+	void resentInputDoesNotQueueUpInASlowRoom() {
+		ObjectMapper om = new ObjectMapper();
+		Room room = new Room("slow", 10, false, new SpectatorFeed(Runnable::run, 0, 10));
+		StubSession alice = new StubSession("a");
+		room.addPlayer(new SessionOutbox(alice, Runnable::run), "alice");
+		room.addPlayer(new SessionOutbox(new StubSession("b"), Runnable::run), "bob");
+
+		// the bundled client: what it holds, unnumbered, every 50 ms; the room ticks every 100 ms
+		int maxQueued = 0;
+		boolean attacked = false;
+		for (int t = 0; t < 100; t++) {
+			int held = Pressed.RIGHT | (t % 25 == 10 ? Pressed.LIGHT : 0);
+			room.updateInput(alice, -1, Pressed.full(held));
+			room.updateInput(alice, -1, Pressed.full(Pressed.RIGHT));
+			room.tickAndBroadcast(om);
+			maxQueued = Math.max(maxQueued, room.input(1).queued());
+			attacked |= room.match.s1.action == Action.LIGHT;
+		}
+		assertTrue(maxQueued <= 1, maxQueued + " frames behind");
+		assertEquals(0, room.input(1).queued());
+		assertTrue(attacked, "a press between ticks still lands");
+	}
+
+	@Test
+	void networkThreadAndTickShareItWithoutLocks() throws Exception {
+		InputBuffer in = new InputBuffer();
+		int frames = 20_000;
+		// each frame sets the buttons to its seq's low bits, so the tick can tell where it is
+		Thread producer = new Thread(() -> {
+			for (int seq = 1; seq <= frames; ) {
+				if (in.offer(seq, Pressed.full(seq & Pressed.ALL))) seq++;
+				else Thread.yield();
+			}
+		});
+		producer.start();
+		int steady = Pressed.LEFT | Pressed.RIGHT | Pressed.BLOCK; // collapsed backlogs may add taps, never these
+		Pressed k = new Pressed();
+		int last = -1;
+		while (last < frames) {
+			in.applyNext(k);
+			int seq = in.lastAppliedSeq();
+			assertTrue(seq >= last);
+			if (seq > 0) assertEquals(seq & steady, k.bits & steady);
+			if (seq == last) Thread.yield();
+			last = seq;
+		}
+		producer.join();
+		assertEquals(0, in.queued());
+		assertFalse(in.pendingChange());
+	}
+}
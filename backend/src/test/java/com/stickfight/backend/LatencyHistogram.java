@@ -0,0 +1,65 @@
+package com.stickfight.backend;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Thread-safe latency histogram in microseconds with ~3% relative precision:
+ * log2 buckets split into 32 linear sub-buckets (a tiny HdrHistogram).
+ */
+class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB = 1 << SUB_BITS;
+	private static final int BUCKETS = 40 * SUB;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	void recordMicros(long us) {
+		if (us < 0) us = 0;
+		counts.incrementAndGet(index(us));
+		max.accumulate(us);
+	}
+
+	long count() {
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) n += counts.get(i);
+		return n;
+	}
+
+	/** Upper bound of the bucket holding quantile q (0..1), in microseconds. */
+	long percentile(double q) {
+		long total = count();
+		if (total == 0) return 0;
+		long rank = (long) Math.ceil(q * total);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) return Math.min(upperBound(i), max.get());
+		}
+		return max.get();
+	}
+
+	long max() { return max.get(); }
+
+	String summary() {
+		return String.format("n=%d p50=%.2fms p99=%.2fms p999=%.2fms max=%.2fms",
+				count(), percentile(0.50) / 1000.0, percentile(0.99) / 1000.0,
+				percentile(0.999) / 1000.0, max() / 1000.0);
+	}
+
+	private static int index(long v) {
+		if (v < SUB) return (int) v;
+		// the SUB_BITS bits below the leading one pick the linear sub-bucket
+		int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+		int sub = (int) (v >>> shift) & (SUB - 1);
+		return Math.min(BUCKETS - 1, (shift + 1) * SUB + sub);
+	}
+
+	private static long upperBound(int index) {
+		int exp = index / SUB;
+		int sub = index % SUB;
+		if (exp == 0) return sub;
+		return ((long) (sub | SUB) << (exp - 1)) + (1L << (exp - 1)) - 1;
+	}
+}
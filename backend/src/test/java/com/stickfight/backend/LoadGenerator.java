@@ -0,0 +1,247 @@
+package com.stickfight.backend;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless load client for the {@code /ws} endpoint: opens N WebSocket connections, pairs them
+ * into rooms, streams {@code input} at a fixed rate and measures ping RTT and state jitter.
+ * <pre>
+ * ./mvnw test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.stickfight.backend.LoadGenerator \
+ *     -Dexec.args="--clients 2000 --duration 60 --in-process"
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>{@code --url ws://host:port/ws} target server (default localhost:8080)</li>
+ *   <li>{@code --in-process} start the backend in this JVM on a random port instead</li>
+ *   <li>{@code --clients N} connections, two per room (default 200)</li>
+ *   <li>{@code --duration S} seconds to run after everyone has joined (default 30)</li>
+ *   <li>{@code --input-hz H} input messages per client per second (default 20, like the web client)</li>
+ *   <li>{@code --pattern random|script} button pattern (default random)</li>
+ *   <li>{@code --tick-hz H} room tick rate to ask for at join (default 20)</li>
+ *   <li>{@code --ramp-ms M} delay between connection attempts (default 2)</li>
+ * </ul>
+ */
+public class LoadGenerator {
+	// server tick the jitter is measured against, and the rate rooms are created with
+	final int tickHz;
+	final long statePeriodUs;
+
+	// RTT of ping/pong and |inter-arrival - tick period| of state messages
+	final LatencyHistogram rtt = new LatencyHistogram();
+	final LatencyHistogram jitter = new LatencyHistogram();
+	final AtomicLong states = new AtomicLong();
+	final AtomicLong bytesIn = new AtomicLong();
+	final AtomicLong inputsSent = new AtomicLong();
+	final AtomicLong errors = new AtomicLong();
+	final AtomicLong closed = new AtomicLong();
+
+	LoadGenerator(int tickHz) {
+		this.tickHz = tickHz;
+		this.statePeriodUs = 1_000_000L / tickHz;
+	}
+
+	public static void main(String[] args) throws Exception {
+		String url = "ws://localhost:8080/ws";
+		boolean inProcess = false;
+		int clients = 200, durationS = 30, inputHz = 20, rampMs = 2, tickHz = 20;
+		boolean scripted = false;
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--url" -> url = args[++i];
+				case "--in-process" -> inProcess = true;
+				case "--clients" -> clients = Integer.parseInt(args[++i]);
+				case "--duration" -> durationS = Integer.parseInt(args[++i]);
+				case "--input-hz" -> inputHz = Integer.parseInt(args[++i]);
+				case "--pattern" -> scripted = "script".equals(args[++i]);
+				case "--ramp-ms" -> rampMs = Integer.parseInt(args[++i]);
+				case "--tick-hz" -> tickHz = Integer.parseInt(args[++i]);
+				default -> throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+
+		ConfigurableApplicationContext server = null;
+		if (inProcess) {
+			server = SpringApplication.run(BackendApplication.class, "--server.port=0");
+			int port = ((ServletWebServerApplicationContext) server).getWebServer().getPort();
+			url = "ws://localhost:" + port + "/ws";
+		}
+		try {
+			new LoadGenerator(tickHz).run(URI.create(url), clients, durationS, inputHz, scripted, rampMs);
+		} finally {
+			if (server != null) server.close();
+		}
+		System.exit(0);
+	}
+
+	void run(URI uri, int clients, int durationS, int inputHz, boolean scripted, int rampMs) throws Exception {
+		HttpClient http = HttpClient.newBuilder().executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+		ScheduledExecutorService timers = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors() / 2));
+
+		System.out.printf("connecting %d clients to %s%n", clients, uri);
+		List<Fighter> fighters = new ArrayList<>();
+		List<CompletableFuture<WebSocket>> pending = new ArrayList<>();
+		for (int i = 0; i < clients; i++) {
+			Fighter f = new Fighter(i, scripted);
+			fighters.add(f);
+			pending.add(http.newWebSocketBuilder().connectTimeout(Duration.ofSeconds(10)).buildAsync(uri, f)
+					.whenComplete((ws, e) -> { if (e != null) errors.incrementAndGet(); }));
+			if (rampMs > 0) Thread.sleep(rampMs);
+		}
+		for (CompletableFuture<WebSocket> p : pending) {
+			try { p.get(30, TimeUnit.SECONDS); } catch (ExecutionException | TimeoutException ignored) {}
+		}
+
+		long inputPeriodUs = 1_000_000L / inputHz;
+		for (Fighter f : fighters) {
+			if (f.ws == null) continue;
+			f.send("{\"type\":\"join\",\"room\":\"load-" + (f.index / 2) + "\",\"name\":\"bot" + f.index
+					+ "\",\"tickHz\":" + tickHz + "}");
+			// spread clients over the period so inputs don't arrive in one burst
+			long offset = ThreadLocalRandom.current().nextLong(inputPeriodUs);
+			timers.scheduleAtFixedRate(f::sendInput, offset, inputPeriodUs, TimeUnit.MICROSECONDS);
+			timers.scheduleAtFixedRate(f::sendPing, offset, 1_000_000, TimeUnit.MICROSECONDS);
+		}
+
+		long start = System.nanoTime();
+		for (int left = durationS; left > 0; left -= 5) {
+			Thread.sleep(Math.min(5, left) * 1000L);
+			if (left > 5) report(System.nanoTime() - start, false);
+		}
+		timers.shutdownNow();
+		report(System.nanoTime() - start, true);
+
+		for (Fighter f : fighters) {
+			if (f.ws != null) f.ws.abort();
+		}
+	}
+
+	private void report(long elapsedNanos, boolean last) {
+		double secs = elapsedNanos / 1e9;
+		System.out.printf("[%5.1fs] states=%d (%.0f/s) inputs=%d in=%.1f MB errors=%d closed=%d%n",
+				secs, states.get(), states.get() / secs, inputsSent.get(), bytesIn.get() / 1e6, errors.get(), closed.get());
+		if (last) {
+			System.out.println("ping RTT      " + rtt.summary());
+			System.out.println("state jitter  " + jitter.summary());
+		}
+	}
+
+	// -------------------------- one connection --------------------------
+	final class Fighter implements WebSocket.Listener {
+		// rotated through by --pattern script
+		private static final int[] SCRIPT = {Pressed.RIGHT, Pressed.RIGHT, Pressed.LIGHT, 0, Pressed.LEFT | Pressed.UP,
+				Pressed.HEAVY, Pressed.BLOCK, Pressed.BLOCK, Pressed.LEFT, 0};
+
+		final int index;
+		final boolean scripted;
+		volatile WebSocket ws;
+		// WebSocket allows one outstanding send; chain them
+		private CompletableFuture<?> sendChain = CompletableFuture.completedFuture(null);
+		private final StringBuilder partial = new StringBuilder();
+		private long lastStateNanos = 0;
+		private int held = 0;
+		private int step = 0;
+
+		Fighter(int index, boolean scripted) {
+			this.index = index;
+			this.scripted = scripted;
+		}
+
+		synchronized void send(String text) {
+			WebSocket w = ws;
+			if (w == null) return;
+			sendChain = sendChain.thenCompose(v -> w.sendText(text, true))
+					.exceptionally(e -> { errors.incrementAndGet(); return null; });
+		}
+
+		void sendInput() {
+			if (scripted) {
+				held = SCRIPT[(step++ / 4) % SCRIPT.length];
+			} else if (ThreadLocalRandom.current().nextInt(5) == 0) {
+				// hold each random combination for a while, like a person would
+				held = ThreadLocalRandom.current().nextInt(Pressed.ALL + 1);
+			}
+			send("{\"type\":\"input\",\"pressed\":{\"left\":" + has(Pressed.LEFT) + ",\"right\":" + has(Pressed.RIGHT)
+					+ ",\"up\":" + has(Pressed.UP) + ",\"light\":" + has(Pressed.LIGHT)
+					+ ",\"heavy\":" + has(Pressed.HEAVY) + ",\"block\":" + has(Pressed.BLOCK) + "}}");
+			inputsSent.incrementAndGet();
+		}
+
+		private boolean has(int bit) { return (held & bit) != 0; }
+
+		void sendPing() {
+			send("{\"type\":\"ping\",\"ts\":" + System.nanoTime() + "}");
+		}
+
+		@Override
+		public void onOpen(WebSocket webSocket) {
+			ws = webSocket;
+			webSocket.request(1);
+		}
+
+		@Override
+		public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+			bytesIn.addAndGet(data.length());
+			partial.append(data);
+			if (last) {
+				onMessage(partial);
+				partial.setLength(0);
+			}
+			webSocket.request(1);
+			return null;
+		}
+
+		@Override
+		public CompletionStage<?> onBinary(WebSocket webSocket, java.nio.ByteBuffer data, boolean last) {
+			bytesIn.addAndGet(data.remaining());
+			webSocket.request(1);
+			return null;
+		}
+
+		private void onMessage(CharSequence msg) {
+			long now = System.nanoTime();
+			String s = msg.toString();
+			if (s.contains("\"type\":\"state\"") || s.contains("\"type\":\"delta\"")) {
+				states.incrementAndGet();
+				if (lastStateNanos != 0) {
+					long interval = (now - lastStateNanos) / 1000;
+					jitter.recordMicros(Math.abs(interval - statePeriodUs));
+				}
+				lastStateNanos = now;
+			} else if (s.contains("\"type\":\"pong\"")) {
+				int at = s.indexOf("\"ts\":");
+				if (at >= 0) {
+					int end = at + 5;
+					while (end < s.length() && (Character.isDigit(s.charAt(end)) || s.charAt(end) == '-')) end++;
+					rtt.recordMicros((now - Long.parseLong(s.substring(at + 5, end))) / 1000);
+				}
+			} else if (s.contains("\"type\":\"error\"")) {
+				errors.incrementAndGet();
+			}
+		}
+
+		@Override
+		public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+			closed.incrementAndGet();
+			ws = null;
+			return null;
+		}
+
+		@Override
+		public void onError(WebSocket webSocket, Throwable error) {
+			errors.incrementAndGet();
+			ws = null;
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchTest {
+
+	@Test
+	void lightPunchInRangeHitsOnce() {
+		Match m = new Match();
+		m.s1.x = -10;
+		m.s2.x = 10;
+		m.k1.apply(Pressed.full(Pressed.LIGHT));
+		for (int i = 0; i < Match.LIGHT_TICKS; i++) m.step();
+
+		assertEquals(100 - 8, m.s2.hp);
+		assertEquals(100, m.s1.hp);
+	}
+
+	@Test
+	void timingsAreTheSameAtAnyTickRate() {
+		double jumpMsAt20 = jumpMillis(20);
+		for (int hz : new int[]{10, 20, 60}) {
+			Match m = new Match(hz);
+			assertEquals(90, m.timerSeconds());
+			assertEquals(Match.LIGHT_MS, m.lightTicks * 1000 / hz);
+			// a jump lasts as long in time, within a 10 Hz tick
+			assertEquals(jumpMsAt20, jumpMillis(hz), 100, hz + " Hz");
+		}
+	}
+
+	@Test
+	void lightPunchHitsOnceAt60Hz() {
+		Match m = new Match(60);
+		m.s1.x = -10;
+		m.s2.x = 10;
+		m.k1.apply(Pressed.full(Pressed.LIGHT));
+		for (int i = 0; i < m.lightTicks; i++) m.step();
+
+		assertEquals(100 - 8, m.s2.hp);
+	}
+
+	@Test
+	void freeForAllPunchHitsOnlyWhoIsInReach() {
+		Match m = new Match(20, 4);
+		Arrays.fill(m.present, true);
+		double[] xs = {-10, 10, 30, 400};
+		for (int i = 0; i < 4; i++) {
+			m.fighters[i].x = xs[i];
+			m.fighters[i].facing = 1;
+		}
+		m.present[2] = false; // an empty slot stands in the way but can't be hit
+		m.keys[0].apply(Pressed.full(Pressed.LIGHT));
+		m.keys[3].apply(Pressed.full(Pressed.LIGHT)); // swinging at nobody
+		for (int i = 0; i < Match.LIGHT_TICKS; i++) m.step();
+
+		assertEquals(100 - 8, m.fighters[1].hp);
+		assertEquals(100, m.fighters[0].hp);
+		assertEquals(100, m.fighters[2].hp);
+		assertEquals(100, m.fighters[3].hp);
+	}
+
+	@Test
+	void freeForAllRoundEndsWithOneFighterStanding() {
+		Match m = new Match(20, 3);
+		Arrays.fill(m.present, true);
+		m.fighters[0].hp = 0;
+		m.keys[0].apply(Pressed.full(Pressed.RIGHT)); // down: ignored
+		m.step();
+		assertFalse(m.ko);
+		assertEquals(Match.spawnX(0, 3), m.fighters[0].x);
+
+		m.fighters[1].hp = 0;
+		m.step();
+		assertTrue(m.ko);
+		assertEquals(Match.KO_HP, m.koReason);
+
+		// a lone fighter in a room waiting for others is not a winner
+		Match lone = new Match(20, 3);
+		lone.present[0] = true;
+		lone.step();
+		assertFalse(lone.ko);
+	}
+
+	@Test
+	void stepAndSnapshotDoNotAllocate() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Room room = new Room("alloc");
+		// exercise every branch: walking, jumping, attacks, blocks, hits and KO resets
+		int[] script = {Pressed.RIGHT, Pressed.RIGHT | Pressed.UP, Pressed.LIGHT, Pressed.HEAVY,
+				Pressed.BLOCK, Pressed.LEFT, 0, Pressed.LEFT | Pressed.LIGHT};
+		room.match.s1.x = -20;
+		room.match.s2.x = 20;
+
+		Runnable ticks = () -> {
+			for (int i = 0; i < 50_000; i++) {
+				room.match.k1.apply(Pressed.full(script[(i / 7) % script.length]));
+				room.match.k2.apply(Pressed.full(script[(i / 11) % script.length]));
+				room.tick++;
+				room.match.step();
+				room.captureSnapshot();
+			}
+		};
+		ticks.run(); // warm up (class init, JIT)
+
+		long before = threads.getCurrentThreadAllocatedBytes();
+		ticks.run();
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+		assertTrue(allocated < 1024, "50k ticks allocated " + allocated + " bytes");
+	}
+
+	private static double jumpMillis(int hz) {
+		Match m = new Match(hz);
+		m.k1.apply(Pressed.full(Pressed.UP));
+		m.step();
+		m.k1.clear();
+		int airTicks = 1;
+		while (!m.s1.onGround) { m.step(); airTicks++; }
+		return airTicks * 1000.0 / hz;
+	}
+}
@@ -0,0 +1,140 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MatchmakerTest {
+	static final long SECOND = 1_000_000_000L;
+
+	final List<Matchmaker.Ticket[]> pairs = new ArrayList<>();
+	final Matchmaker mm = new Matchmaker((a, b, now) -> pairs.add(new Matchmaker.Ticket[]{a, b}));
+
+	Matchmaker.Ticket ticket(String id, int rating, int rtt, long at) {
+		return new Matchmaker.Ticket(new SessionOutbox(new StubSession(id), Runnable::run), id, rating, rtt, at, null);
+	}
+
+	@Test
+	void bigQueuePairsWithinBucketsInOneBatch() {
+		Random rnd = new Random(5);
+		int players = 40_000;
+		for (int i = 0; i < players; i++) mm.enqueue(ticket("p" + i, 800 + rnd.nextInt(1200), rnd.nextInt(250), 0));
+		assertEquals(players, mm.waiting());
+
+		long t0 = System.nanoTime();
+		mm.runBatch(0);
+		long took = System.nanoTime() - t0;
+
+		// at most one player per bucket is left, and nobody fresh is paired outside their bucket
+		assertTrue(mm.waiting() <= Matchmaker.RATING_BANDS * Matchmaker.PING_BUCKETS);
+		assertEquals(players - mm.waiting(), 2 * pairs.size());
+		Set<String> seen = new HashSet<>();
+		for (Matchmaker.Ticket[] p : pairs) {
+			assertEquals(p[0].ratingBand, p[1].ratingBand);
+			assertEquals(p[0].pingBand, p[1].pingBand);
+			assertTrue(seen.add(p[0].name) && seen.add(p[1].name));
+		}
+		assertTrue(took < SECOND, "batch took " + took / 1_000_000 + " ms");
+	}
+
+	@Test
+	void searchWidensWithWaiting() {
+		mm.enqueue(ticket("low", 1000, 30, 0));
+		mm.enqueue(ticket("high", 1250, 30, 0)); // two rating bands away
+		mm.runBatch(4 * SECOND);
+		assertTrue(pairs.isEmpty());
+		mm.runBatch(6 * SECOND);  // reach 1
+		assertTrue(pairs.isEmpty());
+		mm.runBatch(10 * SECOND); // reach 2
+		assertEquals(1, pairs.size());
+		assertEquals(0, mm.waiting());
+	}
+
+	@Test
+	void cancelledPlayersAreNotPaired() {
+		Matchmaker.Ticket a = ticket("a", 1000, 30, 0), b = ticket("b", 1010, 35, 0), c = ticket("c", 1020, 40, 0);
+		mm.enqueue(a);
+		mm.enqueue(b);
+		mm.enqueue(c);
+		assertTrue(mm.cancel(b.out));
+		assertFalse(mm.cancel(b.out));
+		mm.runBatch(0);
+		assertEquals(1, pairs.size());
+		assertSame(a, pairs.get(0)[0]);
+		assertSame(c, pairs.get(0)[1]);
+		assertFalse(mm.cancel(a.out)); // already paired
+		assertEquals(0, mm.waiting());
+	}
+
+	@Test
+	void pairingRunsOutsideTheTicketMonitorsAndALeaveWaitsForIt() throws Exception {
+		CountDownLatch inPairing = new CountDownLatch(1), release = new CountDownLatch(1);
+		List<Boolean> heldLocks = new ArrayList<>();
+		Matchmaker slow = new Matchmaker((a, b, now) -> {
+			heldLocks.add(Thread.holdsLock(a) || Thread.holdsLock(b));
+			inPairing.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		Matchmaker.Ticket a = ticket("a", 1000, 30, 0), b = ticket("b", 1010, 35, 0);
+		slow.enqueue(a);
+		slow.enqueue(b);
+		Thread batch = new Thread(() -> slow.runBatch(0));
+		batch.start();
+		assertTrue(inPairing.await(5, TimeUnit.SECONDS));
+
+		AtomicBoolean cancelled = new AtomicBoolean(true);
+		CountDownLatch left = new CountDownLatch(1);
+		Thread leave = new Thread(() -> {
+			cancelled.set(slow.cancel(a.out));
+			left.countDown();
+		});
+		leave.start();
+		assertFalse(left.await(100, TimeUnit.MILLISECONDS), "a leave mid-pairing waits for the join");
+		release.countDown();
+		assertTrue(left.await(5, TimeUnit.SECONDS));
+		assertFalse(cancelled.get(), "already paired");
+		batch.join();
+		assertEquals(List.of(false), heldLocks);
+		assertFalse(slow.cancel(b.out));
+	}
+
+	@Test
+	void aTicketCarriesOnlyThePlayersOwnJoinFields() throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		Matchmaker.Ticket botter = new Matchmaker.Ticket(new SessionOutbox(new StubSession("a"), Runnable::run), "a", 1000, 30, 0,
+				GameHandler.queuedJoin(om.readTree("{\"type\":\"queue\",\"name\":\"a\",\"proto\":\"bin\",\"bot\":\"hard\","
+						+ "\"mode\":\"rollback\",\"tickHz\":60,\"resume\":\"ff\",\"role\":\"spectator\",\"fighters\":4}")));
+		Matchmaker.Ticket plain = new Matchmaker.Ticket(new SessionOutbox(new StubSession("b"), Runnable::run), "b", 1010, 35, 0,
+				GameHandler.queuedJoin(om.readTree("{\"type\":\"queue\",\"name\":\"b\",\"delta\":true}")));
+		mm.enqueue(botter);
+		mm.enqueue(plain);
+		mm.runBatch(0);
+
+		assertEquals(1, pairs.size());
+		// whoever joins first decides nothing about the room: no bot takes the other's slot
+		assertEquals(om.readTree("{\"type\":\"join\",\"name\":\"a\",\"proto\":\"bin\"}"), botter.join);
+		assertEquals(om.readTree("{\"type\":\"join\",\"name\":\"b\",\"delta\":true}"), plain.join);
+	}
+
+	@Test
+	void unknownPingWaitsWithTheSlowest() {
+		assertEquals(0, Matchmaker.pingBand(10));
+		assertEquals(2, Matchmaker.pingBand(150));
+		assertEquals(Matchmaker.PING_BUCKETS - 1, Matchmaker.pingBand(400));
+		assertEquals(Matchmaker.PING_BUCKETS - 1, Matchmaker.pingBand(-1));
+	}
+}
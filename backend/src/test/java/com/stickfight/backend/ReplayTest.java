@@ -0,0 +1,126 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplayTest {
+
+	@Test
+	void replayEndsInTheRecordedState(@TempDir Path dir) throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		ReplayWriter writer = new ReplayWriter(dir, GameMetrics.NONE);
+		Room room = new Room("cup final");
+		room.startRecording(writer);
+		StubSession a = new StubSession("a"), b = new StubSession("b");
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "alice");
+		room.addPlayer(new SessionOutbox(b, Runnable::run), "bob");
+		room.match.s1.x = -30;
+		room.match.s2.x = 30;
+
+		// two rounds of random play, with player 2 dropping out and a new one taking the slot
+		Random rnd = new Random(3);
+		int ticks = 2 * (Match.ROUND_TICKS + Match.KO_RESET_TICKS);
+		for (int t = 0; t < ticks; t++) {
+			if (rnd.nextInt(4) == 0) room.updateInput(a, -1, Pressed.full(rnd.nextInt(Pressed.ALL + 1)));
+			if (rnd.nextInt(4) == 0) room.updateInput(b, -1, Pressed.full(rnd.nextInt(Pressed.ALL + 1)));
+			if (t == ticks / 2) {
+				room.removePlayer(b);
+				b = new StubSession("c");
+				room.addPlayer(new SessionOutbox(b, Runnable::run), "carol");
+			}
+			room.tickAndBroadcast(om);
+		}
+		room.stopRecording();
+		writer.close();
+
+		List<Path> files;
+		try (var s = Files.list(dir)) { files = s.toList(); }
+		assertEquals(1, files.size());
+		ReplayReader reader = new ReplayReader(files.get(0));
+		assertEquals("cup final", reader.roomId);
+		assertEquals(room.tickHz, reader.tickHz);
+
+		AtomicInteger steps = new AtomicInteger();
+		Match replayed = reader.replay((tick, m) -> steps.set(tick));
+		assertEquals(ticks, steps.get());
+		assertSameState(room.match, replayed);
+		assertEquals("carol", replayed.s2.name);
+	}
+
+	@Test
+	void handedOffRoomReplaysIdentically(@TempDir Path dir) throws Exception {
+		ObjectMapper om = new ObjectMapper();
+		Room before = new Room("moved");
+		before.addPlayer(new SessionOutbox(new StubSession("a"), Runnable::run), "alice");
+		before.addPlayer(new SessionOutbox(new StubSession("b"), Runnable::run), "bob");
+		before.match.s1.hp = 30;
+		before.match.s2.hp = 70;
+		long bobs = before.resumeToken(2);
+		Path handoff = dir.resolve("rooms.sfho");
+		RoomHandoff.write(handoff, List.of(before), (room, e) -> { throw e; });
+		// alice doesn't come back in time
+		Room room = RoomHandoff.read(handoff, (id, hz, n) -> new Room(id), System.nanoTime() - 1).get(0);
+		Files.delete(handoff);
+
+		ReplayWriter writer = new ReplayWriter(dir, GameMetrics.NONE);
+		room.startRecording(writer);
+		StubSession b = new StubSession("b2"), c = new StubSession("c");
+		assertEquals(2, room.resumePlayer(new SessionOutbox(b, Runnable::run), bobs));
+		room.addPlayer(new SessionOutbox(c, Runnable::run), "carol"); // takes alice's slot, from scratch
+		assertEquals(100, room.match.s1.hp);
+
+		Random rnd = new Random(11);
+		int ticks = Match.ROUND_TICKS / 2;
+		for (int t = 0; t < ticks; t++) {
+			if (rnd.nextInt(4) == 0) room.updateInput(b, -1, Pressed.full(rnd.nextInt(Pressed.ALL + 1)));
+			if (rnd.nextInt(4) == 0) room.updateInput(c, -1, Pressed.full(rnd.nextInt(Pressed.ALL + 1)));
+			room.tickAndBroadcast(om);
+		}
+		room.stopRecording();
+		writer.close();
+
+		List<Path> files;
+		try (var s = Files.list(dir)) { files = s.toList(); }
+		assertEquals(1, files.size());
+		Match replayed = new ReplayReader(files.get(0)).replay((tick, m) -> {});
+		assertSameState(room.match, replayed);
+		assertEquals("carol", replayed.s1.name);
+		assertEquals("bob", replayed.s2.name);
+	}
+
+	@Test
+	void recordingsNeverOverwriteEachOther(@TempDir Path dir) throws Exception {
+		Files.writeString(dir.resolve("a_b-1000" + ReplayWriter.SUFFIX), "kept");
+		ReplayWriter writer = new ReplayWriter(dir, GameMetrics.NONE);
+		// both sanitize to a_b, and start in the same millisecond
+		for (String id : new String[]{"a/b", "a b"}) new ReplayLog(writer, id, Match.DEFAULT_TICK_HZ, 1000, new Match()).close();
+		writer.close();
+
+		assertEquals("kept", Files.readString(dir.resolve("a_b-1000" + ReplayWriter.SUFFIX)));
+		assertEquals("a/b", new ReplayReader(dir.resolve("a_b-1000-1" + ReplayWriter.SUFFIX)).roomId);
+		assertEquals("a b", new ReplayReader(dir.resolve("a_b-1000-2" + ReplayWriter.SUFFIX)).roomId);
+	}
+
+	private static void assertSameState(Match expected, Match actual) {
+		assertEquals(expected.ko, actual.ko);
+		assertEquals(expected.koReason, actual.koReason);
+		assertEquals(expected.roundTimerTicks, actual.roundTimerTicks);
+		for (PlayerState[] p : new PlayerState[][]{{expected.s1, actual.s1}, {expected.s2, actual.s2}}) {
+			assertEquals(p[0].x, p[1].x);
+			assertEquals(p[0].y, p[1].y);
+			assertEquals(p[0].vx, p[1].vx);
+			assertEquals(p[0].hp, p[1].hp);
+			assertEquals(p[0].action, p[1].action);
+			assertEquals(p[0].actionTimer, p[1].actionTimer);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RollbackTest {
+	static final int FRAMES = 3000;
+	static final int MAX_DELAY = 8;
+
+	@Test
+	void fixedLightPunchHitsLikeMatch() {
+		int[] s = FixedMatch.newState();
+		s[FixedMatch.P1 + FixedMatch.X] = -10 * FixedMatch.ONE;
+		s[FixedMatch.P2 + FixedMatch.X] = 10 * FixedMatch.ONE;
+		for (int i = 0; i < Match.LIGHT_TICKS; i++) FixedMatch.step(s, Pressed.LIGHT, 0);
+
+		assertEquals(100 - 8, s[FixedMatch.P2 + FixedMatch.HP]);
+		assertEquals(100, s[FixedMatch.P1 + FixedMatch.HP]);
+	}
+
+	@Test
+	void restoringASnapshotReplaysIdentically() {
+		int[][] keys = randomHeldKeys(new Random(7), 400);
+		int[] s = FixedMatch.newState();
+		for (int f = 0; f < 200; f++) FixedMatch.step(s, keys[0][f], keys[1][f]);
+		int[] saved = s.clone();
+
+		for (int f = 200; f < 400; f++) FixedMatch.step(s, keys[0][f], keys[1][f]);
+		long first = FixedMatch.hash(s);
+
+		System.arraycopy(saved, 0, s, 0, FixedMatch.SIZE);
+		for (int f = 200; f < 400; f++) FixedMatch.step(s, keys[0][f], keys[1][f]);
+		assertEquals(first, FixedMatch.hash(s));
+	}
+
+	@Test
+	void lateInputsConvergeToTheReferenceSimulation() {
+		Random rnd = new Random(42);
+		int[][] keys = randomHeldKeys(rnd, FRAMES);
+
+		// reference: every input known in time
+		long[] reference = new long[FRAMES];
+		int[] s = FixedMatch.newState();
+		for (int f = 0; f < FRAMES; f++) {
+			FixedMatch.step(s, keys[0][f], keys[1][f]);
+			reference[f] = FixedMatch.hash(s);
+		}
+
+		// clients only send changes, and each message is 0..MAX_DELAY frames late
+		List<List<int[]>> arrivals = new ArrayList<>();
+		for (int t = 0; t < FRAMES + MAX_DELAY + 1; t++) arrivals.add(new ArrayList<>());
+		for (int p = 0; p < 2; p++) {
+			for (int f = 0; f < FRAMES; f++) {
+				if (f > 0 && keys[p][f] == keys[p][f - 1]) continue;
+				arrivals.get(f + rnd.nextInt(MAX_DELAY + 1)).add(new int[]{p + 1, f, keys[p][f]});
+			}
+		}
+
+		RollbackSession session = new RollbackSession();
+		for (int t = 0; t < FRAMES; t++) {
+			for (int[] in : arrivals.get(t)) assertTrue(session.addInput(in[0], in[1], in[2]));
+			session.advance();
+			// everything for frames up to t - MAX_DELAY has arrived by now
+			if (t >= MAX_DELAY) assertEquals(reference[t - MAX_DELAY], session.hashAt(t - MAX_DELAY), "frame " + (t - MAX_DELAY));
+		}
+		assertTrue(session.rollbacks > 0);
+	}
+
+	@Test
+	void inputsOutsideTheWindowAreRejected() {
+		RollbackSession session = new RollbackSession();
+		for (int i = 0; i < 100; i++) session.advance();
+		assertFalse(session.addInput(1, 100 - RollbackSession.WINDOW, Pressed.LEFT));
+		assertFalse(session.addInput(1, 100 + RollbackSession.WINDOW, Pressed.LEFT));
+		assertTrue(session.addInput(1, 100 - RollbackSession.WINDOW + 1, Pressed.LEFT));
+		assertEquals(2, session.rejectedInputs);
+	}
+
+	// held buttons per slot and frame, changing every few frames
+	private static int[][] randomHeldKeys(Random rnd, int frames) {
+		int[][] keys = new int[2][frames];
+		for (int p = 0; p < 2; p++) {
+			int held = 0;
+			for (int f = 0; f < frames; f++) {
+				if (rnd.nextInt(6) == 0) held = rnd.nextInt(Pressed.ALL + 1);
+				keys[p][f] = held;
+			}
+		}
+		return keys;
+	}
+}
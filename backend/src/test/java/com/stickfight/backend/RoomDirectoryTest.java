@@ -0,0 +1,137 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomDirectoryTest {
+
+	static List<RoomDirectory.Node> nodes(int n) {
+		List<RoomDirectory.Node> nodes = new ArrayList<>();
+		for (int i = 0; i < n; i++) nodes.add(new RoomDirectory.Node("node" + i, "ws://node" + i + ":8080/ws"));
+		return nodes;
+	}
+
+	@Test
+	void roomsSpreadEvenlyAndFewMoveWhenANodeIsAdded() {
+		HashRing four = new HashRing(nodes(4));
+		HashRing five = new HashRing(nodes(5));
+		int rooms = 20_000, moved = 0;
+		Map<String, Integer> perNode = new HashMap<>();
+		for (int i = 0; i < rooms; i++) {
+			String room = "room" + i;
+			RoomDirectory.Node before = four.nodeFor(room), after = five.nodeFor(room);
+			perNode.merge(before.id(), 1, Integer::sum);
+			if (!before.equals(after)) {
+				moved++;
+				assertEquals("node4", after.id()); // rooms only move to the new node
+			}
+		}
+		for (int n : perNode.values()) assertEquals(rooms / 4.0, n, rooms / 4.0 * 0.2);
+		assertEquals(rooms / 5.0, moved, rooms / 5.0 * 0.2);
+	}
+
+	@Test
+	void singleNodeHostsEverything() {
+		RoomDirectory d = new InMemoryRoomDirectory(new RoomDirectory.Node("local", ""));
+		assertTrue(d.isLocal("any room"));
+	}
+
+	@Test
+	void nodesSharingAFileAgreeOnPlacement(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("nodes.txt");
+		List<RoomDirectory.Node> n = nodes(3);
+		FileRoomDirectory a = new FileRoomDirectory(file, n.get(0));
+		FileRoomDirectory b = new FileRoomDirectory(file, n.get(1));
+		FileRoomDirectory c = new FileRoomDirectory(file, n.get(2));
+		assertEquals(3, FileRoomDirectory.parse(Files.readAllLines(file)).size());
+
+		// a read the file before b and c joined; once it notices the change all three agree
+		Thread.sleep(FileRoomDirectory.RELOAD_CHECK_MS + 50);
+		HashRing expected = new HashRing(n);
+		int local = 0;
+		for (int i = 0; i < 300; i++) {
+			String room = "room" + i;
+			RoomDirectory.Node owner = expected.nodeFor(room);
+			assertEquals(owner, a.ownerOf(room));
+			assertEquals(owner, b.ownerOf(room));
+			assertEquals(owner, c.ownerOf(room));
+			if (a.isLocal(room)) local++;
+		}
+		assertTrue(local > 0 && local < 300);
+
+		c.close();
+		assertEquals(List.of(n.get(0), n.get(1)), FileRoomDirectory.parse(Files.readAllLines(file)));
+		a.close();
+		b.close();
+	}
+
+	@Test
+	void aRunningRoomStaysWhereItIsWhenANodeJoins(@TempDir Path dir) throws Exception {
+		Path file = dir.resolve("nodes.txt");
+		List<RoomDirectory.Node> n = nodes(3);
+		FileRoomDirectory a = new FileRoomDirectory(file, n.get(0));
+		FileRoomDirectory b = new FileRoomDirectory(file, n.get(1));
+		// a room a hosts now, that node2 will take over on the ring
+		HashRing two = new HashRing(n.subList(0, 2)), three = new HashRing(n);
+		String room = null;
+		for (int i = 0; room == null; i++) {
+			if (two.nodeFor("room" + i).equals(n.get(0)) && three.nodeFor("room" + i).equals(n.get(2))) room = "room" + i;
+		}
+		assertEquals(n.get(0), a.claim(room));
+
+		FileRoomDirectory c = new FileRoomDirectory(file, n.get(2));
+		Thread.sleep(FileRoomDirectory.RELOAD_CHECK_MS + 50);
+		assertEquals(n.get(0), b.ownerOf(room));
+		assertEquals(n.get(0), c.ownerOf(room));
+		assertEquals(n.get(0), c.claim(room), "c must not start a second copy");
+		assertTrue(a.isLocal(room));
+
+		// once a lets it go, new players start it where it is placed now
+		a.release(room);
+		assertEquals(n.get(2), b.ownerOf(room));
+		assertEquals(n.get(2), c.claim(room));
+
+		// c dies without closing and is edited out of the list: its claim has lapsed
+		Files.writeString(file, "node0 ws://node0:8080/ws\nnode1 ws://node1:8080/ws\n");
+		Thread.sleep(FileRoomDirectory.RELOAD_CHECK_MS + 50);
+		assertEquals(n.get(0), b.ownerOf(room));
+		assertEquals(n.get(1), b.claim(room));
+		a.close();
+		b.close();
+	}
+
+	@Test
+	void roomIdsThatOnlyDifferInOddCharactersAreClaimedApart(@TempDir Path dir) throws Exception {
+		FileRoomDirectory a = new FileRoomDirectory(dir.resolve("nodes.txt"), nodes(1).get(0));
+		a.claim("a/b");
+		a.claim("a b");
+		a.claim("x".repeat(500));
+		try (var claims = Files.list(dir.resolve("nodes.txt.rooms"))) {
+			assertEquals(3, claims.count());
+		}
+		a.close();
+		try (var claims = Files.list(dir.resolve("nodes.txt.rooms"))) {
+			assertEquals(0, claims.count(), "released on close");
+		}
+	}
+
+	@Test
+	void inMemoryClaimsOutliveANewNodeList() {
+		List<RoomDirectory.Node> n = nodes(2);
+		InMemoryRoomDirectory d = new InMemoryRoomDirectory(n.get(0), n.subList(0, 1));
+		assertEquals(n.get(0), d.claim("r"));
+		d.setNodes(n);
+		assertTrue(d.isLocal("r"));
+		d.release("r");
+		assertEquals(new HashRing(n).nodeFor("r"), d.ownerOf("r"));
+	}
+}
@@ -0,0 +1,138 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomFootprintTest {
+	final ObjectMapper om = new ObjectMapper();
+	static final Supplier<SpectatorFeed> FEEDS = () -> new SpectatorFeed(Runnable::run, 0, 10);
+
+	@Test
+	void idleRoomsStayWithinTheirHeapBudget() {
+		int n = 2_000;
+		RoomPool pool = new RoomPool(0, 16);
+		SpectatorFeed[] feeds = new SpectatorFeed[n];
+		SessionOutbox[] outs = new SessionOutbox[n];
+		String[] ids = new String[n];
+		for (int r = 0; r < n; r++) {
+			feeds[r] = new SpectatorFeed(Runnable::run, 0, 10);
+			outs[r] = new SessionOutbox(new StubSession("s" + r), Runnable::run);
+			ids[r] = "idle-" + r;
+		}
+		Room[] rooms = new Room[n];
+		int coldAfter = Room.COLD_AFTER_MS * Match.DEFAULT_TICK_HZ / 1000;
+
+		long before = usedHeap();
+		for (int r = 0; r < n; r++) {
+			Room room = new Room(ids[r], Match.DEFAULT_TICK_HZ, false, 2, feeds[r], pool);
+			room.addPlayer(outs[r], "p1");
+			for (int t = 0; t <= coldAfter; t++) room.tickAndBroadcast(om);
+			assertEquals(Room.Heat.COLD, room.heat);
+			rooms[r] = room;
+		}
+		long perRoom = (usedHeap() - before) / n;
+
+		assertTrue(perRoom <= Room.IDLE_BYTES, "idle room retains " + perRoom + " bytes");
+		assertEquals(ids[n - 1], rooms[n - 1].id); // keeps the rooms reachable until measured
+	}
+
+	@Test
+	void churnThroughThePoolAllocatesNoRooms() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		RoomPool pool = new RoomPool(4, 4);
+		SessionOutbox out = new SessionOutbox(new StubSession("a"), Runnable::run);
+		String[] ids = {"r0", "r1", "r2", "r3"};
+		Runnable churn = () -> {
+			for (int i = 0; i < 10_000; i++) {
+				Room room = pool.acquire(ids[i & 3], Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+				room.addPlayer(out, "p1");
+				room.captureSnapshot();
+				room.removePlayer(out.session());
+				pool.release(room);
+			}
+		};
+		churn.run(); // warm up, and fill the pool
+
+		long before = threads.getCurrentThreadAllocatedBytes();
+		churn.run();
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+		// a join/leave costs the session attribute entry, not a room and its snapshot ring
+		assertTrue(allocated < 10_000 * 128L, "10k joins allocated " + allocated + " bytes");
+		assertTrue(pool.roomsReused() >= 10_000);
+	}
+
+	@Test
+	void reusedRoomStartsOver() {
+		RoomPool pool = new RoomPool(1, 1);
+		StubSession a = new StubSession("a");
+		Room room = pool.acquire("first", Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "alice");
+		room.updateInput(a, 7, Pressed.full(Pressed.RIGHT));
+		for (int t = 0; t < 30; t++) room.tickAndBroadcast(om);
+		room.match.s2.hp = 40;
+		room.removePlayer(a);
+		pool.release(room);
+
+		Room again = pool.acquire("second", Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+		assertSame(room, again);
+		assertEquals("second", again.id);
+		assertEquals(0, again.tick);
+		assertEquals(Room.Heat.HOT, again.heat);
+		assertEquals(100, again.match.s2.hp);
+		assertEquals(Match.spawnX(0, 2), again.match.s1.x);
+		assertEquals(PlayerState.DEFAULT_NAME, again.match.s1.name);
+		assertEquals(-1, again.input(1).lastAppliedSeq());
+		assertEquals(-1, again.captureSnapshot().ack[0]);
+
+		// another shape is not taken from this one's queue
+		assertNotSame(again, pool.acquire("third", 60, false, 2, FEEDS));
+	}
+
+	@Test
+	void retiredRoomStaysAsleepAndComesBackEmpty() {
+		RoomPool pool = new RoomPool(1, 1);
+		Room room = pool.acquire("first", Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+		pool.release(room);
+		assertTrue(room.retired());
+		assertFalse(room.wake(), "input racing the drop must not put it back on the engine");
+		assertEquals(Room.Heat.COLD, room.heat);
+
+		// a join that got past the lookup anyway: its session must not carry over
+		StubSession late = new StubSession("late");
+		room.addPlayer(new SessionOutbox(late, Runnable::run), "late");
+
+		Room again = pool.acquire("second", Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+		assertSame(room, again);
+		assertFalse(again.retired());
+		assertEquals(0, again.sessionCount());
+		assertNull(again.player(1));
+		assertEquals(0, again.getSlotOf(late));
+	}
+
+	@Test
+	void aTickPassFromBeforeTheDropSkipsTheReusedRoom() {
+		RoomPool pool = new RoomPool(1, 1);
+		Room room = pool.acquire("first", Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+		assertTrue(room.ticksAs("first"));
+		pool.release(room);
+		assertFalse(room.ticksAs("first"), "retired: the old pass leaves it alone");
+
+		// reused at once, maybe on another shard: the old pass still holds it under the old key
+		Room again = pool.acquire("second", Match.DEFAULT_TICK_HZ, false, 2, FEEDS);
+		assertSame(room, again);
+		assertFalse(again.ticksAs("first"));
+		assertTrue(again.ticksAs("second"));
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) System.gc();
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
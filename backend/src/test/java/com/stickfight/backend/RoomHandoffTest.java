@@ -0,0 +1,125 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomHandoffTest {
+	final ObjectMapper om = new ObjectMapper();
+
+	static Room newRoom(String id, int tickHz, int fighters) {
+		return new Room(id, tickHz, false, fighters, new SpectatorFeed(Runnable::run, 0, 10), RoomPool.NONE);
+	}
+
+	static void fail(Room room, RuntimeException e) {
+		throw new AssertionError("room " + room.id + " not written", e);
+	}
+
+	@Test
+	void roomsCarryOnFromWhereTheyStopped(@TempDir Path dir) throws Exception {
+		Room room = newRoom("final", 30, 3);
+		StubSession a = new StubSession("a"), b = new StubSession("b");
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "alice");
+		room.addPlayer(new SessionOutbox(b, Runnable::run), "bob");
+		room.addBot(BotController.Difficulty.HARD, 7);
+		Random rnd = new Random(5);
+		for (int t = 0; t < 200; t++) {
+			if (rnd.nextInt(4) == 0) room.updateInput(a, -1, Pressed.full(rnd.nextInt(Pressed.ALL + 1)));
+			if (rnd.nextInt(4) == 0) room.updateInput(b, -1, Pressed.full(rnd.nextInt(Pressed.ALL + 1)));
+			room.tickAndBroadcast(om);
+		}
+		Room rollback = new Room("rb", 20, true, 2, new SpectatorFeed(Runnable::run, 0, 10), RoomPool.NONE);
+
+		Path file = dir.resolve("rooms.sfho");
+		assertEquals(List.of(room), RoomHandoff.write(file, List.of(room, rollback), RoomHandoffTest::fail));
+		List<Room> read = RoomHandoff.read(file, RoomHandoffTest::newRoom, System.nanoTime() + 1_000_000_000L);
+
+		assertEquals(1, read.size());
+		Room back = read.get(0);
+		assertEquals("final", back.id);
+		assertEquals(30, back.tickHz);
+		assertEquals(3, back.capacity());
+		assertEquals(room.tick, back.tick);
+		assertEquals(Room.Heat.COLD, back.heat);
+		assertEquals(room.match.ko, back.match.ko);
+		assertEquals(room.match.roundTimerTicks, back.match.roundTimerTicks);
+		for (int i = 0; i < 3; i++) {
+			PlayerState p = room.match.fighters[i], q = back.match.fighters[i];
+			assertEquals(p.name, q.name);
+			assertEquals(p.x, q.x);
+			assertEquals(p.y, q.y);
+			assertEquals(p.hp, q.hp);
+			assertEquals(room.match.present[i], back.match.present[i]);
+		}
+		assertEquals(BotController.Difficulty.HARD, back.bot(3));
+		assertEquals(0, back.sessionCount());
+	}
+
+	@Test
+	void playersResumeTheirOwnSlot(@TempDir Path dir) throws Exception {
+		Room room = newRoom("r", 20, 2);
+		room.addPlayer(new SessionOutbox(new StubSession("a"), Runnable::run), "alice");
+		room.addPlayer(new SessionOutbox(new StubSession("b"), Runnable::run), "bob");
+		room.match.s2.hp = 42;
+		long bobs = room.resumeToken(2);
+
+		Path file = dir.resolve("rooms.sfho");
+		RoomHandoff.write(file, List.of(room), RoomHandoffTest::fail);
+		Room back = RoomHandoff.read(file, RoomHandoffTest::newRoom, System.nanoTime() + 60_000_000_000L).get(0);
+
+		SessionOutbox stranger = new SessionOutbox(new StubSession("x"), Runnable::run);
+		assertEquals(0, back.resumePlayer(stranger, bobs + 1));
+		assertFalse(back.addPlayer(stranger, "mallory"), "held slots aren't free");
+
+		SessionOutbox bob = new SessionOutbox(new StubSession("b2"), Runnable::run);
+		assertEquals(2, back.resumePlayer(bob, bobs));
+		assertEquals(2, back.getSlotOf(bob.session()));
+		assertEquals("bob", back.match.s2.name);
+		assertEquals(42, back.match.s2.hp);
+		assertEquals(0, back.resumePlayer(new SessionOutbox(new StubSession("b3"), Runnable::run), bobs), "slot taken");
+	}
+
+	@Test
+	void unclaimedSlotsOpenUpAfterTheWindow(@TempDir Path dir) throws Exception {
+		Room room = newRoom("r", 20, 2);
+		room.addPlayer(new SessionOutbox(new StubSession("a"), Runnable::run), "alice");
+		room.match.s1.hp = 10;
+
+		Path file = dir.resolve("rooms.sfho");
+		RoomHandoff.write(file, List.of(room), RoomHandoffTest::fail);
+		Room back = RoomHandoff.read(file, RoomHandoffTest::newRoom, System.nanoTime() - 1).get(0);
+
+		SessionOutbox carol = new SessionOutbox(new StubSession("c"), Runnable::run);
+		assertTrue(back.addPlayer(carol, "carol"));
+		assertEquals(1, back.getSlotOf(carol.session()));
+		assertEquals("carol", back.match.s1.name);
+		assertEquals(100, back.match.s1.hp, "a new player starts over");
+	}
+
+	@Test
+	void fullRoomOfLongNamesFitsAndNamesAreCutBetweenCharacters(@TempDir Path dir) throws Exception {
+		Room room = newRoom("ffa", 20, Match.MAX_FIGHTERS);
+		String[] names = new String[Match.MAX_FIGHTERS];
+		for (int i = 0; i < names.length; i++) {
+			// odd slots: 2-byte characters, so 255 bytes would end inside one
+			names[i] = i % 2 == 0 ? "n".repeat(300 + i) : "\u00e9".repeat(200 + i);
+			assertTrue(room.addPlayer(new SessionOutbox(new StubSession("s" + i), Runnable::run), names[i]));
+		}
+
+		Path file = dir.resolve("rooms.sfho");
+		assertEquals(1, RoomHandoff.write(file, List.of(room), RoomHandoffTest::fail).size());
+		Room back = RoomHandoff.read(file, RoomHandoffTest::newRoom, System.nanoTime() + 1_000_000_000L).get(0);
+
+		for (int i = 0; i < names.length; i++) {
+			String name = back.match.fighters[i].name;
+			assertEquals(i % 2 == 0 ? "n".repeat(255) : "\u00e9".repeat(127), name);
+			assertTrue(names[i].startsWith(name));
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RoomHeatTest {
+	final ObjectMapper om = new ObjectMapper();
+
+	@Test
+	void lonePlayerIdleGoesColdAndWakesOnInput() {
+		Room room = new Room("lone");
+		StubSession a = new StubSession("a");
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "p1");
+
+		int coldAfter = Room.COLD_AFTER_MS * room.tickHz / 1000;
+		for (int i = 0; i < coldAfter + 1; i++) room.tickAndBroadcast(om);
+		assertEquals(Room.Heat.COLD, room.heat);
+
+		long sent = a.messages;
+		assertFalse(room.tickAndBroadcast(om));
+		assertEquals(sent, a.messages);
+
+		// unchanged input is not activity; a new button is
+		assertFalse(room.updateInput(a, -1, Pressed.full(0)));
+		assertTrue(room.updateInput(a, -1, Pressed.full(Pressed.RIGHT)));
+		assertTrue(room.wake());
+		assertTrue(room.tickAndBroadcast(om));
+		assertEquals(Room.Heat.HOT, room.heat);
+	}
+
+	@Test
+	void idlePairGoesWarmAndPublishesOncePerSecond() {
+		Room room = new Room("pair");
+		StubSession a = new StubSession("a");
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "p1");
+		room.addPlayer(new SessionOutbox(new StubSession("b"), Runnable::run), "p2");
+
+		int warmAfter = Room.WARM_AFTER_MS * room.tickHz / 1000;
+		for (int i = 0; i < warmAfter + 1; i++) room.tickAndBroadcast(om);
+		assertEquals(Room.Heat.WARM, room.heat);
+
+		long sent = a.messages;
+		for (int i = 0; i < 5 * room.tickHz; i++) room.tickAndBroadcast(om);
+		assertEquals(5, a.messages - sent);
+	}
+
+	@Test
+	void koIsWarmButItsFirstFrameIsSent() {
+		Room room = new Room("ko");
+		StubSession a = new StubSession("a");
+		room.addPlayer(new SessionOutbox(a, Runnable::run), "p1");
+		room.addPlayer(new SessionOutbox(new StubSession("b"), Runnable::run), "p2");
+		room.match.s2.hp = 0;
+
+		assertTrue(room.tickAndBroadcast(om));
+		assertTrue(room.match.ko);
+		assertEquals(Room.Heat.WARM, room.heat);
+		assertFalse(room.tickAndBroadcast(om));
+	}
+}
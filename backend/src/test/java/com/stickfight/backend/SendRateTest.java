@@ -0,0 +1,103 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SendRateTest {
+	static final int HZ = 20;
+	static final long TICK_NANOS = 1_000_000_000L / HZ;
+
+	@Test
+	void goodLinkKeepsEveryTickEvenOverBudget() {
+		SendRate rate = new SendRate();
+		for (int t = 0; t < 1_000; t++) {
+			assertTrue(rate.due(t, HZ, false, 40, true, t * TICK_NANOS));
+		}
+		assertEquals(1, rate.divisor());
+		assertFalse(rate.lean());
+	}
+
+	@Test
+	void backedUpLinkSlowsDownThenRecovers() {
+		SendRate rate = new SendRate();
+		long now = 0;
+		int t = 0;
+		assertTrue(rate.due(t++, HZ, true, -1, false, now));
+		assertEquals(1, rate.divisor(), "one late write is a hiccup");
+		assertTrue(rate.due(t++, HZ, true, -1, false, now));
+		assertEquals(2, rate.divisor());
+		assertTrue(rate.lean());
+
+		// backed up on every due tick: down to MIN_STATE_HZ and no further
+		int sent = 0;
+		for (; t < 200; t++, now += TICK_NANOS) if (rate.due(t, HZ, true, -1, false, now)) sent++;
+		assertEquals(HZ / SendRate.MIN_STATE_HZ, rate.divisor());
+		assertTrue(sent < 200 / 4, sent + " states to a backed-up client");
+		assertFalse(rate.hopeless());
+
+		// the socket catches up: back to full rate one doubling per RECOVER_MS
+		for (long end = now + 4 * SendRate.RECOVER_MS * 1_000_000; now < end; t++, now += TICK_NANOS) {
+			rate.due(t, HZ, false, -1, false, now);
+		}
+		assertEquals(1, rate.divisor());
+	}
+
+	@Test
+	void farClientGetsHalfRate() {
+		SendRate rate = new SendRate();
+		int sent = 0;
+		for (int t = 0; t < 100; t++) if (rate.due(t, HZ, false, SendRate.SLOW_RTT_MS + 50, false, t * TICK_NANOS)) sent++;
+		assertEquals(2, rate.divisor());
+		assertEquals(50, sent);
+	}
+
+	@Test
+	void poorLinkShedsOverBudgetAndStaysDown() {
+		SendRate rate = new SendRate();
+		long now = 0;
+		for (int t = 0; t < 2_000; t++, now += TICK_NANOS) rate.due(t, HZ, false, SendRate.SLOW_RTT_MS, true, now);
+		assertEquals(HZ / SendRate.MIN_STATE_HZ, rate.divisor());
+	}
+
+	@Test
+	void clientStuckAtTheLowestRateIsHopeless() {
+		SendRate rate = new SendRate();
+		long now = 0;
+		int t = 0;
+		for (; !rate.hopeless() && t < 10_000; t++, now += TICK_NANOS) rate.due(t, HZ, true, -1, false, now);
+		assertTrue(rate.hopeless());
+		long seconds = now / 1_000_000_000L;
+		assertTrue(seconds >= SendRate.HOPELESS_MS / 1000 && seconds <= SendRate.HOPELESS_MS / 1000 + 2, "gave up after " + seconds + " s");
+	}
+
+	@Test
+	void slowPlayerGetsFewerLeanerStatesAndFastOneAll() {
+		ObjectMapper om = new ObjectMapper();
+		Room room = new Room("r");
+		StubSession fast = new StubSession("fast"), slow = new StubSession("slow");
+		// the slow player's writer never gets to run: every state it is offered stays pending
+		List<Runnable> stuck = new ArrayList<>();
+		room.addPlayer(new SessionOutbox(fast, Runnable::run), "alice");
+		room.addPlayer(new SessionOutbox(slow, stuck::add), "bob");
+		int ticks = 100;
+		for (int t = 0; t < ticks; t++) room.tickAndBroadcast(om);
+
+		assertEquals(ticks, fast.messages);
+		assertTrue(((TextMessage) fast.last).getPayload().contains("\"name\":\"bob\""));
+
+		SessionOutbox slowOut = room.player(2);
+		assertEquals(HZ / SendRate.MIN_STATE_HZ, slowOut.stateDivisor());
+		assertTrue(slowOut.droppedStates() < ticks / 4, slowOut.droppedStates() + " states replaced unsent");
+		stuck.forEach(Runnable::run);
+		assertEquals(1, slow.messages);
+		String state = ((TextMessage) slow.last).getPayload();
+		assertFalse(state.contains("\"name\""), state);
+		assertFalse(state.contains("\"room\""), state);
+	}
+}
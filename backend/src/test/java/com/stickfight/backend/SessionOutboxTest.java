@@ -0,0 +1,129 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionOutboxTest {
+
+	/** Remembers the payload of every message written to it, in order. */
+	static class RecordingSession extends StubSession {
+		final List<Object> sent = new ArrayList<>();
+
+		RecordingSession(String id) {
+			super(id);
+		}
+
+		@Override
+		public void sendMessage(WebSocketMessage<?> message) {
+			super.sendMessage(message);
+			sent.add(message.getPayload());
+		}
+	}
+
+	@Test
+	void unsentStatesAreReplacedByTheNewest() {
+		RecordingSession session = new RecordingSession("a");
+		List<Runnable> writer = new ArrayList<>();
+		SessionOutbox out = new SessionOutbox(session, writer::add);
+
+		for (int seq = 0; seq < 5; seq++) out.sendState(new TextMessage("state " + seq));
+		assertEquals(4, out.droppedStates());
+		assertEquals(1, writer.size(), "one drain scheduled, however many states");
+
+		writer.forEach(Runnable::run);
+		assertEquals(List.of("state 4"), session.sent);
+		assertFalse(out.hasPendingState());
+	}
+
+	@Test
+	void controlMessagesGoOutInOrderAheadOfTheState() {
+		RecordingSession session = new RecordingSession("a");
+		List<Runnable> writer = new ArrayList<>();
+		SessionOutbox out = new SessionOutbox(session, writer::add);
+
+		out.sendState(new TextMessage("state 1"));
+		out.send(new TextMessage("joined"));
+		out.sendState(new TextMessage("state 2"));
+		out.send(new TextMessage("peer_joined"));
+		writer.forEach(Runnable::run);
+
+		assertEquals(List.of("joined", "peer_joined", "state 2"), session.sent);
+		assertEquals(0, out.queuedControl());
+	}
+
+	@Test
+	void clientTooFarBehindOnControlMessagesIsClosed() {
+		StubSession session = new StubSession("a");
+		List<Runnable> writer = new ArrayList<>(); // held back: the client reads nothing
+		SessionOutbox out = new SessionOutbox(session, writer::add);
+
+		for (int i = 0; i < SessionOutbox.MAX_QUEUED_CONTROL; i++) out.send(new TextMessage("pong"));
+		assertEquals(SessionOutbox.MAX_QUEUED_CONTROL, out.queuedControl());
+		assertTrue(session.isOpen());
+
+		out.send(new TextMessage("pong"));
+		assertEquals(0, out.queuedControl());
+		assertTrue(session.isOpen(), "the socket is the writer's: the caller only queues the close");
+
+		out.send(new TextMessage("pong"));
+		out.sendState(new TextMessage("state"));
+		writer.forEach(Runnable::run);
+		assertFalse(session.isOpen());
+		assertEquals(0, session.messages, "a closed outbox writes nothing");
+	}
+
+	@Test
+	void closingForABackedUpClientWaitsForTheWriteInFlight() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1), unblock = new CountDownLatch(1), closed = new CountDownLatch(1);
+		AtomicBoolean inSend = new AtomicBoolean(), closedMidSend = new AtomicBoolean();
+		StubSession session = new StubSession("a") {
+			@Override
+			public void sendMessage(WebSocketMessage<?> message) {
+				inSend.set(true);
+				writing.countDown();
+				try {
+					unblock.await(); // a full TCP window
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				inSend.set(false);
+			}
+
+			@Override
+			public void close(CloseStatus status) {
+				if (inSend.get()) closedMidSend.set(true);
+				super.close(status);
+				closed.countDown();
+			}
+		};
+		// really concurrent, like the virtual-thread writers: a second task would run at once
+		ExecutorService writer = Executors.newVirtualThreadPerTaskExecutor();
+		try {
+			SessionOutbox out = new SessionOutbox(session, writer);
+			out.send(new TextMessage("joined"));
+			assertTrue(writing.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i <= SessionOutbox.MAX_QUEUED_CONTROL; i++) out.send(new TextMessage("pong"));
+			assertFalse(closed.await(100, TimeUnit.MILLISECONDS), "not while the write is in flight");
+
+			unblock.countDown();
+			assertTrue(closed.await(5, TimeUnit.SECONDS));
+			assertFalse(closedMidSend.get());
+			assertFalse(session.isOpen());
+		} finally {
+			unblock.countDown();
+			writer.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,64 @@
+package com.stickfight.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedTickEngineTest {
+	static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(5);
+
+	static final ShardedTickEngine.TickObserver QUIET = new ShardedTickEngine.TickObserver() {
+		@Override public void tickFinished(int shard, long nanos, boolean overrun) {}
+		@Override public void tickFailed(int shard, Exception e) {}
+	};
+
+	@Test
+	void itemIsAlwaysTickedOnItsOwnShardThread() throws Exception {
+		Map<String, String> threadOf = new ConcurrentHashMap<>();
+		Map<String, Boolean> moved = new ConcurrentHashMap<>();
+		CountDownLatch ticks = new CountDownLatch(40);
+		ShardedTickEngine<String> engine = new ShardedTickEngine<>(4, (key, item) -> {
+			String was = threadOf.putIfAbsent(key, Thread.currentThread().getName());
+			if (was != null && !was.equals(Thread.currentThread().getName())) moved.put(key, true);
+			ticks.countDown();
+		}, "tick", QUIET);
+		try {
+			for (int i = 0; i < 8; i++) engine.register("room" + i, "room" + i, PERIOD);
+			assertTrue(ticks.await(5, TimeUnit.SECONDS));
+			assertEquals(Map.of(), moved);
+			for (var e : threadOf.entrySet()) {
+				assertEquals("tick-" + engine.shardIndexOf(e.getKey()), e.getValue());
+			}
+		} finally {
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	void failingItemDoesNotStopItsShard() throws Exception {
+		AtomicInteger failures = new AtomicInteger();
+		CountDownLatch healthy = new CountDownLatch(10);
+		ShardedTickEngine<String> engine = new ShardedTickEngine<>(1, (key, item) -> {
+			if (key.equals("broken")) throw new IllegalStateException("broken room");
+			healthy.countDown();
+		}, "tick", new ShardedTickEngine.TickObserver() {
+			@Override public void tickFinished(int shard, long nanos, boolean overrun) {}
+			@Override public void tickFailed(int shard, Exception e) { failures.incrementAndGet(); }
+		});
+		try {
+			engine.register("broken", "broken", PERIOD);
+			engine.register("fine", "fine", PERIOD);
+			assertTrue(healthy.await(5, TimeUnit.SECONDS));
+			assertTrue(failures.get() > 0);
+			assertEquals(2, engine.itemCount(0));
+		} finally {
+			engine.shutdown();
+		}
+	}
+}
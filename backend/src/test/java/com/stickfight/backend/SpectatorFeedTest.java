@@ -0,0 +1,106 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SpectatorFeedTest {
+	final ObjectMapper om = new ObjectMapper();
+
+	@Test
+	void viewersShareTheFightersFrameAtTheCappedRate() {
+		// fan-out runs only when we say so, like a busy low-priority pool
+		List<Runnable> fanout = new ArrayList<>();
+		Executor deferred = fanout::add;
+		Room room = new Room("final", 20, false, new SpectatorFeed(deferred, 10, 500));
+		StubSession fighter = new StubSession("p1");
+		room.addPlayer(new SessionOutbox(fighter, Runnable::run), "p1");
+		room.addPlayer(new SessionOutbox(new StubSession("p2"), Runnable::run), "p2");
+		List<StubSession> viewers = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			StubSession v = new StubSession("v" + i);
+			viewers.add(v);
+			assertTrue(room.spectators.add(new SessionOutbox(v, Runnable::run)));
+		}
+
+		// the tick never touches the viewers itself
+		room.match.k1.apply(Pressed.full(Pressed.RIGHT));
+		for (int t = 0; t < 4; t++) room.tickAndBroadcast(om);
+		assertEquals(4, fighter.messages);
+		assertEquals(0, viewers.get(0).messages);
+
+		// 10 Hz out of 20: two frames offered, coalesced into one pending fan-out
+		assertEquals(1, fanout.size());
+		assertEquals(1, room.spectators.skippedFrames());
+		fanout.remove(0).run();
+		for (StubSession v : viewers) {
+			assertEquals(1, v.messages);
+			assertSame(viewers.get(0).last, v.last);
+		}
+		assertSame(fighter.last, viewers.get(0).last); // encoded once, for fighters and viewers alike
+	}
+
+	@Test
+	void stalledViewersHoldUpNoOneElse() throws Exception {
+		// one fan-out thread, as with app.spectators.threads=1; sockets written on the players' writers
+		ExecutorService fanout = Executors.newSingleThreadExecutor();
+		ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+		CountDownLatch unstall = new CountDownLatch(1), delivered = new CountDownLatch(1);
+		try {
+			SpectatorFeed feed = new SpectatorFeed(fanout, 0, 10);
+			for (int i = 0; i < 2; i++) {
+				feed.add(new SessionOutbox(new StubSession("stuck" + i) {
+					@Override
+					public void sendMessage(WebSocketMessage<?> message) {
+						try {
+							unstall.await(); // a full TCP window
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						}
+					}
+				}, writers));
+			}
+			feed.add(new SessionOutbox(new StubSession("ok") {
+				@Override
+				public void sendMessage(WebSocketMessage<?> message) {
+					super.sendMessage(message);
+					if (((TextMessage) message).getPayload().equals("{\"seq\":3}")) delivered.countDown();
+				}
+			}, writers));
+
+			for (int t = 1; t <= 3; t++) {
+				feed.offer(t, new TextMessage("{\"seq\":" + t + "}"), null);
+				Thread.sleep(20);
+			}
+			assertTrue(delivered.await(5, TimeUnit.SECONDS), "the healthy viewer got the latest frame");
+		} finally {
+			unstall.countDown();
+			fanout.shutdownNow();
+			writers.shutdownNow();
+		}
+	}
+
+	@Test
+	void viewerCapAndLeave() {
+		SpectatorFeed feed = new SpectatorFeed(Runnable::run, 0, 2);
+		StubSession a = new StubSession("a");
+		assertTrue(feed.add(new SessionOutbox(a, Runnable::run)));
+		assertTrue(feed.add(new SessionOutbox(new StubSession("b"), Runnable::run)));
+		assertFalse(feed.add(new SessionOutbox(new StubSession("c"), Runnable::run)));
+
+		assertTrue(feed.remove(a));
+		assertFalse(feed.remove(a));
+		assertEquals(1, feed.count());
+	}
+}
@@ -0,0 +1,93 @@
+package com.stickfight.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.socket.TextMessage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatePublisherTest {
+	static final int HZ = 20;
+	final ObjectMapper om = new ObjectMapper();
+	final StatePublisher publisher = new StatePublisher("r", 2, HZ, RoomPool.NONE);
+	final StubSession session = new StubSession("a");
+	final SessionOutbox out = new SessionOutbox(session, Runnable::run);
+
+	{
+		out.setDeltaState(true);
+	}
+
+	// captures tick seq (fighter 1 walks right) and returns what the client got
+	JsonNode publish(int seq) throws Exception {
+		StateSnapshot s = publisher.begin(seq);
+		s.serverTime = seq * 50L;
+		s.setPlayer(0, seq, 0, 100, 1, Action.RUN, "alice");
+		s.setPlayer(1, 500, 0, 100, -1, Action.IDLE, "bob");
+		s.ack[0] = s.ack[1] = -1;
+		publisher.publishTo(out, HZ, om);
+		return om.readTree(((TextMessage) session.last).getPayload());
+	}
+
+	static void assertKeyframe(JsonNode msg) {
+		assertEquals("state", msg.get("type").asText(), msg.toString());
+	}
+
+	static void assertDelta(JsonNode msg, int base) {
+		assertEquals("delta", msg.get("type").asText(), msg.toString());
+		assertEquals(base, msg.get("base").asInt());
+	}
+
+	@Test
+	void deltaAgainstTheAckedState() throws Exception {
+		assertKeyframe(publish(0));
+		out.ackState(0);
+		JsonNode delta = publish(1);
+		assertDelta(delta, 0);
+		assertEquals(1.0, delta.get("players").get(0).get("x").asDouble());
+		assertEquals(0, delta.get("players").get(1).size(), "unchanged fighter is {}");
+	}
+
+	@Test
+	void keyframeWithoutAnAck() throws Exception {
+		assertKeyframe(publish(0));
+		assertKeyframe(publish(1));
+	}
+
+	@Test
+	void keyframeForAnAckOfAStateNeverCaptured() throws Exception {
+		publish(0);
+		publish(2);
+		out.ackState(1); // skipped tick: its slot never held seq 1
+		assertKeyframe(publish(3));
+		out.ackState(7); // ahead of the server
+		assertKeyframe(publish(4));
+	}
+
+	@Test
+	void keyframeOnceTheAckedStateLeftTheHistory() throws Exception {
+		int history = StatePublisher.historyTicks(HZ);
+		publish(0);
+		out.ackState(0);
+		for (int seq = 1; seq < history; seq++) assertDelta(publish(seq), 0);
+		assertKeyframe(publish(history));
+	}
+
+	@Test
+	void keyframeWhenDueEvenWithFreshAcks() throws Exception {
+		int interval = StatePublisher.KEYFRAME_MS * HZ / 1000;
+		publish(0);
+		for (int seq = 1; seq < interval; seq++) {
+			out.ackState(seq - 1);
+			assertDelta(publish(seq), seq - 1);
+		}
+		out.ackState(interval - 1);
+		assertKeyframe(publish(interval));
+	}
+
+	@Test
+	void historyCoversTheSameTimeAtEveryRate() {
+		assertEquals(StatePublisher.HISTORY_MS * 20 / 1000, StatePublisher.historyTicks(20));
+		assertEquals(StatePublisher.HISTORY_MS * 60 / 1000, StatePublisher.historyTicks(60));
+	}
+}
@@ -0,0 +1,50 @@
+package com.stickfight.backend;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.socket.*;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.security.Principal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Open WebSocketSession that drops everything sent to it, counting messages and payload bytes. */
+class StubSession implements WebSocketSession {
+	private final String id;
+	private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+	private volatile boolean open = true;
+	long messages;
+	long bytes;
+	WebSocketMessage<?> last;
+
+	StubSession(String id) {
+		this.id = id;
+	}
+
+	@Override public String getId() { return id; }
+	@Override public URI getUri() { return null; }
+	@Override public HttpHeaders getHandshakeHeaders() { return new HttpHeaders(); }
+	@Override public Map<String, Object> getAttributes() { return attributes; }
+	@Override public Principal getPrincipal() { return null; }
+	@Override public InetSocketAddress getLocalAddress() { return null; }
+	@Override public InetSocketAddress getRemoteAddress() { return null; }
+	@Override public String getAcceptedProtocol() { return null; }
+	@Override public void setTextMessageSizeLimit(int messageSizeLimit) {}
+	@Override public int getTextMessageSizeLimit() { return Integer.MAX_VALUE; }
+	@Override public void setBinaryMessageSizeLimit(int messageSizeLimit) {}
+	@Override public int getBinaryMessageSizeLimit() { return Integer.MAX_VALUE; }
+	@Override public List<WebSocketExtension> getExtensions() { return List.of(); }
+
+	@Override
+	public void sendMessage(WebSocketMessage<?> message) {
+		messages++;
+		bytes += message.getPayloadLength();
+		last = message;
+	}
+
+	@Override public boolean isOpen() { return open; }
+	@Override public void close() { open = false; }
+	@Override public void close(CloseStatus status) { open = false; }
+}
@@ -15,6 +15,14 @@ export default function App() {
   // ping (latency) in ms
   const [pingMs, setPingMs] = useState(null);
 
+  // last join we sent, replayed on the node a redirect points us to
+  const joinRef = useRef(null);
+  // last measured round trip, reported back to the server (matchmaking pairs by it)
+  const rttRef = useRef(-1);
+  // fighter names by slot from "joined"/"peer_joined": states on a slowed link leave them out
+  const namesRef = useRef([]);
+  const [queued, setQueued] = useState(false);
+
   // input we send to the server
   const pressedRef = useRef({
     left: false,
@@ -28,54 +36,95 @@ export default function App() {
   // ---- WebSocket + ping/pong ----
   useEffect(() => {
     const WS_URL = import.meta.env.VITE_WS_URL || "ws://localhost:8080/ws";
-    const ws = new WebSocket(WS_URL);
-
-    wsRef.current = ws;
-
-    ws.onopen = () => console.log("[WS] open");
-
-    ws.onmessage = (e) => {
-      try {
-        const msg = JSON.parse(e.data);
-
-        if (msg.type === "hello") {
-          // ignore
-        } else if (msg.type === "joined") {
-          console.log("Joined room:", msg.room, "slot:", msg.slot);
-          setJoined(true);
-          setSlot(msg.slot);
-        } else if (msg.type === "state") {
-          setGame({
-            players: msg.players || [],
-            ko: !!msg.ko,
-            koReason: msg.koReason || "",
-            timer: typeof msg.timer === "number" ? msg.timer : 0,
-          });
-        } else if (msg.type === "pong" && typeof msg.ts === "number") {
-          // round-trip time (ms)
-          setPingMs(Date.now() - msg.ts);
-        } else if (msg.type === "error") {
-          alert("Server error: " + msg.reason);
+    connect(WS_URL, null);
+
+    function connect(url, firstMessage, attempt = 0) {
+      const ws = new WebSocket(url);
+
+      wsRef.current = ws;
+
+      ws.onopen = () => {
+        console.log("[WS] open", url);
+        if (firstMessage) ws.send(JSON.stringify(firstMessage));
+      };
+
+      ws.onmessage = (e) => {
+        try {
+          const msg = JSON.parse(e.data);
+
+          if (msg.type === "hello") {
+            // ignore
+          } else if (msg.type === "redirect") {
+            // the room lives on another backend node: move there and join again
+            console.log("Room", msg.room, "is on", msg.node);
+            ws.onclose = null;
+            ws.close();
+            connect(msg.url, joinRef.current);
+          } else if (msg.type === "queued") {
+            setQueued(true);
+          } else if (msg.type === "matched") {
+            console.log("Matched against", msg.opponent, "after", msg.waitedMs, "ms");
+          } else if (msg.type === "joined") {
+            console.log("Joined room:", msg.room, "slot:", msg.slot, msg.resumed ? "(resumed)" : "");
+            attempt = 0;
+            // what to send to get this slot back if the server restarts (also for queued matches)
+            if (msg.resume) {
+              joinRef.current = { ...(joinRef.current || { type: "join", name: "Player" }), room: msg.room, resume: msg.resume };
+            }
+            setJoined(true);
+            setQueued(false);
+            setSlot(msg.slot);
+            namesRef.current = msg.names || [];
+          } else if (msg.type === "peer_joined") {
+            namesRef.current[msg.slot - 1] = msg.name;
+          } else if (msg.type === "state") {
+            setGame({
+              players: (msg.players || []).map((p, i) => (p.name === undefined ? { ...p, name: namesRef.current[i] } : p)),
+              ko: !!msg.ko,
+              koReason: msg.koReason || "",
+              timer: typeof msg.timer === "number" ? msg.timer : 0,
+            });
+          } else if (msg.type === "pong" && typeof msg.ts === "number") {
+            // round-trip time (ms)
+            rttRef.current = Date.now() - msg.ts;
+            setPingMs(rttRef.current);
+          } else if (msg.type === "restarting") {
+            // the server is being replaced: it closes us with 1012 and we resume on its successor
+            console.log("Server restarting, resuming room", msg.room);
+            if (joinRef.current) joinRef.current = { ...joinRef.current, room: msg.room, resume: msg.resume };
+          } else if (msg.type === "error") {
+            alert("Server error: " + msg.reason);
+          }
+        } catch (err) {
+          console.error("Bad JSON:", e.data);
         }
-      } catch (err) {
-        console.error("Bad JSON:", e.data);
-      }
-    };
-
-    ws.onerror = (e) => console.error("[WS] error", e);
-    ws.onclose = () => console.log("[WS] closed");
+      };
+
+      ws.onerror = (e) => console.error("[WS] error", e);
+      ws.onclose = (e) => {
+        console.log("[WS] closed", e.code);
+        // 1012 = service restart: give the next instance a moment to come up, then back into our slot
+        // (attempt > 0: it wasn't up yet, keep trying)
+        if ((e.code === 1012 || attempt > 0) && joinRef.current?.resume && attempt < 10) {
+          setTimeout(() => connect(url, joinRef.current, attempt + 1), 1000 + Math.min(500 * 2 ** attempt, 5000));
+        }
+      };
+    }
 
     // send ping every 2 seconds
     const pingIv = setInterval(() => {
-      if (ws.readyState === WebSocket.OPEN) {
+      const ws = wsRef.current;
+      if (ws && ws.readyState === WebSocket.OPEN) {
         const ts = Date.now();
-        ws.send(JSON.stringify({ type: "ping", ts }));
+        const ping = { type: "ping", ts };
+        if (rttRef.current >= 0) ping.rtt = rttRef.current;
+        ws.send(JSON.stringify(ping));
       }
     }, 2000);
 
     return () => {
       clearInterval(pingIv);
-      ws.close();
+      if (wsRef.current) wsRef.current.close();
     };
   }, []);
 
@@ -92,7 +141,20 @@ export default function App() {
       alert("Enter a room name");
       return;
     }
-    send({ type: "join", room: room.trim(), name: name.trim() || "Player" });
+    joinRef.current = { type: "join", room: room.trim(), name: name.trim() || "Player" };
+    send(joinRef.current);
+  }
+
+  // no room id: let the server pair us with someone
+  function onQuickMatch() {
+    send({ type: "queue", name: name.trim() || "Player" });
+  }
+
+  // a room of our own against a server bot
+  function onPractice() {
+    const practiceRoom = "practice-" + Math.random().toString(36).slice(2, 8);
+    joinRef.current = { type: "join", room: practiceRoom, name: name.trim() || "Player", bot: "normal" };
+    send(joinRef.current);
   }
 
   // ---- Key handling + input sending (20 Hz) ----
@@ -171,6 +233,12 @@ export default function App() {
             />
           </div>
           <button type="submit">Join</button>
+          &nbsp;
+          <button type="button" onClick={onQuickMatch} disabled={queued}>
+            {queued ? "Finding opponent..." : "Quick match"}
+          </button>
+          &nbsp;
+          <button type="button" onClick={onPractice}>Practice vs bot</button>
           <div style={{ fontSize: 12, marginTop: 6, opacity: 0.7 }}>
             Open this page in a 2nd browser window, join the same room to see both players.
           </div>